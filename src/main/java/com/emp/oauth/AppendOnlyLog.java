@@ -0,0 +1,355 @@
+package com.emp.oauth;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.ObjIntConsumer;
+import java.util.zip.CRC32C;
+
+import org.jboss.logging.Logger;
+
+// A file of [length][crc32c][body] records, written through a memory mapping and made durable by group commit:
+// appends only copy into the mapping, and one syncer thread msyncs everything written so far on behalf of all
+// callers waiting at that moment. On open, the file is scanned up to the first record that is missing or fails
+// its checksum (a write torn by a crash); everything after it is discarded.
+//
+// Offsets are ints, so one file holds at most 2 GiB; compaction keeps it far below that.
+public class AppendOnlyLog implements AutoCloseable {
+
+    private static final Logger LOG = Logger.getLogger(AppendOnlyLog.class);
+    private static final int HEADER_BYTES = 8;
+    private static final int MAX_SIZE = Integer.MAX_VALUE - 8;
+
+    private final Path path;
+    private final int initialSize;
+    private final long groupCommitWindowNanos;
+    private final Object lock = new Object();
+    private final Deque<Waiter> waiters = new ArrayDeque<>();
+    private final Thread syncer;
+
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int writePosition;
+    private boolean grown;
+    private long fileGeneration;
+    private volatile int syncedPosition;
+    private volatile boolean closed;
+
+    public AppendOnlyLog(Path path, int initialSize, Duration groupCommitWindow) throws IOException {
+        this.path = path;
+        this.initialSize = initialSize;
+        this.groupCommitWindowNanos = groupCommitWindow.toNanos();
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        map(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+        writePosition = recover();
+        syncedPosition = writePosition;
+        syncer = new Thread(this::syncLoop, "oauth-log-sync");
+        syncer.setDaemon(true);
+        syncer.start();
+    }
+
+    // Returns the end offset of the record; pass it to durable() to wait for the fsync that covers it.
+    public int append(byte[] body) {
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("Log is closed");
+            }
+            int end = ensureCapacity(HEADER_BYTES + body.length);
+            CRC32C crc = new CRC32C();
+            crc.update(body);
+            buffer.putInt(writePosition, body.length);
+            buffer.putInt(writePosition + 4, (int) crc.getValue());
+            buffer.put(writePosition + HEADER_BYTES, body);
+            writePosition = end;
+            return end;
+        }
+    }
+
+    public CompletableFuture<Void> durable(int position) {
+        if (position <= syncedPosition) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        synchronized (lock) {
+            if (position <= syncedPosition) {
+                return CompletableFuture.completedFuture(null);
+            }
+            waiters.addLast(new Waiter(position, future));
+        }
+        LockSupport.unpark(syncer);
+        return future;
+    }
+
+    public int end() {
+        synchronized (lock) {
+            return writePosition;
+        }
+    }
+
+    // Hands each record body in [from, to) to the consumer with its offset. The mapping is captured up front,
+    // so this runs alongside appends.
+    public void scan(int from, int to, ObjIntConsumer<byte[]> consumer) {
+        ByteBuffer view;
+        synchronized (lock) {
+            view = buffer.duplicate();
+        }
+        for (int offset = from; offset < to; ) {
+            byte[] body = new byte[view.getInt(offset)];
+            view.get(offset + HEADER_BYTES, body);
+            consumer.accept(body, offset);
+            offset += HEADER_BYTES + body.length;
+        }
+    }
+
+    public byte[] read(int offset) {
+        ByteBuffer view;
+        synchronized (lock) {
+            view = buffer.duplicate();
+        }
+        byte[] body = new byte[view.getInt(offset)];
+        view.get(offset + HEADER_BYTES, body);
+        return body;
+    }
+
+    // Swaps in a compacted copy holding the live records up to `coveredUpTo`. Records appended since then are
+    // carried over byte for byte while appends are held, then the copy atomically replaces the file. The copy is
+    // opened and mapped before the move, so a failure at any step leaves the original file in use.
+    public void replaceWith(Path compacted, int coveredUpTo) throws IOException {
+        synchronized (lock) {
+            buffer.force(0, writePosition);
+            syncedPosition = writePosition;
+            completeWaiters(writePosition);
+            FileChannel next = FileChannel.open(compacted, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer nextBuffer;
+            long end;
+            try {
+                ByteBuffer tail = buffer.duplicate();
+                tail.limit(writePosition).position(coveredUpTo);
+                end = next.size() + tail.remaining();
+                if (end > MAX_SIZE) {
+                    throw new IOException("Compacted store log would exceed " + MAX_SIZE + " bytes");
+                }
+                next.position(next.size());
+                while (tail.hasRemaining()) {
+                    next.write(tail);
+                }
+                next.force(true);
+                nextBuffer = mapping(next);
+                Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException | RuntimeException e) {
+                next.close();
+                Files.deleteIfExists(compacted);
+                throw e;
+            }
+            // The rename is durable only once the directory is; a crash before that could bring back the old
+            // file without anything appended to the new one. The path names the new file either way, so a
+            // failed sync still switches over and is then reported.
+            IOException unsynced = null;
+            try {
+                forceDirectory(path);
+            } catch (IOException e) {
+                unsynced = e;
+            }
+            channel.close();
+            channel = next;
+            buffer = nextBuffer;
+            fileGeneration++;
+            grown = true;
+            writePosition = (int) end;
+            syncedPosition = writePosition;
+            if (unsynced != null) {
+                throw unsynced;
+            }
+        }
+    }
+
+    private static void forceDirectory(Path file) throws IOException {
+        try (FileChannel directory = FileChannel.open(file.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+            directory.force(true);
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    // Writes bodies as a fresh log file, for compaction.
+    public static void writeFile(Path target, Iterable<byte[]> bodies) throws IOException {
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (byte[] body : bodies) {
+                CRC32C crc = new CRC32C();
+                crc.update(body);
+                ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + body.length);
+                record.putInt(body.length).putInt((int) crc.getValue()).put(body).flip();
+                while (record.hasRemaining()) {
+                    channel.write(record);
+                }
+            }
+            channel.force(true);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            buffer.force(0, writePosition);
+            syncedPosition = writePosition;
+            completeWaiters(writePosition);
+            channel.close();
+        }
+        LockSupport.unpark(syncer);
+    }
+
+    private void syncLoop() {
+        while (!closed) {
+            boolean idle;
+            synchronized (lock) {
+                idle = waiters.isEmpty();
+            }
+            if (idle) {
+                LockSupport.park(this);
+                continue;
+            }
+            // Let the callers that arrive within the window share this fsync.
+            if (groupCommitWindowNanos > 0) {
+                LockSupport.parkNanos(this, groupCommitWindowNanos);
+            }
+            MappedByteBuffer target;
+            FileChannel targetChannel;
+            long generation;
+            int from;
+            int to;
+            boolean forceMetadata;
+            synchronized (lock) {
+                if (closed) {
+                    return;
+                }
+                target = buffer;
+                targetChannel = channel;
+                generation = fileGeneration;
+                from = syncedPosition;
+                to = writePosition;
+                forceMetadata = grown;
+                grown = false;
+            }
+            try {
+                if (to > from) {
+                    target.force(from, to - from);
+                }
+                if (forceMetadata) {
+                    targetChannel.force(true);
+                }
+                synchronized (lock) {
+                    // A compaction swapped files meanwhile: it synced and released everyone itself, and `to`
+                    // is an offset into the old file.
+                    if (generation == fileGeneration) {
+                        syncedPosition = Math.max(syncedPosition, to);
+                        completeWaiters(syncedPosition);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                synchronized (lock) {
+                    if (generation != fileGeneration || closed) {
+                        continue;
+                    }
+                    LOG.errorf("Failed to sync %s: %s", path, e.getMessage());
+                    Waiter waiter;
+                    while ((waiter = waiters.pollFirst()) != null) {
+                        waiter.future().completeExceptionally(new IllegalStateException("Failed to sync store log", e));
+                    }
+                }
+            }
+        }
+    }
+
+    private void completeWaiters(int position) {
+        while (!waiters.isEmpty() && waiters.peekFirst().position() <= position) {
+            waiters.pollFirst().future().complete(null);
+        }
+    }
+
+    private int ensureCapacity(int length) {
+        long end = (long) writePosition + length;
+        if (end > MAX_SIZE) {
+            throw new IllegalStateException("Store log " + path + " is full");
+        }
+        if (end > buffer.capacity()) {
+            try {
+                long size = Math.min(MAX_SIZE, Math.max(end, (long) buffer.capacity() * 2));
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                grown = true;
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to grow store log " + path, e);
+            }
+        }
+        return (int) end;
+    }
+
+    private void map(FileChannel opened) throws IOException {
+        channel = opened;
+        buffer = mapping(opened);
+    }
+
+    private MappedByteBuffer mapping(FileChannel opened) throws IOException {
+        long size = Math.min(MAX_SIZE, Math.max(initialSize, opened.size()));
+        return opened.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    private int recover() {
+        int offset = 0;
+        int capacity = buffer.capacity();
+        while (offset + HEADER_BYTES <= capacity) {
+            int length = buffer.getInt(offset);
+            if (length <= 0 || length > capacity - offset - HEADER_BYTES) {
+                break;
+            }
+            byte[] body = new byte[length];
+            buffer.get(offset + HEADER_BYTES, body);
+            CRC32C crc = new CRC32C();
+            crc.update(body);
+            if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+                break;
+            }
+            offset += HEADER_BYTES + length;
+        }
+        // Pages can reach the disk out of order, so acknowledged-looking records may sit past a torn one.
+        // They were never acknowledged; clear them so they cannot resurface behind later appends.
+        boolean dirty = false;
+        int i = offset;
+        for (; i + 8 <= capacity && !dirty; i += 8) {
+            dirty = buffer.getLong(i) != 0;
+        }
+        for (; i < capacity && !dirty; i++) {
+            dirty = buffer.get(i) != 0;
+        }
+        if (dirty) {
+            LOG.warnf("Discarding torn tail of %s after offset %d", path, offset);
+            for (int j = offset; j < capacity; j++) {
+                buffer.put(j, (byte) 0);
+            }
+            buffer.force();
+        }
+        return offset;
+    }
+
+    private record Waiter(int position, CompletableFuture<Void> future) {
+    }
+}
@@ -14,9 +14,17 @@ public class AuthRequestRecord {
     private final String originalState;
     private final String userId;
     private final Instant expiresAt;
+    private final UserClaims userClaims;
 
     public AuthRequestRecord(String id, String clientId, String redirectUri, String scope, String resource,
             String codeChallenge, String codeChallengeMethod, String originalState, String userId, Instant expiresAt) {
+        this(id, clientId, redirectUri, scope, resource, codeChallenge, codeChallengeMethod, originalState, userId,
+                expiresAt, null);
+    }
+
+    public AuthRequestRecord(String id, String clientId, String redirectUri, String scope, String resource,
+            String codeChallenge, String codeChallengeMethod, String originalState, String userId, Instant expiresAt,
+            UserClaims userClaims) {
         this.id = id;
         this.clientId = clientId;
         this.redirectUri = redirectUri;
@@ -27,6 +35,7 @@ public class AuthRequestRecord {
         this.originalState = originalState;
         this.userId = userId;
         this.expiresAt = expiresAt;
+        this.userClaims = userClaims;
     }
 
     public String getId() {
@@ -68,4 +77,8 @@ public class AuthRequestRecord {
     public Instant getExpiresAt() {
         return expiresAt;
     }
+
+    public UserClaims getUserClaims() {
+        return userClaims;
+    }
 }
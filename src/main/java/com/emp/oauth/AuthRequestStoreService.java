@@ -1,6 +1,8 @@
 package com.emp.oauth;
 
 import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
@@ -13,47 +15,175 @@ public class AuthRequestStoreService {
     @ConfigProperty(name = "emp.oauth.firestore.enabled", defaultValue = "false")
     boolean firestoreEnabled;
 
+    @ConfigProperty(name = "emp.oauth.embedded.enabled", defaultValue = "false")
+    boolean embeddedEnabled;
+
+    @ConfigProperty(name = "emp.oauth.auth-requests.stateless", defaultValue = "false")
+    boolean statelessRequests;
+
+    @ConfigProperty(name = "emp.oauth.auth-requests.single-use", defaultValue = "true")
+    boolean singleUse;
+
     @Inject
     InMemoryAuthRequestStore inMemoryAuthRequestStore;
 
     @Inject
     FirestoreAuthRequestStore firestoreAuthRequestStore;
 
-    public void save(AuthRequestRecord record) {
+    @Inject
+    EmbeddedAuthRequestStore embeddedAuthRequestStore;
+
+    @Inject
+    SealedAuthRequests sealedRequests;
+
+    // Returns the value the flow carries as `state`: the record id, or in stateless mode the sealed record.
+    public String save(AuthRequestRecord record) {
+        if (statelessRequests) {
+            return sealedRequests.seal(record);
+        }
         if (firestoreEnabled) {
             firestoreAuthRequestStore.save(record);
-            return;
+            return record.getId();
+        }
+        if (embeddedEnabled) {
+            embeddedAuthRequestStore.save(record);
+            return record.getId();
         }
         inMemoryAuthRequestStore.save(record);
+        return record.getId();
     }
 
     public Optional<AuthRequestRecord> find(String id) {
+        if (statelessRequests) {
+            return openSealed(id);
+        }
         if (firestoreEnabled) {
             return firestoreAuthRequestStore.find(id);
         }
+        if (embeddedEnabled) {
+            return embeddedAuthRequestStore.find(id);
+        }
         return inMemoryAuthRequestStore.find(id);
     }
 
+    public CompletableFuture<Optional<AuthRequestRecord>> findAsync(String id) {
+        if (statelessRequests) {
+            return CompletableFuture.completedFuture(openSealed(id));
+        }
+        if (firestoreEnabled) {
+            return firestoreAuthRequestStore.findAsync(id);
+        }
+        if (embeddedEnabled) {
+            return embeddedAuthRequestStore.findAsync(id);
+        }
+        return CompletableFuture.completedFuture(inMemoryAuthRequestStore.find(id));
+    }
+
     public void remove(String id) {
+        if (statelessRequests) {
+            finishSealed(id);
+            return;
+        }
         if (firestoreEnabled) {
             firestoreAuthRequestStore.remove(id);
             return;
         }
+        if (embeddedEnabled) {
+            embeddedAuthRequestStore.remove(id);
+            return;
+        }
         inMemoryAuthRequestStore.remove(id);
     }
 
-    public void updateUserId(String id, String userId) {
+    public CompletableFuture<Void> removeAsync(String id) {
+        if (statelessRequests) {
+            finishSealed(id);
+            return CompletableFuture.completedFuture(null);
+        }
         if (firestoreEnabled) {
-            firestoreAuthRequestStore.updateUserId(id, userId);
-            return;
+            return firestoreAuthRequestStore.removeAsync(id);
         }
-        inMemoryAuthRequestStore.updateUserId(id, userId);
+        if (embeddedEnabled) {
+            return embeddedAuthRequestStore.removeAsync(id);
+        }
+        inMemoryAuthRequestStore.remove(id);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    // Returns the `state` to continue the flow with, which changes in stateless mode.
+    public String updateUserId(String id, String userId, UserClaims claims) {
+        if (statelessRequests) {
+            return resealWithUser(id, userId, claims);
+        }
+        if (firestoreEnabled) {
+            firestoreAuthRequestStore.updateUserId(id, userId, claims);
+            return id;
+        }
+        if (embeddedEnabled) {
+            embeddedAuthRequestStore.updateUserId(id, userId, claims);
+            return id;
+        }
+        inMemoryAuthRequestStore.updateUserId(id, userId, claims);
+        return id;
     }
 
-    public int cleanupExpired(java.time.Instant now) {
+    public CompletableFuture<String> updateUserIdAsync(String id, String userId, UserClaims claims) {
+        if (statelessRequests) {
+            return CompletableFuture.completedFuture(resealWithUser(id, userId, claims));
+        }
         if (firestoreEnabled) {
-            return firestoreAuthRequestStore.cleanupExpired(now);
+            return firestoreAuthRequestStore.updateUserIdAsync(id, userId, claims).thenApply(ignored -> id);
+        }
+        if (embeddedEnabled) {
+            return embeddedAuthRequestStore.updateUserIdAsync(id, userId, claims).thenApply(ignored -> id);
+        }
+        inMemoryAuthRequestStore.updateUserId(id, userId, claims);
+        return CompletableFuture.completedFuture(id);
+    }
+
+    // With single use on, a sealed request stops opening once its flow has finished. The set of finished ids is
+    // kept in memory by each instance, so it guards against replays to the same instance only.
+    private Optional<AuthRequestRecord> openSealed(String state) {
+        return sealedRequests.open(state)
+                .filter(record -> !singleUse || !inMemoryAuthRequestStore.isFinished(record.getId()));
+    }
+
+    private void finishSealed(String state) {
+        if (singleUse) {
+            sealedRequests.open(state)
+                    .ifPresent(record -> inMemoryAuthRequestStore.finish(record.getId(), record.getExpiresAt()));
+        }
+    }
+
+    // The login step is over once the user is known, so its state is finished and the consent step gets a
+    // fresh one under a new id.
+    private String resealWithUser(String state, String userId, UserClaims claims) {
+        AuthRequestRecord existing = openSealed(state).orElse(null);
+        if (existing == null) {
+            return state;
+        }
+        finishSealed(state);
+        return sealedRequests.seal(new AuthRequestRecord(
+                UUID.randomUUID().toString(),
+                existing.getClientId(),
+                existing.getRedirectUri(),
+                existing.getScope(),
+                existing.getResource(),
+                existing.getCodeChallenge(),
+                existing.getCodeChallengeMethod(),
+                existing.getOriginalState(),
+                userId,
+                existing.getExpiresAt(),
+                claims));
+    }
+
+    public int cleanupExpired(java.time.Instant now, CleanupBudget budget) {
+        if (firestoreEnabled) {
+            return firestoreAuthRequestStore.cleanupExpired(now, budget);
+        }
+        if (embeddedEnabled) {
+            return embeddedAuthRequestStore.cleanupExpired(now, budget);
         }
-        return inMemoryAuthRequestStore.cleanupExpired(now);
+        return inMemoryAuthRequestStore.cleanupExpired(now, budget);
     }
 }
@@ -13,10 +13,18 @@ public class AuthorizationCodeRecord {
     private final String codeChallenge;
     private final String codeChallengeMethod;
     private final Instant expiresAt;
+    private final UserClaims userClaims;
     private Instant usedAt;
 
     public AuthorizationCodeRecord(String code, String clientId, String userId, String redirectUri, String scope,
             String resource, String codeChallenge, String codeChallengeMethod, Instant expiresAt) {
+        this(code, clientId, userId, redirectUri, scope, resource, codeChallenge, codeChallengeMethod, expiresAt,
+                null);
+    }
+
+    public AuthorizationCodeRecord(String code, String clientId, String userId, String redirectUri, String scope,
+            String resource, String codeChallenge, String codeChallengeMethod, Instant expiresAt,
+            UserClaims userClaims) {
         this.code = code;
         this.clientId = clientId;
         this.userId = userId;
@@ -26,6 +34,7 @@ public class AuthorizationCodeRecord {
         this.codeChallenge = codeChallenge;
         this.codeChallengeMethod = codeChallengeMethod;
         this.expiresAt = expiresAt;
+        this.userClaims = userClaims;
     }
 
     public String getCode() {
@@ -64,6 +73,10 @@ public class AuthorizationCodeRecord {
         return expiresAt;
     }
 
+    public UserClaims getUserClaims() {
+        return userClaims;
+    }
+
     public Instant getUsedAt() {
         return usedAt;
     }
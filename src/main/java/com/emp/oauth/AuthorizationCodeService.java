@@ -1,8 +1,7 @@
 package com.emp.oauth;
 
-import java.security.SecureRandom;
 import java.time.Instant;
-import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
 
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
@@ -15,14 +14,43 @@ public class AuthorizationCodeService {
     @ConfigProperty(name = "emp.oauth.auth-code-ttl-seconds", defaultValue = "300")
     long authCodeTtlSeconds;
 
+    @ConfigProperty(name = "emp.oauth.auth-codes.stateless", defaultValue = "false")
+    boolean statelessCodes;
+
     @Inject
     AuthorizationCodeStoreService codeStoreService;
 
+    @Inject
+    SealedAuthorizationCodes sealedCodes;
+
+    @Inject
+    SecureTokenGenerator tokenGenerator;
+
     public String issueCode(String clientId, String redirectUri, String scope, String resource, String codeChallenge,
-            String codeChallengeMethod, String userId) {
-        String code = generateCode();
-        AuthorizationCodeRecord record = new AuthorizationCodeRecord(
-                code,
+            String codeChallengeMethod, String userId, UserClaims userClaims) {
+        AuthorizationCodeRecord record = newRecord(clientId, redirectUri, scope, resource, codeChallenge,
+                codeChallengeMethod, userId, userClaims);
+        if (statelessCodes) {
+            return sealedCodes.seal(record).getCode();
+        }
+        codeStoreService.save(record);
+        return record.getCode();
+    }
+
+    public CompletableFuture<String> issueCodeAsync(String clientId, String redirectUri, String scope,
+            String resource, String codeChallenge, String codeChallengeMethod, String userId, UserClaims userClaims) {
+        AuthorizationCodeRecord record = newRecord(clientId, redirectUri, scope, resource, codeChallenge,
+                codeChallengeMethod, userId, userClaims);
+        if (statelessCodes) {
+            return CompletableFuture.completedFuture(sealedCodes.seal(record).getCode());
+        }
+        return codeStoreService.saveAsync(record).thenApply(ignored -> record.getCode());
+    }
+
+    private AuthorizationCodeRecord newRecord(String clientId, String redirectUri, String scope, String resource,
+            String codeChallenge, String codeChallengeMethod, String userId, UserClaims userClaims) {
+        return new AuthorizationCodeRecord(
+                generateCode(),
                 clientId,
                 userId,
                 redirectUri,
@@ -30,14 +58,11 @@ public class AuthorizationCodeService {
                 resource,
                 codeChallenge,
                 codeChallengeMethod,
-                Instant.now().plusSeconds(authCodeTtlSeconds));
-        codeStoreService.save(record);
-        return code;
+                Instant.now().plusSeconds(authCodeTtlSeconds),
+                userClaims);
     }
 
     private String generateCode() {
-        byte[] bytes = new byte[32];
-        new SecureRandom().nextBytes(bytes);
-        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        return tokenGenerator.next(OpaqueTokenFormat.Kind.AUTHORIZATION_CODE);
     }
 }
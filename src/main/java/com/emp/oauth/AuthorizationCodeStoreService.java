@@ -1,6 +1,8 @@
 package com.emp.oauth;
 
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
@@ -13,37 +15,120 @@ public class AuthorizationCodeStoreService {
     @ConfigProperty(name = "emp.oauth.firestore.enabled", defaultValue = "false")
     boolean firestoreEnabled;
 
+    @ConfigProperty(name = "emp.oauth.embedded.enabled", defaultValue = "false")
+    boolean embeddedEnabled;
+
+    @ConfigProperty(name = "emp.oauth.auth-codes.stateless", defaultValue = "false")
+    boolean statelessCodes;
+
     @Inject
     InMemoryAuthorizationCodeStore inMemoryAuthorizationCodeStore;
 
     @Inject
     FirestoreAuthorizationCodeStore firestoreAuthorizationCodeStore;
 
+    @Inject
+    EmbeddedAuthorizationCodeStore embeddedAuthorizationCodeStore;
+
+    @Inject
+    SealedAuthorizationCodes sealedCodes;
+
+    @Inject
+    OpaqueTokenFormat tokenFormat;
+
     public void save(AuthorizationCodeRecord record) {
         if (firestoreEnabled) {
             firestoreAuthorizationCodeStore.save(record);
             return;
         }
+        if (embeddedEnabled) {
+            embeddedAuthorizationCodeStore.save(record);
+            return;
+        }
+        inMemoryAuthorizationCodeStore.save(record);
+    }
+
+    public CompletableFuture<Void> saveAsync(AuthorizationCodeRecord record) {
+        if (firestoreEnabled) {
+            return firestoreAuthorizationCodeStore.saveAsync(record);
+        }
+        if (embeddedEnabled) {
+            return embeddedAuthorizationCodeStore.saveAsync(record);
+        }
         inMemoryAuthorizationCodeStore.save(record);
+        return CompletableFuture.completedFuture(null);
     }
 
     public Optional<AuthorizationCodeRecord> find(String code) {
+        if (statelessCodes) {
+            return sealedCodes.open(code);
+        }
         if (firestoreEnabled) {
             return firestoreAuthorizationCodeStore.find(code);
         }
+        if (embeddedEnabled) {
+            return embeddedAuthorizationCodeStore.find(code);
+        }
         return inMemoryAuthorizationCodeStore.find(code);
     }
 
-    public void markUsed(String code) {
+    public Redemption<AuthorizationCodeRecord> redeem(String code,
+            Function<AuthorizationCodeRecord, GrantError> validator,
+            Function<AuthorizationCodeRecord, RefreshTokenRecord> refreshTokenFactory) {
+        if (statelessCodes) {
+            return redeemSealed(code, validator, refreshTokenFactory);
+        }
+        if (!tokenFormat.admits(OpaqueTokenFormat.Kind.AUTHORIZATION_CODE, code)) {
+            return Redemption.rejected(null, new GrantError("invalid_grant", "code is invalid"));
+        }
+        if (firestoreEnabled) {
+            return firestoreAuthorizationCodeStore.redeem(code, validator, refreshTokenFactory);
+        }
+        if (embeddedEnabled) {
+            return embeddedAuthorizationCodeStore.redeem(code, validator, refreshTokenFactory);
+        }
+        return inMemoryAuthorizationCodeStore.redeem(code, validator, refreshTokenFactory);
+    }
+
+    // Validation runs before the code id is consumed, as it does against a stored code, so a rejected attempt
+    // leaves the code usable; of two concurrent redemptions only one consumes it.
+    private Redemption<AuthorizationCodeRecord> redeemSealed(String code,
+            Function<AuthorizationCodeRecord, GrantError> validator,
+            Function<AuthorizationCodeRecord, RefreshTokenRecord> refreshTokenFactory) {
+        AuthorizationCodeRecord record = sealedCodes.open(code).orElse(null);
+        if (record == null) {
+            tokenFormat.rejected(OpaqueTokenFormat.Kind.AUTHORIZATION_CODE, "forged");
+            return Redemption.rejected(null, new GrantError("invalid_grant", "code is invalid"));
+        }
+        GrantError error = validator.apply(record);
+        if (error != null) {
+            return Redemption.rejected(record, error);
+        }
+        RefreshTokenRecord refreshToken = refreshTokenFactory.apply(record);
+        if (!consume(record.getCode(), record.getExpiresAt(), refreshToken)) {
+            return Redemption.rejected(record, new GrantError("invalid_grant", "code was already used"));
+        }
+        record.markUsed(java.time.Instant.now());
+        return Redemption.redeemed(record, refreshToken);
+    }
+
+    private boolean consume(String codeId, java.time.Instant expiresAt, RefreshTokenRecord refreshToken) {
         if (firestoreEnabled) {
-            firestoreAuthorizationCodeStore.markUsed(code);
+            return firestoreAuthorizationCodeStore.consume(codeId, expiresAt, refreshToken);
         }
+        if (embeddedEnabled) {
+            return embeddedAuthorizationCodeStore.consume(codeId, expiresAt, refreshToken);
+        }
+        return inMemoryAuthorizationCodeStore.consume(codeId, expiresAt, refreshToken);
     }
 
-    public int cleanup(java.time.Instant now) {
+    public int cleanup(java.time.Instant now, CleanupBudget budget) {
         if (firestoreEnabled) {
-            return firestoreAuthorizationCodeStore.cleanup(now);
+            return firestoreAuthorizationCodeStore.cleanup(now, budget);
+        }
+        if (embeddedEnabled) {
+            return embeddedAuthorizationCodeStore.cleanup(now, budget);
         }
-        return inMemoryAuthorizationCodeStore.cleanup(now);
+        return inMemoryAuthorizationCodeStore.cleanup(now, budget);
     }
 }
@@ -0,0 +1,41 @@
+package com.emp.oauth;
+
+public final class Base64Url {
+
+    private static final byte[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+
+    private Base64Url() {
+    }
+
+    public static int encodedLength(int length) {
+        int remainder = length % 3;
+        return (length / 3) * 4 + (remainder == 0 ? 0 : remainder + 1);
+    }
+
+    // Unpadded base64url of src[srcOffset, srcOffset + length) written at dst[dstOffset]; returns the end offset.
+    public static int encode(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset) {
+        int in = srcOffset;
+        int out = dstOffset;
+        int fullEnd = srcOffset + length - length % 3;
+        while (in < fullEnd) {
+            int bits = (src[in++] & 0xff) << 16 | (src[in++] & 0xff) << 8 | (src[in++] & 0xff);
+            dst[out++] = ALPHABET[(bits >>> 18) & 0x3f];
+            dst[out++] = ALPHABET[(bits >>> 12) & 0x3f];
+            dst[out++] = ALPHABET[(bits >>> 6) & 0x3f];
+            dst[out++] = ALPHABET[bits & 0x3f];
+        }
+        int remainder = srcOffset + length - in;
+        if (remainder == 1) {
+            int bits = (src[in] & 0xff) << 16;
+            dst[out++] = ALPHABET[(bits >>> 18) & 0x3f];
+            dst[out++] = ALPHABET[(bits >>> 12) & 0x3f];
+        } else if (remainder == 2) {
+            int bits = (src[in] & 0xff) << 16 | (src[in + 1] & 0xff) << 8;
+            dst[out++] = ALPHABET[(bits >>> 18) & 0x3f];
+            dst[out++] = ALPHABET[(bits >>> 12) & 0x3f];
+            dst[out++] = ALPHABET[(bits >>> 6) & 0x3f];
+        }
+        return out;
+    }
+}
@@ -0,0 +1,65 @@
+package com.emp.oauth;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+import jakarta.ws.rs.core.CacheControl;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+public final class CachedJsonDocument {
+
+    private final byte[] body;
+    private final String etag;
+
+    public CachedJsonDocument(byte[] body) {
+        this.body = body.clone();
+        this.etag = "\"" + digest(this.body) + "\"";
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public Response toResponse(String ifNoneMatch, int maxAgeSeconds) {
+        CacheControl cacheControl = new CacheControl();
+        cacheControl.setMaxAge(maxAgeSeconds);
+        if (matches(ifNoneMatch)) {
+            return Response.status(Response.Status.NOT_MODIFIED)
+                    .header(HttpHeaders.ETAG, etag)
+                    .cacheControl(cacheControl)
+                    .build();
+        }
+        return Response.ok(body, MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.ETAG, etag)
+                .cacheControl(cacheControl)
+                .build();
+    }
+
+    private boolean matches(String ifNoneMatch) {
+        if (ifNoneMatch == null || ifNoneMatch.isBlank()) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String value = candidate.trim();
+            if (value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+            if ("*".equals(value) || etag.equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String digest(byte[] body) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(body);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
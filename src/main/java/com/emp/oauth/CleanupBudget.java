@@ -0,0 +1,47 @@
+package com.emp.oauth;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Shared by the parallel sweeps of one cleanup run: a wall-clock deadline plus a cap on delete operations.
+public class CleanupBudget {
+
+    private final long deadlineNanos;
+    private final AtomicLong remainingOperations;
+
+    public CleanupBudget(Duration maxDuration, long maxOperations) {
+        this.deadlineNanos = System.nanoTime() + maxDuration.toNanos();
+        this.remainingOperations = new AtomicLong(maxOperations);
+    }
+
+    public boolean isExhausted() {
+        return remainingOperations.get() <= 0 || System.nanoTime() - deadlineNanos >= 0;
+    }
+
+    // Takes up to `wanted` operations; returns how many were granted, 0 once the budget is spent.
+    public int reserve(int wanted) {
+        if (System.nanoTime() - deadlineNanos >= 0) {
+            return 0;
+        }
+        while (true) {
+            long remaining = remainingOperations.get();
+            if (remaining <= 0) {
+                return 0;
+            }
+            int granted = (int) Math.min(wanted, remaining);
+            if (remainingOperations.compareAndSet(remaining, remaining - granted)) {
+                return granted;
+            }
+        }
+    }
+
+    public void refund(int operations) {
+        if (operations > 0) {
+            remainingOperations.addAndGet(operations);
+        }
+    }
+
+    public boolean tryConsume() {
+        return reserve(1) == 1;
+    }
+}
@@ -0,0 +1,66 @@
+package com.emp.oauth;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+public class CleanupJob {
+
+    public enum Status {
+        RUNNING, COMPLETED, SKIPPED, FAILED
+    }
+
+    private final String id;
+    private final String trigger;
+    private final Instant startedAt;
+    private final Map<String, Integer> deleted = new LinkedHashMap<>();
+    private volatile Status status = Status.RUNNING;
+    private volatile Instant finishedAt;
+    private volatile boolean moreWork;
+    private volatile String error;
+
+    public CleanupJob(String id, String trigger, Instant startedAt) {
+        this.id = id;
+        this.trigger = trigger;
+        this.startedAt = startedAt;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    synchronized void recordDeleted(String store, int count) {
+        deleted.put(store, count);
+    }
+
+    void finish(Status status, boolean moreWork, String error) {
+        this.moreWork = moreWork;
+        this.error = error;
+        this.finishedAt = Instant.now();
+        this.status = status;
+    }
+
+    public synchronized Map<String, Object> toBody() {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("jobId", id);
+        body.put("trigger", trigger);
+        body.put("status", status.name().toLowerCase(Locale.ROOT));
+        body.put("startedAt", startedAt.toString());
+        if (finishedAt != null) {
+            body.put("finishedAt", finishedAt.toString());
+        }
+        body.putAll(deleted);
+        if (status == Status.COMPLETED) {
+            body.put("moreWork", moreWork);
+        }
+        if (error != null) {
+            body.put("error", error);
+        }
+        return body;
+    }
+}
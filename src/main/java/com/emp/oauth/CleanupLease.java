@@ -0,0 +1,96 @@
+package com.emp.oauth;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+
+// Keeps two instances from sweeping at the same time. With Firestore the lease is a document holding the
+// owner and an expiry, taken in a transaction; an expired lease (crashed owner) can be taken over. Without
+// Firestore there is only this process to guard against.
+@ApplicationScoped
+public class CleanupLease {
+
+    private static final Logger LOG = Logger.getLogger(CleanupLease.class);
+    private static final String LEASE_ID = "cleanup";
+
+    @ConfigProperty(name = "emp.oauth.firestore.enabled", defaultValue = "false")
+    boolean firestoreEnabled;
+
+    @ConfigProperty(name = "emp.oauth.firestore.leases-collection", defaultValue = "leases")
+    String collectionName;
+
+    @Inject
+    Firestore firestore;
+
+    private final AtomicBoolean localLease = new AtomicBoolean();
+
+    public boolean tryAcquire(String owner, Duration ttl) {
+        if (!localLease.compareAndSet(false, true)) {
+            return false;
+        }
+        if (!firestoreEnabled) {
+            return true;
+        }
+        try {
+            DocumentReference reference = firestore.collection(collectionName).document(LEASE_ID);
+            boolean acquired = firestore.runTransaction(transaction -> {
+                DocumentSnapshot snapshot = transaction.get(reference).get();
+                Instant now = Instant.now();
+                if (snapshot.exists()) {
+                    Timestamp expiresAt = snapshot.getTimestamp("expiresAt");
+                    if (expiresAt != null && Instant.ofEpochSecond(expiresAt.getSeconds(), expiresAt.getNanos())
+                            .isAfter(now)) {
+                        return false;
+                    }
+                }
+                Instant expiresAt = now.plus(ttl);
+                Map<String, Object> data = new HashMap<>();
+                data.put("owner", owner);
+                data.put("expiresAt", Timestamp.ofTimeSecondsAndNanos(expiresAt.getEpochSecond(), expiresAt.getNano()));
+                transaction.set(reference, data);
+                return true;
+            }).get();
+            if (!acquired) {
+                localLease.set(false);
+            }
+            return acquired;
+        } catch (Exception e) {
+            localLease.set(false);
+            throw new IllegalStateException("Failed to acquire cleanup lease", e);
+        }
+    }
+
+    public void release(String owner) {
+        try {
+            if (!firestoreEnabled) {
+                return;
+            }
+            DocumentReference reference = firestore.collection(collectionName).document(LEASE_ID);
+            firestore.runTransaction(transaction -> {
+                DocumentSnapshot snapshot = transaction.get(reference).get();
+                if (snapshot.exists() && owner.equals(snapshot.getString("owner"))) {
+                    transaction.delete(reference);
+                }
+                return null;
+            }).get();
+        } catch (Exception e) {
+            // The lease expires on its own; the next run just waits for that.
+            LOG.warnf("Failed to release cleanup lease: %s", e.getMessage());
+        } finally {
+            localLease.set(false);
+        }
+    }
+}
@@ -1,51 +1,43 @@
 package com.emp.oauth;
 
-import java.time.Instant;
-import java.time.temporal.ChronoUnit;
+import java.net.URI;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
 import jakarta.inject.Inject;
+import jakarta.ws.rs.GET;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 
-import org.eclipse.microprofile.config.inject.ConfigProperty;
-
 @Path("/oauth/cleanup")
 @Produces(MediaType.APPLICATION_JSON)
 public class CleanupResource {
 
-    @ConfigProperty(name = "emp.oauth.cleanup.clients-inactive-days", defaultValue = "7")
-    long clientsInactiveDays;
-
-    @Inject
-    AuthRequestStoreService authRequestStoreService;
-
-    @Inject
-    AuthorizationCodeStoreService authorizationCodeStoreService;
-
-    @Inject
-    RefreshTokenStoreService refreshTokenStoreService;
-
     @Inject
-    ClientStoreService clientStoreService;
+    CleanupScheduler cleanupScheduler;
 
     @POST
     public Response cleanup() {
-        Instant now = Instant.now();
-        Instant clientCutoff = now.minus(clientsInactiveDays, ChronoUnit.DAYS);
-        int authRequestsDeleted = authRequestStoreService.cleanupExpired(now);
-        int authCodesDeleted = authorizationCodeStoreService.cleanup(now);
-        int refreshTokensDeleted = refreshTokenStoreService.cleanup(now);
-        int clientsDeleted = clientStoreService.cleanupInactive(clientCutoff);
-        Map<String, Object> body = new LinkedHashMap<>();
-        body.put("authRequestsDeleted", authRequestsDeleted);
-        body.put("authCodesDeleted", authCodesDeleted);
-        body.put("refreshTokensDeleted", refreshTokensDeleted);
-        body.put("clientsDeleted", clientsDeleted);
-        return Response.ok(body).build();
+        CleanupJob job = cleanupScheduler.submit();
+        return Response.accepted(job.toBody())
+                .location(URI.create("/oauth/cleanup/" + job.getId()))
+                .build();
+    }
+
+    @GET
+    @Path("/{jobId}")
+    public Response status(@PathParam("jobId") String jobId) {
+        return cleanupScheduler.find(jobId)
+                .map(job -> Response.ok(job.toBody()).build())
+                .orElseGet(() -> {
+                    Map<String, Object> body = new LinkedHashMap<>();
+                    body.put("error", "not_found");
+                    body.put("error_description", "unknown cleanup job");
+                    return Response.status(Response.Status.NOT_FOUND).entity(body).build();
+                });
     }
 }
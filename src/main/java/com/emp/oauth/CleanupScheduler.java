@@ -0,0 +1,148 @@
+package com.emp.oauth;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntSupplier;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import io.quarkus.scheduler.Scheduled;
+
+// Runs the four store sweeps in parallel under one shared time/operation budget. A run that hits the
+// budget reports moreWork and the next run carries on; the sweeps' queries only match what is left.
+@ApplicationScoped
+public class CleanupScheduler {
+
+    private static final Logger LOG = Logger.getLogger(CleanupScheduler.class);
+    private static final int SWEEPS = 4;
+
+    @ConfigProperty(name = "emp.oauth.cleanup.clients-inactive-days", defaultValue = "7")
+    long clientsInactiveDays;
+
+    @ConfigProperty(name = "emp.oauth.cleanup.scheduler-enabled", defaultValue = "true")
+    boolean schedulerEnabled;
+
+    @ConfigProperty(name = "emp.oauth.cleanup.max-run-seconds", defaultValue = "30")
+    long maxRunSeconds;
+
+    @ConfigProperty(name = "emp.oauth.cleanup.max-operations", defaultValue = "5000")
+    long maxOperations;
+
+    @ConfigProperty(name = "emp.oauth.cleanup.job-history", defaultValue = "20")
+    int jobHistory;
+
+    @Inject
+    AuthRequestStoreService authRequestStoreService;
+
+    @Inject
+    AuthorizationCodeStoreService authorizationCodeStoreService;
+
+    @Inject
+    RefreshTokenStoreService refreshTokenStoreService;
+
+    @Inject
+    ClientStoreService clientStoreService;
+
+    @Inject
+    CleanupLease lease;
+
+    private final String instanceId = UUID.randomUUID().toString();
+    private Map<String, CleanupJob> jobs;
+    private ExecutorService executor;
+
+    @PostConstruct
+    void init() {
+        jobs = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CleanupJob> eldest) {
+                return size() > jobHistory;
+            }
+        };
+        // One thread coordinates a manually triggered run, the rest carry its sweeps.
+        executor = Executors.newFixedThreadPool(SWEEPS + 1, runnable -> {
+            Thread thread = new Thread(runnable, "oauth-cleanup");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void close() {
+        executor.shutdownNow();
+    }
+
+    @Scheduled(every = "{emp.oauth.cleanup.interval}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void scheduledRun() {
+        if (schedulerEnabled) {
+            run(newJob("scheduled"));
+        }
+    }
+
+    public CleanupJob submit() {
+        CleanupJob job = newJob("manual");
+        executor.execute(() -> run(job));
+        return job;
+    }
+
+    public synchronized Optional<CleanupJob> find(String jobId) {
+        return Optional.ofNullable(jobs.get(jobId));
+    }
+
+    private synchronized CleanupJob newJob(String trigger) {
+        CleanupJob job = new CleanupJob(UUID.randomUUID().toString(), trigger, Instant.now());
+        jobs.put(job.getId(), job);
+        return job;
+    }
+
+    private void run(CleanupJob job) {
+        String owner = instanceId + "/" + job.getId();
+        try {
+            // The lease outlives the budget so a slow final page cannot let a second instance in.
+            if (!lease.tryAcquire(owner, Duration.ofSeconds(maxRunSeconds * 2))) {
+                job.finish(CleanupJob.Status.SKIPPED, false, "another cleanup run holds the lease");
+                return;
+            }
+        } catch (IllegalStateException e) {
+            LOG.warnf("Cleanup %s could not take the lease: %s", job.getId(), e.getMessage());
+            job.finish(CleanupJob.Status.FAILED, false, e.getMessage());
+            return;
+        }
+        try {
+            Instant now = Instant.now();
+            Instant clientCutoff = now.minus(clientsInactiveDays, ChronoUnit.DAYS);
+            CleanupBudget budget = new CleanupBudget(Duration.ofSeconds(maxRunSeconds), maxOperations);
+            CompletableFuture.allOf(
+                    sweep(job, "authRequestsDeleted", () -> authRequestStoreService.cleanupExpired(now, budget)),
+                    sweep(job, "authCodesDeleted", () -> authorizationCodeStoreService.cleanup(now, budget)),
+                    sweep(job, "refreshTokensDeleted", () -> refreshTokenStoreService.cleanup(now, budget)),
+                    sweep(job, "clientsDeleted", () -> clientStoreService.cleanupInactive(clientCutoff, budget)))
+                    .join();
+            job.finish(CleanupJob.Status.COMPLETED, budget.isExhausted(), null);
+            LOG.debugf("Cleanup %s finished: %s", job.getId(), job.toBody());
+        } catch (RuntimeException e) {
+            RuntimeException cause = FutureSupport.unwrap(e);
+            LOG.warnf("Cleanup %s failed: %s", job.getId(), cause.getMessage());
+            job.finish(CleanupJob.Status.FAILED, false, cause.getMessage());
+        } finally {
+            lease.release(owner);
+        }
+    }
+
+    private CompletableFuture<Void> sweep(CleanupJob job, String name, IntSupplier sweep) {
+        return CompletableFuture.runAsync(() -> job.recordDeleted(name, sweep.getAsInt()), executor);
+    }
+}
@@ -0,0 +1,78 @@
+package com.emp.oauth;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.scheduler.Scheduled;
+
+// Write-behind for client lastUsedAt: request threads only touch the map, the store sees one write per
+// client per flush interval.
+@ApplicationScoped
+public class ClientActivityTracker {
+
+    private static final Logger LOG = Logger.getLogger(ClientActivityTracker.class);
+
+    @ConfigProperty(name = "emp.oauth.firestore.enabled", defaultValue = "false")
+    boolean firestoreEnabled;
+
+    @ConfigProperty(name = "emp.oauth.embedded.enabled", defaultValue = "false")
+    boolean embeddedEnabled;
+
+    @Inject
+    InMemoryClientStore inMemoryClientStore;
+
+    @Inject
+    FirestoreClientStore firestoreClientStore;
+
+    @Inject
+    EmbeddedClientStore embeddedClientStore;
+
+    private final ConcurrentMap<String, Long> pending = new ConcurrentHashMap<>();
+
+    public void record(String clientId, Instant lastUsedAt) {
+        pending.merge(clientId, lastUsedAt.toEpochMilli(), Math::max);
+    }
+
+    @Scheduled(every = "{emp.oauth.clients.last-used-flush-interval}",
+            concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    public synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        Map<String, Instant> batch = new HashMap<>();
+        for (String clientId : pending.keySet()) {
+            Long millis = pending.remove(clientId);
+            if (millis != null) {
+                batch.put(clientId, Instant.ofEpochMilli(millis));
+            }
+        }
+        try {
+            if (firestoreEnabled) {
+                firestoreClientStore.updateLastUsedAt(batch);
+            } else if (embeddedEnabled) {
+                embeddedClientStore.updateLastUsedAt(batch);
+            } else {
+                batch.forEach(inMemoryClientStore::updateLastUsedAt);
+            }
+        } catch (RuntimeException e) {
+            // Put the timestamps back so the next flush retries them; newer activity wins the merge.
+            batch.forEach((clientId, lastUsedAt) -> record(clientId, lastUsedAt));
+            LOG.warnf("Failed to flush lastUsedAt for %d clients: %s", batch.size(), e.getMessage());
+        }
+    }
+
+    void onStop(@Observes ShutdownEvent event) {
+        flush();
+    }
+}
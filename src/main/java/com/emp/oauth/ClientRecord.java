@@ -2,12 +2,14 @@ package com.emp.oauth;
 
 import java.time.Instant;
 import java.util.List;
+import java.util.Set;
 
 public class ClientRecord {
 
     private final String clientId;
     private final String clientName;
     private final List<String> redirectUris;
+    private final Set<String> redirectUriSet;
     private final String tokenEndpointAuthMethod;
     private final Instant createdAt;
     private final Instant lastUsedAt;
@@ -17,6 +19,7 @@ public class ClientRecord {
         this.clientId = clientId;
         this.clientName = clientName;
         this.redirectUris = redirectUris;
+        this.redirectUriSet = redirectUris == null ? Set.of() : Set.copyOf(redirectUris);
         this.tokenEndpointAuthMethod = tokenEndpointAuthMethod;
         this.createdAt = createdAt;
         this.lastUsedAt = lastUsedAt;
@@ -34,6 +37,10 @@ public class ClientRecord {
         return redirectUris;
     }
 
+    public boolean isRedirectUriAllowed(String redirectUri) {
+        return redirectUri != null && redirectUriSet.contains(redirectUri);
+    }
+
     public String getTokenEndpointAuthMethod() {
         return tokenEndpointAuthMethod;
     }
@@ -13,17 +13,30 @@ public class ClientStoreService {
     @ConfigProperty(name = "emp.oauth.firestore.enabled", defaultValue = "false")
     boolean firestoreEnabled;
 
+    @ConfigProperty(name = "emp.oauth.embedded.enabled", defaultValue = "false")
+    boolean embeddedEnabled;
+
     @Inject
     InMemoryClientStore inMemoryClientStore;
 
     @Inject
     FirestoreClientStore firestoreClientStore;
 
+    @Inject
+    EmbeddedClientStore embeddedClientStore;
+
+    @Inject
+    ClientActivityTracker activityTracker;
+
     public void save(ClientRecord client) {
         if (firestoreEnabled) {
             firestoreClientStore.save(client);
             return;
         }
+        if (embeddedEnabled) {
+            embeddedClientStore.save(client);
+            return;
+        }
         inMemoryClientStore.save(client);
     }
 
@@ -31,6 +44,9 @@ public class ClientStoreService {
         if (firestoreEnabled) {
             return firestoreClientStore.findById(clientId);
         }
+        if (embeddedEnabled) {
+            return embeddedClientStore.findById(clientId);
+        }
         return inMemoryClientStore.findById(clientId);
     }
 
@@ -38,21 +54,25 @@ public class ClientStoreService {
         if (firestoreEnabled) {
             return firestoreClientStore.isRedirectUriAllowed(clientId, redirectUri);
         }
+        if (embeddedEnabled) {
+            return embeddedClientStore.isRedirectUriAllowed(clientId, redirectUri);
+        }
         return inMemoryClientStore.isRedirectUriAllowed(clientId, redirectUri);
     }
 
+    // Buffered in memory and written by ClientActivityTracker's periodic flush.
     public void updateLastUsedAt(String clientId, java.time.Instant lastUsedAt) {
-        if (firestoreEnabled) {
-            firestoreClientStore.updateLastUsedAt(clientId, lastUsedAt);
-            return;
-        }
-        inMemoryClientStore.updateLastUsedAt(clientId, lastUsedAt);
+        activityTracker.record(clientId, lastUsedAt);
     }
 
-    public int cleanupInactive(java.time.Instant cutoff) {
+    public int cleanupInactive(java.time.Instant cutoff, CleanupBudget budget) {
+        activityTracker.flush();
         if (firestoreEnabled) {
-            return firestoreClientStore.cleanupInactive(cutoff);
+            return firestoreClientStore.cleanupInactive(cutoff, budget);
+        }
+        if (embeddedEnabled) {
+            return embeddedClientStore.cleanupInactive(cutoff, budget);
         }
-        return inMemoryClientStore.cleanupInactive(cutoff);
+        return inMemoryClientStore.cleanupInactive(cutoff, budget);
     }
 }
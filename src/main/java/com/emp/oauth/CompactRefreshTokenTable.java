@@ -0,0 +1,457 @@
+package com.emp.oauth;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Refresh tokens as rows of primitive arrays instead of one object graph per token. Keys are the 48 bytes
+// behind the 64 characters after the "rt." prefix (other token shapes are keyed by their SHA-384, which is
+// also 48 bytes) held as six longs; an open-addressing int table maps them to rows. Client, user, scope,
+// resource and email are interned, times are epoch seconds. A row costs about a hundred bytes instead of
+// several hundred.
+//
+// Not thread-safe: InMemoryRefreshTokenStore guards it with a read/write lock.
+public class CompactRefreshTokenTable {
+
+    private static final int KEY_LONGS = 6;
+    private static final String TOKEN_PREFIX = OpaqueTokenFormat.Kind.REFRESH_TOKEN.prefix();
+    private static final int TOKEN_CHARS = 64;
+    private static final int EMPTY = 0;
+    private static final int TOMBSTONE = -1;
+    private static final long FREE = Long.MIN_VALUE;
+    private static final long NOT_USED = Long.MIN_VALUE;
+    private static final long NO_CLAIMS = Long.MIN_VALUE;
+    private static final byte VERIFIED_UNKNOWN = 0;
+    private static final byte VERIFIED_FALSE = 1;
+    private static final byte VERIFIED_TRUE = 2;
+    private static final int INITIAL_ROWS = 1024;
+
+    private static final int[] BASE64URL = new int[128];
+    private static final ThreadLocal<MessageDigest> SHA384 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-384");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-384 not available", e);
+        }
+    });
+
+    static {
+        Arrays.fill(BASE64URL, -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64URL[alphabet.charAt(i)] = i;
+        }
+    }
+
+    private final StringPool strings = new StringPool();
+    // Rows filed under the epoch second they fall due (expiry, or use for rotated tokens). Row ids are reused,
+    // so a filed id is re-checked against the row's current state before anything is removed.
+    private final TreeMap<Long, RowList> due = new TreeMap<>();
+
+    private long[] keys = new long[INITIAL_ROWS * KEY_LONGS];
+    private int[] clientIds = new int[INITIAL_ROWS];
+    private int[] userIds = new int[INITIAL_ROWS];
+    private int[] scopeIds = new int[INITIAL_ROWS];
+    private int[] resourceIds = new int[INITIAL_ROWS];
+    private int[] emailIds = new int[INITIAL_ROWS];
+    private byte[] emailVerified = new byte[INITIAL_ROWS];
+    private long[] expiresAt = new long[INITIAL_ROWS];
+    private long[] usedAt = new long[INITIAL_ROWS];
+    private long[] claimsVerifiedAt = new long[INITIAL_ROWS];
+    private int rowCount;
+    private int[] freeRows = new int[16];
+    private int freeRowCount;
+
+    // Row id + 1, EMPTY or TOMBSTONE; linear probing, kept at most half full.
+    private int[] slots = new int[INITIAL_ROWS * 2];
+    private int size;
+    private int tombstones;
+    private long dueRefs;
+
+    public int size() {
+        return size;
+    }
+
+    public RefreshTokenRecord get(String token) {
+        int row = find(token);
+        return row < 0 ? null : read(row, token);
+    }
+
+    public int find(String token) {
+        int slot = slotOf(key(token));
+        return slot < 0 ? -1 : slots[slot] - 1;
+    }
+
+    public RefreshTokenRecord read(int row, String token) {
+        UserClaims claims = null;
+        if (claimsVerifiedAt[row] != NO_CLAIMS) {
+            claims = new UserClaims(
+                    strings.value(emailIds[row]),
+                    emailVerified[row] == VERIFIED_UNKNOWN ? null : emailVerified[row] == VERIFIED_TRUE,
+                    Instant.ofEpochSecond(claimsVerifiedAt[row]));
+        }
+        RefreshTokenRecord record = new RefreshTokenRecord(
+                token,
+                strings.value(clientIds[row]),
+                strings.value(userIds[row]),
+                strings.value(scopeIds[row]),
+                strings.value(resourceIds[row]),
+                Instant.ofEpochSecond(expiresAt[row]),
+                claims);
+        if (usedAt[row] != NOT_USED) {
+            // The successor is not kept per row; nothing on the in-memory path reads it back.
+            record.markUsed(Instant.ofEpochSecond(usedAt[row]), null);
+        }
+        return record;
+    }
+
+    public void put(RefreshTokenRecord record) {
+        long[] key = key(record.getToken());
+        int slot = slotOf(key);
+        int row;
+        if (slot >= 0) {
+            row = slots[slot] - 1;
+            releaseStrings(row);
+        } else {
+            if ((size + tombstones + 1) * 2 > slots.length) {
+                rehash();
+            }
+            row = allocateRow();
+            System.arraycopy(key, 0, keys, row * KEY_LONGS, KEY_LONGS);
+            slots[freeSlotFor(key)] = row + 1;
+            size++;
+        }
+        clientIds[row] = strings.acquire(record.getClientId());
+        userIds[row] = strings.acquire(record.getUserId());
+        scopeIds[row] = strings.acquire(record.getScope());
+        resourceIds[row] = strings.acquire(record.getResource());
+        expiresAt[row] = record.getExpiresAt().getEpochSecond();
+        usedAt[row] = record.getUsedAt() == null ? NOT_USED : record.getUsedAt().getEpochSecond();
+        UserClaims claims = record.getUserClaims();
+        if (claims == null) {
+            emailIds[row] = -1;
+            emailVerified[row] = VERIFIED_UNKNOWN;
+            claimsVerifiedAt[row] = NO_CLAIMS;
+        } else {
+            emailIds[row] = strings.acquire(claims.getEmail());
+            emailVerified[row] = claims.getEmailVerified() == null
+                    ? VERIFIED_UNKNOWN
+                    : claims.getEmailVerified() ? VERIFIED_TRUE : VERIFIED_FALSE;
+            claimsVerifiedAt[row] = claims.getVerifiedAt().getEpochSecond();
+        }
+        fileDue(expiresAt[row], row);
+        if (usedAt[row] != NOT_USED) {
+            fileDue(usedAt[row], row);
+        }
+    }
+
+    public boolean isUsed(int row) {
+        return usedAt[row] != NOT_USED;
+    }
+
+    public void markUsed(int row, Instant now) {
+        usedAt[row] = now.getEpochSecond();
+        // A used token is dead weight; file it for the next sweep instead of waiting for its expiry.
+        fileDue(usedAt[row], row);
+    }
+
+    // Removes rows that are used or expired before `now`, one budget operation each, oldest first.
+    public int removeDue(Instant now, CleanupBudget budget) {
+        long nowSecond = now.getEpochSecond();
+        int removed = 0;
+        Iterator<Map.Entry<Long, RowList>> buckets = due.headMap(nowSecond, false).entrySet().iterator();
+        while (buckets.hasNext()) {
+            RowList rows = buckets.next().getValue();
+            while (rows.hasNext()) {
+                int row = rows.peek();
+                if (isDue(row, nowSecond)) {
+                    if (!budget.tryConsume()) {
+                        return removed;
+                    }
+                    removeRow(row);
+                    removed++;
+                }
+                rows.next();
+                dueRefs--;
+            }
+            buckets.remove();
+        }
+        return removed;
+    }
+
+    // Drops the row that falls due first, whether or not it is due yet; false if the table is empty.
+    public boolean evictEarliest() {
+        Iterator<Map.Entry<Long, RowList>> buckets = due.entrySet().iterator();
+        while (buckets.hasNext()) {
+            Map.Entry<Long, RowList> bucket = buckets.next();
+            RowList rows = bucket.getValue();
+            while (rows.hasNext()) {
+                int row = rows.next();
+                dueRefs--;
+                // A stale filing of a reused row must not evict the newer token living in it.
+                if (isFiledUnder(row, bucket.getKey())) {
+                    removeRow(row);
+                    if (!rows.hasNext()) {
+                        buckets.remove();
+                    }
+                    return true;
+                }
+            }
+            buckets.remove();
+        }
+        return false;
+    }
+
+    public long retainedBytes() {
+        long rows = keys.length * 8L
+                + (clientIds.length + userIds.length + scopeIds.length + resourceIds.length + emailIds.length) * 4L
+                + emailVerified.length
+                + (expiresAt.length + usedAt.length + claimsVerifiedAt.length) * 8L
+                + freeRows.length * 4L;
+        // TreeMap node plus RowList header per bucket, four bytes per filed row id.
+        long dueBytes = due.size() * 72L + dueRefs * 4;
+        return rows + slots.length * 4L + dueBytes + strings.retainedBytes();
+    }
+
+    private boolean isFiledUnder(int row, long second) {
+        return expiresAt[row] != FREE && (expiresAt[row] == second || usedAt[row] == second);
+    }
+
+    private boolean isDue(int row, long nowSecond) {
+        return expiresAt[row] != FREE && (usedAt[row] != NOT_USED || expiresAt[row] < nowSecond);
+    }
+
+    private void removeRow(int row) {
+        int slot = slotOf(Arrays.copyOfRange(keys, row * KEY_LONGS, row * KEY_LONGS + KEY_LONGS));
+        slots[slot] = TOMBSTONE;
+        tombstones++;
+        size--;
+        releaseStrings(row);
+        expiresAt[row] = FREE;
+        if (freeRowCount == freeRows.length) {
+            freeRows = Arrays.copyOf(freeRows, freeRows.length * 2);
+        }
+        freeRows[freeRowCount++] = row;
+    }
+
+    private void releaseStrings(int row) {
+        strings.release(clientIds[row]);
+        strings.release(userIds[row]);
+        strings.release(scopeIds[row]);
+        strings.release(resourceIds[row]);
+        strings.release(emailIds[row]);
+    }
+
+    private void fileDue(long epochSecond, int row) {
+        due.computeIfAbsent(epochSecond, second -> new RowList()).add(row);
+        dueRefs++;
+    }
+
+    private int allocateRow() {
+        if (freeRowCount > 0) {
+            return freeRows[--freeRowCount];
+        }
+        if (rowCount == expiresAt.length) {
+            int capacity = expiresAt.length * 2;
+            keys = Arrays.copyOf(keys, capacity * KEY_LONGS);
+            clientIds = Arrays.copyOf(clientIds, capacity);
+            userIds = Arrays.copyOf(userIds, capacity);
+            scopeIds = Arrays.copyOf(scopeIds, capacity);
+            resourceIds = Arrays.copyOf(resourceIds, capacity);
+            emailIds = Arrays.copyOf(emailIds, capacity);
+            emailVerified = Arrays.copyOf(emailVerified, capacity);
+            expiresAt = Arrays.copyOf(expiresAt, capacity);
+            usedAt = Arrays.copyOf(usedAt, capacity);
+            claimsVerifiedAt = Arrays.copyOf(claimsVerifiedAt, capacity);
+        }
+        return rowCount++;
+    }
+
+    private int slotOf(long[] key) {
+        int mask = slots.length - 1;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            int value = slots[slot];
+            if (value == EMPTY) {
+                return -1;
+            }
+            if (value != TOMBSTONE && keyEquals(value - 1, key)) {
+                return slot;
+            }
+        }
+    }
+
+    private int freeSlotFor(long[] key) {
+        int mask = slots.length - 1;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            if (slots[slot] == EMPTY) {
+                return slot;
+            }
+            if (slots[slot] == TOMBSTONE) {
+                tombstones--;
+                return slot;
+            }
+        }
+    }
+
+    private void rehash() {
+        int capacity = Integer.highestOneBit(Math.max(INITIAL_ROWS, size + 1) * 4 - 1) << 1;
+        int[] old = slots;
+        slots = new int[capacity];
+        tombstones = 0;
+        long[] key = new long[KEY_LONGS];
+        for (int value : old) {
+            if (value > 0) {
+                System.arraycopy(keys, (value - 1) * KEY_LONGS, key, 0, KEY_LONGS);
+                slots[freeSlotFor(key)] = value;
+            }
+        }
+    }
+
+    private boolean keyEquals(int row, long[] key) {
+        int offset = row * KEY_LONGS;
+        for (int i = 0; i < KEY_LONGS; i++) {
+            if (keys[offset + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(long[] key) {
+        // The key bytes are random already; fold and mix in case a non-random token format shows up.
+        long h = key[0] ^ key[3] * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    static long[] key(String token) {
+        long[] key = new long[KEY_LONGS];
+        if (token.length() == TOKEN_PREFIX.length() + TOKEN_CHARS && token.startsWith(TOKEN_PREFIX)
+                && decode(token, TOKEN_PREFIX.length(), key)) {
+            return key;
+        }
+        byte[] digest = SHA384.get().digest(token.getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < digest.length; i++) {
+            key[i >> 3] = key[i >> 3] << 8 | (digest[i] & 0xff);
+        }
+        return key;
+    }
+
+    // 64 base64url characters are exactly 384 bits: each long takes the next 64 bits of sextets.
+    private static boolean decode(String token, int offset, long[] key) {
+        int bits = 0;
+        long acc = 0;
+        int word = 0;
+        for (int i = offset; i < offset + TOKEN_CHARS; i++) {
+            char c = token.charAt(i);
+            int value = c < 128 ? BASE64URL[c] : -1;
+            if (value < 0) {
+                return false;
+            }
+            int take = Math.min(6, 64 - bits);
+            acc = acc << take | (value >>> (6 - take));
+            bits += take;
+            if (bits == 64) {
+                key[word++] = acc;
+                bits = 6 - take;
+                acc = value & ((1 << bits) - 1);
+            }
+        }
+        return true;
+    }
+
+    private static final class RowList {
+
+        private int[] rows = new int[4];
+        private int head;
+        private int tail;
+
+        void add(int row) {
+            if (tail == rows.length) {
+                rows = Arrays.copyOf(rows, rows.length * 2);
+            }
+            rows[tail++] = row;
+        }
+
+        boolean hasNext() {
+            return head < tail;
+        }
+
+        int peek() {
+            return rows[head];
+        }
+
+        int next() {
+            return rows[head++];
+        }
+    }
+
+    // Reference-counted interning so that a value disappears with the last row that uses it.
+    private static final class StringPool {
+
+        private final Map<String, Integer> ids = new HashMap<>();
+        private String[] values = new String[64];
+        private int[] references = new int[64];
+        private int[] free = new int[16];
+        private int freeCount;
+        private int next;
+        private long bytes;
+
+        int acquire(String value) {
+            if (value == null) {
+                return -1;
+            }
+            Integer existing = ids.get(value);
+            if (existing != null) {
+                references[existing]++;
+                return existing;
+            }
+            int id;
+            if (freeCount > 0) {
+                id = free[--freeCount];
+            } else {
+                if (next == values.length) {
+                    values = Arrays.copyOf(values, values.length * 2);
+                    references = Arrays.copyOf(references, references.length * 2);
+                }
+                id = next++;
+            }
+            values[id] = value;
+            references[id] = 1;
+            ids.put(value, id);
+            // String, HashMap node and boxed id.
+            bytes += StoreCapacity.stringBytes(value) + 48;
+            return id;
+        }
+
+        void release(int id) {
+            if (id < 0 || --references[id] > 0) {
+                return;
+            }
+            String value = values[id];
+            ids.remove(value);
+            bytes -= StoreCapacity.stringBytes(value) + 48;
+            values[id] = null;
+            if (freeCount == free.length) {
+                free = Arrays.copyOf(free, free.length * 2);
+            }
+            free[freeCount++] = id;
+        }
+
+        String value(int id) {
+            return id < 0 ? null : values[id];
+        }
+
+        long retainedBytes() {
+            return bytes + values.length * 4L + references.length * 4L + free.length * 4L;
+        }
+    }
+}
@@ -71,7 +71,8 @@ public class ConsentResource {
                 record.getResource(),
                 record.getCodeChallenge(),
                 record.getCodeChallengeMethod(),
-                userId);
+                userId,
+                record.getUserClaims());
         authRequestStore.remove(state);
         UriBuilder redirect = UriBuilder.fromUri(record.getRedirectUri())
                 .queryParam("code", code);
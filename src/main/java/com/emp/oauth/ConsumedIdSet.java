@@ -0,0 +1,37 @@
+package com.emp.oauth;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Replay protection for sealed values: remembers which ids were used until the value they belong to has
+// expired anyway. Each consume first drops the ids that are past due, so the set stays bounded by the use rate
+// times the value lifetime without needing the cleanup job, which may be running on another instance.
+public class ConsumedIdSet {
+
+    private final Map<String, Instant> consumed = new ConcurrentHashMap<>();
+    private final ExpiryIndex<String> expiry = new ExpiryIndex<>();
+
+    // False when the id was already used.
+    public boolean consume(String id, Instant expiresAt) {
+        Instant now = Instant.now();
+        expiry.drain(now, expired -> {
+            consumed.computeIfPresent(expired, (key, until) -> until.isBefore(now) ? null : until);
+            return true;
+        });
+        if (consumed.putIfAbsent(id, expiresAt) != null) {
+            return false;
+        }
+        expiry.add(id, expiresAt);
+        return true;
+    }
+
+    public boolean contains(String id) {
+        return consumed.containsKey(id);
+    }
+
+    public void restore(String id, Instant expiresAt) {
+        consumed.put(id, expiresAt);
+        expiry.add(id, expiresAt);
+    }
+}
@@ -0,0 +1,56 @@
+package com.emp.oauth;
+
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+@ApplicationScoped
+public class EmbeddedAuthRequestStore {
+
+    @Inject
+    InMemoryAuthRequestStore inMemoryAuthRequestStore;
+
+    @Inject
+    EmbeddedStoreLog storeLog;
+
+    public void save(AuthRequestRecord record) {
+        inMemoryAuthRequestStore.save(record);
+        FutureSupport.join(storeLog.putAuthRequest(record));
+    }
+
+    public Optional<AuthRequestRecord> find(String id) {
+        return inMemoryAuthRequestStore.find(id);
+    }
+
+    public CompletableFuture<Optional<AuthRequestRecord>> findAsync(String id) {
+        return CompletableFuture.completedFuture(inMemoryAuthRequestStore.find(id));
+    }
+
+    public void remove(String id) {
+        FutureSupport.join(removeAsync(id));
+    }
+
+    // The delete is logged so a consumed request cannot be replayed after a restart.
+    public CompletableFuture<Void> removeAsync(String id) {
+        inMemoryAuthRequestStore.remove(id);
+        return storeLog.delete(EmbeddedStoreLog.AUTH_REQUEST, id);
+    }
+
+    public void updateUserId(String id, String userId, UserClaims claims) {
+        FutureSupport.join(updateUserIdAsync(id, userId, claims));
+    }
+
+    public CompletableFuture<Void> updateUserIdAsync(String id, String userId, UserClaims claims) {
+        inMemoryAuthRequestStore.updateUserId(id, userId, claims);
+        return inMemoryAuthRequestStore.find(id)
+                .map(storeLog::putAuthRequest)
+                .orElseGet(() -> CompletableFuture.completedFuture(null));
+    }
+
+    public int cleanupExpired(Instant now, CleanupBudget budget) {
+        return inMemoryAuthRequestStore.cleanupExpired(now, budget);
+    }
+}
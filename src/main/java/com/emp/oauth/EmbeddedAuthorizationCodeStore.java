@@ -0,0 +1,59 @@
+package com.emp.oauth;
+
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+@ApplicationScoped
+public class EmbeddedAuthorizationCodeStore {
+
+    @Inject
+    InMemoryAuthorizationCodeStore inMemoryAuthorizationCodeStore;
+
+    @Inject
+    EmbeddedStoreLog storeLog;
+
+    public void save(AuthorizationCodeRecord record) {
+        FutureSupport.join(saveAsync(record));
+    }
+
+    public CompletableFuture<Void> saveAsync(AuthorizationCodeRecord record) {
+        inMemoryAuthorizationCodeStore.save(record);
+        return storeLog.putAuthorizationCode(record);
+    }
+
+    public Optional<AuthorizationCodeRecord> find(String code) {
+        return inMemoryAuthorizationCodeStore.find(code);
+    }
+
+    // The consumed code is logged as deleted together with the refresh token it produced; the response waits
+    // for the one group commit that covers both.
+    public Redemption<AuthorizationCodeRecord> redeem(String code,
+            Function<AuthorizationCodeRecord, GrantError> validator,
+            Function<AuthorizationCodeRecord, RefreshTokenRecord> refreshTokenFactory) {
+        Redemption<AuthorizationCodeRecord> redemption =
+                inMemoryAuthorizationCodeStore.redeem(code, validator, refreshTokenFactory);
+        if (redemption.isRedeemed()) {
+            storeLog.delete(EmbeddedStoreLog.AUTH_CODE, code);
+            FutureSupport.join(storeLog.putRefreshToken(redemption.getIssued()));
+        }
+        return redemption;
+    }
+
+    public boolean consume(String codeId, Instant expiresAt, RefreshTokenRecord refreshToken) {
+        if (!inMemoryAuthorizationCodeStore.consume(codeId, expiresAt, refreshToken)) {
+            return false;
+        }
+        storeLog.putConsumedCode(codeId, expiresAt);
+        FutureSupport.join(storeLog.putRefreshToken(refreshToken));
+        return true;
+    }
+
+    public int cleanup(Instant now, CleanupBudget budget) {
+        return inMemoryAuthorizationCodeStore.cleanup(now, budget);
+    }
+}
@@ -0,0 +1,61 @@
+package com.emp.oauth;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+@ApplicationScoped
+public class EmbeddedClientStore {
+
+    @ConfigProperty(name = "emp.oauth.cleanup.clients-inactive-days", defaultValue = "7")
+    long clientsInactiveDays;
+
+    @Inject
+    InMemoryClientStore inMemoryClientStore;
+
+    @Inject
+    EmbeddedStoreLog storeLog;
+
+    public void save(ClientRecord client) {
+        inMemoryClientStore.save(client);
+        FutureSupport.join(storeLog.putClient(client, retainUntil(client)));
+    }
+
+    public Optional<ClientRecord> findById(String clientId) {
+        return inMemoryClientStore.findById(clientId);
+    }
+
+    public boolean isRedirectUriAllowed(String clientId, String redirectUri) {
+        return inMemoryClientStore.isRedirectUriAllowed(clientId, redirectUri);
+    }
+
+    // One group commit covers the whole flush.
+    public void updateLastUsedAt(Map<String, Instant> lastUsedAt) {
+        CompletableFuture<Void> last = CompletableFuture.completedFuture(null);
+        for (Map.Entry<String, Instant> entry : lastUsedAt.entrySet()) {
+            inMemoryClientStore.updateLastUsedAt(entry.getKey(), entry.getValue());
+            Optional<ClientRecord> updated = inMemoryClientStore.findById(entry.getKey());
+            if (updated.isPresent()) {
+                last = storeLog.putClient(updated.get(), retainUntil(updated.get()));
+            }
+        }
+        FutureSupport.join(last);
+    }
+
+    // Removals are not logged: a client's record stops being replayed once it has been inactive this long.
+    public int cleanupInactive(Instant cutoff, CleanupBudget budget) {
+        return inMemoryClientStore.cleanupInactive(cutoff, budget);
+    }
+
+    private Instant retainUntil(ClientRecord client) {
+        Instant lastActivity = client.getLastUsedAt() == null ? client.getCreatedAt() : client.getLastUsedAt();
+        return lastActivity.plus(clientsInactiveDays, ChronoUnit.DAYS);
+    }
+}
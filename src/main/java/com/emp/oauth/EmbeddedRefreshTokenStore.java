@@ -0,0 +1,41 @@
+package com.emp.oauth;
+
+import java.time.Instant;
+import java.util.Optional;
+import java.util.function.Function;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+@ApplicationScoped
+public class EmbeddedRefreshTokenStore {
+
+    @Inject
+    InMemoryRefreshTokenStore inMemoryRefreshTokenStore;
+
+    @Inject
+    EmbeddedStoreLog storeLog;
+
+    public void save(RefreshTokenRecord record) {
+        inMemoryRefreshTokenStore.save(record);
+        FutureSupport.join(storeLog.putRefreshToken(record));
+    }
+
+    public Optional<RefreshTokenRecord> find(String token) {
+        return inMemoryRefreshTokenStore.find(token);
+    }
+
+    public Redemption<RefreshTokenRecord> rotate(String token, Function<RefreshTokenRecord, GrantError> validator,
+            Function<RefreshTokenRecord, RefreshTokenRecord> successorFactory) {
+        Redemption<RefreshTokenRecord> rotation = inMemoryRefreshTokenStore.rotate(token, validator, successorFactory);
+        if (rotation.isRedeemed()) {
+            storeLog.delete(EmbeddedStoreLog.REFRESH_TOKEN, token);
+            FutureSupport.join(storeLog.putRefreshToken(rotation.getIssued()));
+        }
+        return rotation;
+    }
+
+    public int cleanup(Instant now, CleanupBudget budget) {
+        return inMemoryRefreshTokenStore.cleanup(now, budget);
+    }
+}
@@ -0,0 +1,320 @@
+package com.emp.oauth;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import io.quarkus.scheduler.Scheduled;
+
+// Durability for the embedded backend: the in-memory stores stay the index, and every change they must survive
+// a restart is appended here as a full record or a delete. At startup the live records are loaded back into
+// the in-memory stores. Records carry a retain-until time, so expired state is dropped by replay and compaction
+// without the in-memory evictions having to be logged.
+@ApplicationScoped
+public class EmbeddedStoreLog {
+
+    private static final Logger LOG = Logger.getLogger(EmbeddedStoreLog.class);
+
+    static final byte CLIENT = 1;
+    static final byte AUTH_REQUEST = 2;
+    static final byte AUTH_CODE = 3;
+    static final byte REFRESH_TOKEN = 4;
+    static final byte CONSUMED_CODE = 5;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+
+    @ConfigProperty(name = "emp.oauth.embedded.enabled", defaultValue = "false")
+    boolean embeddedEnabled;
+
+    @ConfigProperty(name = "emp.oauth.embedded.path", defaultValue = "data/oauth-store.log")
+    String logPath;
+
+    @ConfigProperty(name = "emp.oauth.embedded.initial-size-mb", defaultValue = "64")
+    int initialSizeMb;
+
+    @ConfigProperty(name = "emp.oauth.embedded.group-commit-window-micros", defaultValue = "200")
+    long groupCommitWindowMicros;
+
+    @ConfigProperty(name = "emp.oauth.embedded.compaction-min-size-mb", defaultValue = "16")
+    int compactionMinSizeMb;
+
+    @Inject
+    InMemoryClientStore clientStore;
+
+    @Inject
+    InMemoryAuthRequestStore authRequestStore;
+
+    @Inject
+    InMemoryAuthorizationCodeStore authorizationCodeStore;
+
+    @Inject
+    InMemoryRefreshTokenStore refreshTokenStore;
+
+    private AppendOnlyLog log;
+    private volatile int compactedSize;
+
+    void onStart(@Observes StartupEvent event) {
+        if (!embeddedEnabled) {
+            return;
+        }
+        try {
+            log = new AppendOnlyLog(Path.of(logPath), initialSizeMb * 1024 * 1024,
+                    Duration.ofNanos(groupCommitWindowMicros * 1000));
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to open store log " + logPath, e);
+        }
+        int restored = 0;
+        for (byte[] body : liveRecords(log.end())) {
+            restore(body);
+            restored++;
+        }
+        compactedSize = log.end();
+        LOG.infof("Restored %d records from %s", restored, logPath);
+    }
+
+    void onStop(@Observes ShutdownEvent event) {
+        if (log == null) {
+            return;
+        }
+        try {
+            log.close();
+        } catch (IOException e) {
+            LOG.warnf("Failed to close store log: %s", e.getMessage());
+        }
+    }
+
+    public CompletableFuture<Void> putClient(ClientRecord client, Instant retainUntil) {
+        return append(CLIENT, PUT, client.getClientId(), retainUntil, out -> {
+            writeString(out, client.getClientName());
+            out.writeInt(client.getRedirectUris().size());
+            for (String redirectUri : client.getRedirectUris()) {
+                out.writeUTF(redirectUri);
+            }
+            writeString(out, client.getTokenEndpointAuthMethod());
+            writeInstant(out, client.getCreatedAt());
+            writeInstant(out, client.getLastUsedAt());
+        });
+    }
+
+    public CompletableFuture<Void> putAuthRequest(AuthRequestRecord record) {
+        return append(AUTH_REQUEST, PUT, record.getId(), record.getExpiresAt(), out -> {
+            writeString(out, record.getClientId());
+            writeString(out, record.getRedirectUri());
+            writeString(out, record.getScope());
+            writeString(out, record.getResource());
+            writeString(out, record.getCodeChallenge());
+            writeString(out, record.getCodeChallengeMethod());
+            writeString(out, record.getOriginalState());
+            writeString(out, record.getUserId());
+            writeInstant(out, record.getExpiresAt());
+            writeClaims(out, record.getUserClaims());
+        });
+    }
+
+    public CompletableFuture<Void> putAuthorizationCode(AuthorizationCodeRecord record) {
+        return append(AUTH_CODE, PUT, record.getCode(), record.getExpiresAt(), out -> {
+            writeString(out, record.getClientId());
+            writeString(out, record.getUserId());
+            writeString(out, record.getRedirectUri());
+            writeString(out, record.getScope());
+            writeString(out, record.getResource());
+            writeString(out, record.getCodeChallenge());
+            writeString(out, record.getCodeChallengeMethod());
+            writeInstant(out, record.getExpiresAt());
+            writeClaims(out, record.getUserClaims());
+        });
+    }
+
+    public CompletableFuture<Void> putRefreshToken(RefreshTokenRecord record) {
+        return append(REFRESH_TOKEN, PUT, record.getToken(), record.getExpiresAt(), out -> {
+            writeString(out, record.getClientId());
+            writeString(out, record.getUserId());
+            writeString(out, record.getScope());
+            writeString(out, record.getResource());
+            writeInstant(out, record.getExpiresAt());
+            writeClaims(out, record.getUserClaims());
+        });
+    }
+
+    // Marks a sealed authorization code as redeemed until it has expired anyway.
+    public CompletableFuture<Void> putConsumedCode(String codeId, Instant expiresAt) {
+        return append(CONSUMED_CODE, PUT, codeId, expiresAt.plusSeconds(1), out -> {
+        });
+    }
+
+    public CompletableFuture<Void> delete(byte family, String key) {
+        return append(family, DELETE, key, Instant.MAX, out -> {
+        });
+    }
+
+    // Rewrites the log with only its live records once it has doubled since the last rewrite. Appends continue
+    // while the copy is built and are only held for the final hand-over.
+    @Scheduled(every = "{emp.oauth.embedded.compaction-interval}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void compact() {
+        if (log == null) {
+            return;
+        }
+        int end = log.end();
+        if (end < compactionMinSizeMb * 1024L * 1024L || end < compactedSize * 2L) {
+            return;
+        }
+        Path compacted = Path.of(logPath + ".compact");
+        try {
+            List<byte[]> live = liveRecords(end);
+            AppendOnlyLog.writeFile(compacted, live);
+            log.replaceWith(compacted, end);
+            compactedSize = log.end();
+            LOG.infof("Compacted %s from %d to %d bytes (%d live records)", logPath, end, compactedSize, live.size());
+        } catch (IOException | RuntimeException e) {
+            LOG.warnf("Failed to compact %s: %s", logPath, e.getMessage());
+        }
+    }
+
+    private List<byte[]> liveRecords(int end) {
+        Map<String, Integer> latest = new HashMap<>();
+        log.scan(0, end, (body, offset) -> {
+            String key = body[0] + ":" + readHeader(body).key();
+            if (body[1] == PUT) {
+                latest.put(key, offset);
+            } else {
+                latest.remove(key);
+            }
+        });
+        long now = Instant.now().getEpochSecond();
+        List<Integer> offsets = new ArrayList<>(latest.values());
+        offsets.sort(null);
+        List<byte[]> live = new ArrayList<>(offsets.size());
+        for (int offset : offsets) {
+            byte[] body = log.read(offset);
+            if (readHeader(body).retainUntil() >= now) {
+                live.add(body);
+            }
+        }
+        return live;
+    }
+
+    private void restore(byte[] body) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(body))) {
+            byte family = in.readByte();
+            in.readByte();
+            long retainUntil = in.readLong();
+            String key = in.readUTF();
+            switch (family) {
+                case CLIENT -> {
+                    String clientName = readString(in);
+                    int count = in.readInt();
+                    List<String> redirectUris = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        redirectUris.add(in.readUTF());
+                    }
+                    clientStore.store(new ClientRecord(key, clientName, redirectUris, readString(in),
+                            readInstant(in), readInstant(in)));
+                }
+                case AUTH_REQUEST -> authRequestStore.store(new AuthRequestRecord(key, readString(in),
+                        readString(in), readString(in), readString(in), readString(in), readString(in),
+                        readString(in), readString(in), readInstant(in), readClaims(in)));
+                case AUTH_CODE -> authorizationCodeStore.save(new AuthorizationCodeRecord(key, readString(in),
+                        readString(in), readString(in), readString(in), readString(in), readString(in),
+                        readString(in), readInstant(in), readClaims(in)));
+                case REFRESH_TOKEN -> refreshTokenStore.store(new RefreshTokenRecord(key, readString(in),
+                        readString(in), readString(in), readString(in), readInstant(in), readClaims(in)));
+                case CONSUMED_CODE -> authorizationCodeStore.restoreConsumed(key, Instant.ofEpochSecond(retainUntil));
+                default -> LOG.warnf("Skipping store log record of unknown type %d", family);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Corrupt store log record", e);
+        }
+    }
+
+    private CompletableFuture<Void> append(byte family, byte op, String key, Instant retainUntil, Payload payload) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(family);
+            out.writeByte(op);
+            out.writeLong(retainUntil.getEpochSecond());
+            out.writeUTF(key);
+            payload.write(out);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to encode store log record", e);
+        }
+        return log.durable(log.append(bytes.toByteArray()));
+    }
+
+    private static Header readHeader(byte[] body) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(body))) {
+            in.readByte();
+            in.readByte();
+            long retainUntil = in.readLong();
+            return new Header(in.readUTF(), retainUntil);
+        } catch (IOException e) {
+            throw new IllegalStateException("Corrupt store log record", e);
+        }
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    static void writeInstant(DataOutputStream out, Instant value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value.getEpochSecond());
+            out.writeInt(value.getNano());
+        }
+    }
+
+    static Instant readInstant(DataInputStream in) throws IOException {
+        return in.readBoolean() ? Instant.ofEpochSecond(in.readLong(), in.readInt()) : null;
+    }
+
+    static void writeClaims(DataOutputStream out, UserClaims claims) throws IOException {
+        out.writeBoolean(claims != null);
+        if (claims != null) {
+            writeString(out, claims.getEmail());
+            out.writeByte(claims.getEmailVerified() == null ? 0 : claims.getEmailVerified() ? 2 : 1);
+            writeInstant(out, claims.getVerifiedAt());
+        }
+    }
+
+    static UserClaims readClaims(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        String email = readString(in);
+        byte verified = in.readByte();
+        return new UserClaims(email, verified == 0 ? null : verified == 2, readInstant(in));
+    }
+
+    private interface Payload {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private record Header(String key, long retainUntil) {
+    }
+}
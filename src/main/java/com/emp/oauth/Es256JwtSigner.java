@@ -0,0 +1,132 @@
+package com.emp.oauth;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Signature;
+import java.security.interfaces.ECPrivateKey;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+public final class Es256JwtSigner {
+
+    private static final int ES256_PART_BYTES = 32;
+    private static final int JOSE_SIGNATURE_BYTES = ES256_PART_BYTES * 2;
+    private static final int MAX_DER_SIGNATURE_BYTES = 72;
+    private static final String NO_KID = "";
+
+    private final ConcurrentMap<String, byte[]> headerSegments = new ConcurrentHashMap<>();
+    private final ThreadLocal<Workspace> workspaces = ThreadLocal.withInitial(Workspace::new);
+
+    public JwtClaimsWriter claims() {
+        return workspaces.get().claims.reset();
+    }
+
+    public String sign(String keyId, ECPrivateKey privateKey, JwtClaimsWriter claims) throws GeneralSecurityException {
+        Workspace workspace = workspaces.get();
+        if (claims != workspace.claims) {
+            throw new IllegalArgumentException("Claims must come from claims() on the signing thread");
+        }
+        claims.close();
+        byte[] header = headerSegments.computeIfAbsent(keyId == null ? NO_KID : keyId, Es256JwtSigner::headerSegment);
+        int payloadLength = Base64Url.encodedLength(claims.length());
+        byte[] out = workspace.output(header.length + 1 + payloadLength + 1
+                + Base64Url.encodedLength(JOSE_SIGNATURE_BYTES));
+        System.arraycopy(header, 0, out, 0, header.length);
+        int pos = header.length;
+        out[pos++] = '.';
+        pos = Base64Url.encode(claims.buffer(), 0, claims.length(), out, pos);
+
+        int derLength = workspace.sign(privateKey, out, pos);
+        derToJose(workspace.der, derLength, workspace.jose);
+
+        out[pos++] = '.';
+        pos = Base64Url.encode(workspace.jose, 0, JOSE_SIGNATURE_BYTES, out, pos);
+        return new String(out, 0, pos, StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] headerSegment(String keyId) {
+        JwtClaimsWriter header = new JwtClaimsWriter().reset()
+                .put("alg", "ES256")
+                .put("typ", "JWT");
+        if (!NO_KID.equals(keyId)) {
+            header.put("kid", keyId);
+        }
+        header.close();
+        byte[] segment = new byte[Base64Url.encodedLength(header.length())];
+        Base64Url.encode(header.buffer(), 0, header.length(), segment, 0);
+        return segment;
+    }
+
+    // DER is SEQUENCE { INTEGER r, INTEGER s }; JOSE wants r || s as fixed-width unsigned big-endian.
+    static void derToJose(byte[] der, int derLength, byte[] jose) {
+        if (derLength < 8 || der[0] != 0x30) {
+            throw new IllegalStateException("Invalid DER signature");
+        }
+        int offset = 2;
+        if ((der[1] & 0xff) == 0x81) {
+            offset = 3;
+        }
+        offset = copyInteger(der, derLength, offset, jose, 0);
+        copyInteger(der, derLength, offset, jose, ES256_PART_BYTES);
+    }
+
+    private static int copyInteger(byte[] der, int derLength, int offset, byte[] jose, int joseOffset) {
+        if (offset + 2 > derLength || der[offset] != 0x02) {
+            throw new IllegalStateException("Invalid DER signature");
+        }
+        int length = der[offset + 1] & 0xff;
+        int start = offset + 2;
+        int end = start + length;
+        if (end > derLength) {
+            throw new IllegalStateException("Invalid DER signature");
+        }
+        while (length > ES256_PART_BYTES && der[start] == 0) {
+            start++;
+            length--;
+        }
+        if (length > ES256_PART_BYTES) {
+            throw new IllegalStateException("Invalid DER signature");
+        }
+        int pad = ES256_PART_BYTES - length;
+        Arrays.fill(jose, joseOffset, joseOffset + pad, (byte) 0);
+        System.arraycopy(der, start, jose, joseOffset + pad, length);
+        return end;
+    }
+
+    private static final class Workspace {
+
+        private final JwtClaimsWriter claims = new JwtClaimsWriter();
+        private final byte[] der = new byte[MAX_DER_SIGNATURE_BYTES];
+        private final byte[] jose = new byte[JOSE_SIGNATURE_BYTES];
+        private byte[] output = new byte[1024];
+        private Signature signature;
+        private ECPrivateKey signatureKey;
+
+        byte[] output(int size) {
+            if (output.length < size) {
+                output = new byte[Math.max(size, output.length * 2)];
+            }
+            return output;
+        }
+
+        // sign() leaves the Signature initialised for the same key, so initSign only runs when the key changes.
+        int sign(ECPrivateKey privateKey, byte[] input, int length) throws GeneralSecurityException {
+            try {
+                if (signature == null) {
+                    signature = Signature.getInstance("SHA256withECDSA");
+                }
+                if (signatureKey != privateKey) {
+                    signatureKey = null;
+                    signature.initSign(privateKey);
+                    signatureKey = privateKey;
+                }
+                signature.update(input, 0, length);
+                return signature.sign(der, 0, der.length);
+            } catch (GeneralSecurityException | RuntimeException e) {
+                signatureKey = null;
+                throw e;
+            }
+        }
+    }
+}
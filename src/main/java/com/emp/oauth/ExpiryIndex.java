@@ -0,0 +1,79 @@
+package com.emp.oauth;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Predicate;
+
+// Secondary index for the in-memory stores: keys filed under the bucket of the instant they fall due. A sweep
+// only walks the buckets that have fully elapsed, so its cost follows the number of due keys rather than the
+// size of the store. Entries may go stale (record removed or re-filed); the store re-checks each key it is
+// handed, which keeps add/remove here cheap and lock-free.
+public class ExpiryIndex<K> {
+
+    private static final Duration DEFAULT_RESOLUTION = Duration.ofSeconds(1);
+
+    private final long resolutionMillis;
+    private final ConcurrentSkipListMap<Long, Set<K>> buckets = new ConcurrentSkipListMap<>();
+
+    public ExpiryIndex() {
+        this(DEFAULT_RESOLUTION);
+    }
+
+    public ExpiryIndex(Duration resolution) {
+        this.resolutionMillis = Math.max(1, resolution.toMillis());
+    }
+
+    public void add(K key, Instant dueAt) {
+        buckets.compute(bucketOf(dueAt), (bucket, keys) -> {
+            Set<K> target = keys == null ? ConcurrentHashMap.newKeySet() : keys;
+            target.add(key);
+            return target;
+        });
+    }
+
+    public void remove(K key, Instant dueAt) {
+        buckets.computeIfPresent(bucketOf(dueAt), (bucket, keys) -> {
+            keys.remove(key);
+            return keys.isEmpty() ? null : keys;
+        });
+    }
+
+    // Hands every key filed before `until` to `evictor`. A key leaves the index once the evictor accepts it;
+    // returning false stops the sweep and leaves that key and the rest for the next one.
+    public void drain(Instant until, Predicate<K> evictor) {
+        drain(buckets.headMap(bucketOf(until)), evictor);
+    }
+
+    // Whether anything, possibly stale, is filed before `until`; cheap enough to ask on every tick.
+    public boolean hasDue(Instant until) {
+        return !buckets.headMap(bucketOf(until)).isEmpty();
+    }
+
+    // Same contract as drain, oldest bucket first with no time bound; used to make room in a full store.
+    public void drainEarliest(Predicate<K> evictor) {
+        drain(buckets, evictor);
+    }
+
+    private void drain(NavigableMap<Long, Set<K>> due, Predicate<K> evictor) {
+        for (Map.Entry<Long, Set<K>> bucket : due.entrySet()) {
+            Set<K> keys = bucket.getValue();
+            for (K key : keys) {
+                if (!evictor.test(key)) {
+                    return;
+                }
+                keys.remove(key);
+            }
+            // compute on the same bucket serialises this with a concurrent add into it.
+            buckets.computeIfPresent(bucket.getKey(), (b, remaining) -> remaining.isEmpty() ? null : remaining);
+        }
+    }
+
+    private long bucketOf(Instant instant) {
+        return Math.floorDiv(instant.toEpochMilli(), resolutionMillis);
+    }
+}
@@ -3,6 +3,7 @@ package com.emp.oauth;
 import java.time.Instant;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
@@ -12,7 +13,6 @@ import org.eclipse.microprofile.config.inject.ConfigProperty;
 import com.google.cloud.Timestamp;
 import com.google.cloud.firestore.DocumentSnapshot;
 import com.google.cloud.firestore.Firestore;
-import com.google.cloud.firestore.QueryDocumentSnapshot;
 import com.google.cloud.firestore.SetOptions;
 
 @ApplicationScoped
@@ -24,6 +24,9 @@ public class FirestoreAuthRequestStore {
     @Inject
     Firestore firestore;
 
+    @Inject
+    FirestoreSweeper sweeper;
+
     public void save(AuthRequestRecord record) {
         Map<String, Object> data = new java.util.HashMap<>();
         data.put("id", record.getId());
@@ -45,6 +48,7 @@ public class FirestoreAuthRequestStore {
         }
         data.put("expiresAt", Timestamp.ofTimeSecondsAndNanos(
                 record.getExpiresAt().getEpochSecond(), record.getExpiresAt().getNano()));
+        FirestoreUserStore.writeClaims(data, record.getUserClaims());
         try {
             firestore.collection(collectionName)
                     .document(record.getId())
@@ -56,63 +60,79 @@ public class FirestoreAuthRequestStore {
     }
 
     public Optional<AuthRequestRecord> find(String id) {
-        try {
-            DocumentSnapshot snapshot = firestore.collection(collectionName).document(id).get().get();
-            if (!snapshot.exists()) {
-                return Optional.empty();
-            }
-            Instant expiresAt = Optional.ofNullable(snapshot.getTimestamp("expiresAt"))
-                    .map(ts -> Instant.ofEpochSecond(ts.getSeconds(), ts.getNanos()))
-                    .orElse(Instant.now());
-            AuthRequestRecord record = new AuthRequestRecord(
-                    id,
-                    snapshot.getString("clientId"),
-                    snapshot.getString("redirectUri"),
-                    snapshot.getString("scope"),
-                    snapshot.getString("resource"),
-                    snapshot.getString("codeChallenge"),
-                    snapshot.getString("codeChallengeMethod"),
-                    snapshot.getString("originalState"),
-                    snapshot.getString("userId"),
-                    expiresAt);
-            return Optional.of(record);
-        } catch (Exception e) {
-            throw new IllegalStateException("Failed to load auth request", e);
+        return FutureSupport.join(findAsync(id));
+    }
+
+    public CompletableFuture<Optional<AuthRequestRecord>> findAsync(String id) {
+        return FutureSupport.toCompletable(firestore.collection(collectionName).document(id).get())
+                .handle((snapshot, error) -> {
+                    if (error != null) {
+                        throw new IllegalStateException("Failed to load auth request", error);
+                    }
+                    return toRecord(id, snapshot);
+                });
+    }
+
+    private Optional<AuthRequestRecord> toRecord(String id, DocumentSnapshot snapshot) {
+        if (!snapshot.exists()) {
+            return Optional.empty();
         }
+        Instant expiresAt = Optional.ofNullable(snapshot.getTimestamp("expiresAt"))
+                .map(ts -> Instant.ofEpochSecond(ts.getSeconds(), ts.getNanos()))
+                .orElse(Instant.now());
+        AuthRequestRecord record = new AuthRequestRecord(
+                id,
+                snapshot.getString("clientId"),
+                snapshot.getString("redirectUri"),
+                snapshot.getString("scope"),
+                snapshot.getString("resource"),
+                snapshot.getString("codeChallenge"),
+                snapshot.getString("codeChallengeMethod"),
+                snapshot.getString("originalState"),
+                snapshot.getString("userId"),
+                expiresAt,
+                FirestoreUserStore.readClaims(snapshot));
+        return Optional.of(record);
     }
 
     public void remove(String id) {
-        try {
-            firestore.collection(collectionName).document(id).delete().get();
-        } catch (Exception e) {
-            throw new IllegalStateException("Failed to delete auth request", e);
-        }
+        FutureSupport.join(removeAsync(id));
     }
 
-    public void updateUserId(String id, String userId) {
-        try {
-            firestore.collection(collectionName)
-                    .document(id)
-                    .update(Map.of("userId", userId))
-                    .get();
-        } catch (Exception e) {
-            throw new IllegalStateException("Failed to update auth request userId", e);
-        }
+    public CompletableFuture<Void> removeAsync(String id) {
+        return FutureSupport.toCompletable(firestore.collection(collectionName).document(id).delete())
+                .handle((result, error) -> {
+                    if (error != null) {
+                        throw new IllegalStateException("Failed to delete auth request", error);
+                    }
+                    return null;
+                });
     }
 
-    public int cleanupExpired(Instant now) {
+    public void updateUserId(String id, String userId, UserClaims claims) {
+        FutureSupport.join(updateUserIdAsync(id, userId, claims));
+    }
+
+    public CompletableFuture<Void> updateUserIdAsync(String id, String userId, UserClaims claims) {
+        Map<String, Object> updates = new java.util.HashMap<>();
+        updates.put("userId", userId);
+        FirestoreUserStore.writeClaims(updates, claims);
+        return FutureSupport.toCompletable(firestore.collection(collectionName)
+                .document(id)
+                .update(updates))
+                .handle((result, error) -> {
+                    if (error != null) {
+                        throw new IllegalStateException("Failed to update auth request userId", error);
+                    }
+                    return null;
+                });
+    }
+
+    public int cleanupExpired(Instant now, CleanupBudget budget) {
         try {
             Timestamp cutoff = Timestamp.ofTimeSecondsAndNanos(now.getEpochSecond(), now.getNano());
-            var snapshot = firestore.collection(collectionName)
-                    .whereLessThan("expiresAt", cutoff)
-                    .get()
-                    .get();
-            int removed = 0;
-            for (QueryDocumentSnapshot doc : snapshot.getDocuments()) {
-                doc.getReference().delete().get();
-                removed++;
-            }
-            return removed;
+            return sweeper.deleteAll(firestore.collection(collectionName).whereLessThan("expiresAt", cutoff),
+                    "expiresAt", budget);
         } catch (Exception e) {
             throw new IllegalStateException("Failed to cleanup auth requests", e);
         }
@@ -3,6 +3,8 @@ package com.emp.oauth;
 import java.time.Instant;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
@@ -10,10 +12,12 @@ import jakarta.inject.Inject;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 
 import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
 import com.google.cloud.firestore.DocumentSnapshot;
 import com.google.cloud.firestore.Firestore;
-import com.google.cloud.firestore.QueryDocumentSnapshot;
 import com.google.cloud.firestore.SetOptions;
+import com.google.cloud.firestore.WriteBatch;
 
 @ApplicationScoped
 public class FirestoreAuthorizationCodeStore {
@@ -21,10 +25,23 @@ public class FirestoreAuthorizationCodeStore {
     @ConfigProperty(name = "emp.oauth.firestore.auth-codes-collection", defaultValue = "authCodes")
     String collectionName;
 
+    @ConfigProperty(name = "emp.oauth.firestore.consumed-codes-collection", defaultValue = "consumedCodes")
+    String consumedCollectionName;
+
     @Inject
     Firestore firestore;
 
+    @Inject
+    FirestoreSweeper sweeper;
+
+    @Inject
+    FirestoreRefreshTokenStore refreshTokenStore;
+
     public void save(AuthorizationCodeRecord record) {
+        FutureSupport.join(saveAsync(record));
+    }
+
+    public CompletableFuture<Void> saveAsync(AuthorizationCodeRecord record) {
         Map<String, Object> data = new java.util.HashMap<>();
         data.put("code", record.getCode());
         data.put("clientId", record.getClientId());
@@ -44,82 +61,110 @@ public class FirestoreAuthorizationCodeStore {
             data.put("usedAt", Timestamp.ofTimeSecondsAndNanos(
                     record.getUsedAt().getEpochSecond(), record.getUsedAt().getNano()));
         }
+        FirestoreUserStore.writeClaims(data, record.getUserClaims());
+        return FutureSupport.toCompletable(firestore.collection(collectionName)
+                .document(record.getCode())
+                .set(data, SetOptions.merge()))
+                .handle((result, error) -> {
+                    if (error != null) {
+                        throw new IllegalStateException("Failed to save auth code", error);
+                    }
+                    return null;
+                });
+    }
+
+    public Optional<AuthorizationCodeRecord> find(String code) {
         try {
-            firestore.collection(collectionName)
-                    .document(record.getCode())
-                    .set(data, SetOptions.merge())
-                    .get();
+            return toRecord(code, firestore.collection(collectionName).document(code).get().get());
         } catch (Exception e) {
-            throw new IllegalStateException("Failed to save auth code", e);
+            throw new IllegalStateException("Failed to load auth code", e);
         }
     }
 
-    public Optional<AuthorizationCodeRecord> find(String code) {
+    // Reads, checks and consumes the code and writes the issued refresh token in one transaction commit,
+    // so two concurrent redemptions of the same code cannot both succeed.
+    public Redemption<AuthorizationCodeRecord> redeem(String code,
+            Function<AuthorizationCodeRecord, GrantError> validator,
+            Function<AuthorizationCodeRecord, RefreshTokenRecord> refreshTokenFactory) {
+        DocumentReference reference = firestore.collection(collectionName).document(code);
         try {
-            DocumentSnapshot snapshot = firestore.collection(collectionName).document(code).get().get();
-            if (!snapshot.exists()) {
-                return Optional.empty();
-            }
-            Instant expiresAt = Optional.ofNullable(snapshot.getTimestamp("expiresAt"))
-                    .map(ts -> Instant.ofEpochSecond(ts.getSeconds(), ts.getNanos()))
-                    .orElse(Instant.now());
-            AuthorizationCodeRecord record = new AuthorizationCodeRecord(
-                    code,
-                    snapshot.getString("clientId"),
-                    snapshot.getString("userId"),
-                    snapshot.getString("redirectUri"),
-                    snapshot.getString("scope"),
-                    snapshot.getString("resource"),
-                    snapshot.getString("codeChallenge"),
-                    snapshot.getString("codeChallengeMethod"),
-                    expiresAt);
-            if (snapshot.getTimestamp("usedAt") != null) {
-                record.markUsed(Instant.ofEpochSecond(
-                        snapshot.getTimestamp("usedAt").getSeconds(),
-                        snapshot.getTimestamp("usedAt").getNanos()));
-            }
-            return Optional.of(record);
+            return firestore.runTransaction(transaction -> {
+                AuthorizationCodeRecord record = toRecord(code, transaction.get(reference).get()).orElse(null);
+                if (record == null) {
+                    return Redemption.<AuthorizationCodeRecord>rejected(null,
+                            new GrantError("invalid_grant", "code is invalid"));
+                }
+                GrantError error = validator.apply(record);
+                if (error != null) {
+                    return Redemption.rejected(record, error);
+                }
+                Instant now = Instant.now();
+                transaction.update(reference, Map.of("usedAt",
+                        Timestamp.ofTimeSecondsAndNanos(now.getEpochSecond(), now.getNano())));
+                RefreshTokenRecord refreshToken = refreshTokenFactory.apply(record);
+                transaction.create(refreshTokenStore.document(refreshToken.getToken()),
+                        refreshTokenStore.toDocument(refreshToken));
+                record.markUsed(now);
+                return Redemption.redeemed(record, refreshToken);
+            }).get();
         } catch (Exception e) {
-            throw new IllegalStateException("Failed to load auth code", e);
+            throw new IllegalStateException("Failed to redeem auth code", e);
         }
     }
 
-    public void markUsed(String code) {
+    // A sealed code is redeemed with one blind batch: creating its marker fails if another redemption got there
+    // first, and the refresh token is created in the same commit.
+    public boolean consume(String codeId, Instant expiresAt, RefreshTokenRecord refreshToken) {
+        WriteBatch batch = firestore.batch();
+        batch.create(firestore.collection(consumedCollectionName).document(codeId), Map.of("expiresAt",
+                Timestamp.ofTimeSecondsAndNanos(expiresAt.getEpochSecond(), expiresAt.getNano())));
+        batch.create(refreshTokenStore.document(refreshToken.getToken()), refreshTokenStore.toDocument(refreshToken));
         try {
-            Timestamp now = Timestamp.now();
-            firestore.collection(collectionName)
-                    .document(code)
-                    .update(Map.of("usedAt", now))
-                    .get();
+            batch.commit().get();
+            return true;
         } catch (Exception e) {
-            throw new IllegalStateException("Failed to mark auth code used", e);
+            if (FirestoreUserStore.isAlreadyExists(e)) {
+                return false;
+            }
+            throw new IllegalStateException("Failed to redeem auth code", e);
         }
     }
 
-    public int cleanup(Instant now) {
+    private Optional<AuthorizationCodeRecord> toRecord(String code, DocumentSnapshot snapshot) {
+        if (!snapshot.exists()) {
+            return Optional.empty();
+        }
+        Instant expiresAt = Optional.ofNullable(snapshot.getTimestamp("expiresAt"))
+                .map(ts -> Instant.ofEpochSecond(ts.getSeconds(), ts.getNanos()))
+                .orElse(Instant.now());
+        AuthorizationCodeRecord record = new AuthorizationCodeRecord(
+                code,
+                snapshot.getString("clientId"),
+                snapshot.getString("userId"),
+                snapshot.getString("redirectUri"),
+                snapshot.getString("scope"),
+                snapshot.getString("resource"),
+                snapshot.getString("codeChallenge"),
+                snapshot.getString("codeChallengeMethod"),
+                expiresAt,
+                FirestoreUserStore.readClaims(snapshot));
+        if (snapshot.getTimestamp("usedAt") != null) {
+            record.markUsed(Instant.ofEpochSecond(
+                    snapshot.getTimestamp("usedAt").getSeconds(),
+                    snapshot.getTimestamp("usedAt").getNanos()));
+        }
+        return Optional.of(record);
+    }
+
+    public int cleanup(Instant now, CleanupBudget budget) {
         try {
             Timestamp cutoff = Timestamp.ofTimeSecondsAndNanos(now.getEpochSecond(), now.getNano());
-            java.util.Set<String> ids = new java.util.HashSet<>();
-            var expiresSnapshot = firestore.collection(collectionName)
-                    .whereLessThan("expiresAt", cutoff)
-                    .get()
-                    .get();
-            for (QueryDocumentSnapshot doc : expiresSnapshot.getDocuments()) {
-                ids.add(doc.getId());
-            }
-            var usedSnapshot = firestore.collection(collectionName)
-                    .whereLessThan("usedAt", cutoff)
-                    .get()
-                    .get();
-            for (QueryDocumentSnapshot doc : usedSnapshot.getDocuments()) {
-                ids.add(doc.getId());
-            }
-            int removed = 0;
-            for (String id : ids) {
-                firestore.collection(collectionName).document(id).delete().get();
-                removed++;
-            }
-            return removed;
+            CollectionReference collection = firestore.collection(collectionName);
+            // Sequential on purpose: the usedAt sweep then never sees documents the expiresAt sweep removed.
+            return sweeper.deleteAll(collection.whereLessThan("expiresAt", cutoff), "expiresAt", budget)
+                    + sweeper.deleteAll(collection.whereLessThan("usedAt", cutoff), "usedAt", budget)
+                    + sweeper.deleteAll(firestore.collection(consumedCollectionName)
+                            .whereLessThan("expiresAt", cutoff), "expiresAt", budget);
         } catch (Exception e) {
             throw new IllegalStateException("Failed to cleanup auth codes", e);
         }
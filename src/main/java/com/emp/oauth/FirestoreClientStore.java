@@ -1,30 +1,74 @@
 package com.emp.oauth;
 
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
+import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 
 import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
 import com.google.cloud.firestore.DocumentSnapshot;
 import com.google.cloud.firestore.Firestore;
-import com.google.cloud.firestore.QueryDocumentSnapshot;
 import com.google.cloud.firestore.SetOptions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
 
 @ApplicationScoped
 public class FirestoreClientStore {
 
+    private static final int MAX_TRANSACTION_WRITES = 500;
+
     @ConfigProperty(name = "emp.oauth.firestore.clients-collection", defaultValue = "clients")
     String clientsCollection;
 
+    @ConfigProperty(name = "emp.oauth.clients.cache.max-size", defaultValue = "10000")
+    long cacheMaxSize;
+
+    @ConfigProperty(name = "emp.oauth.clients.cache.ttl-seconds", defaultValue = "300")
+    long cacheTtlSeconds;
+
+    @ConfigProperty(name = "emp.oauth.clients.cache.negative-ttl-seconds", defaultValue = "30")
+    long negativeCacheTtlSeconds;
+
     @Inject
     Firestore firestore;
 
+    @Inject
+    FirestoreSweeper sweeper;
+
+    @Inject
+    MeterRegistry meterRegistry;
+
+    private Cache<String, ClientRecord> clients;
+    private Cache<String, Boolean> unknownClients;
+
+    @PostConstruct
+    void init() {
+        clients = GuavaCacheMetrics.monitor(meterRegistry, CacheBuilder.newBuilder()
+                .maximumSize(cacheMaxSize)
+                .expireAfterWrite(Duration.ofSeconds(cacheTtlSeconds))
+                .recordStats()
+                .<String, ClientRecord>build(), "emp.oauth.clients");
+        // Client ids are random UUIDs handed out at registration, so a miss is almost always a bogus id.
+        unknownClients = GuavaCacheMetrics.monitor(meterRegistry, CacheBuilder.newBuilder()
+                .maximumSize(cacheMaxSize)
+                .expireAfterWrite(Duration.ofSeconds(negativeCacheTtlSeconds))
+                .recordStats()
+                .<String, Boolean>build(), "emp.oauth.clients.unknown");
+    }
+
     public void save(ClientRecord client) {
         Instant createdAt = client.getCreatedAt() == null ? Instant.now() : client.getCreatedAt();
         Map<String, Object> data = new java.util.HashMap<>();
@@ -50,9 +94,30 @@ public class FirestoreClientStore {
         } catch (Exception e) {
             throw new IllegalStateException("Failed to save client to Firestore", e);
         }
+        unknownClients.invalidate(client.getClientId());
+        clients.put(client.getClientId(), client);
     }
 
+    // Registrations are effectively immutable, so reads are served from the near-cache; lastUsedAt on a cached
+    // record may lag, which only cleanupInactive cares about and it queries Firestore directly.
     public Optional<ClientRecord> findById(String clientId) {
+        ClientRecord cached = clients.getIfPresent(clientId);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        if (unknownClients.getIfPresent(clientId) != null) {
+            return Optional.empty();
+        }
+        Optional<ClientRecord> loaded = load(clientId);
+        if (loaded.isPresent()) {
+            clients.put(clientId, loaded.get());
+        } else {
+            unknownClients.put(clientId, Boolean.TRUE);
+        }
+        return loaded;
+    }
+
+    private Optional<ClientRecord> load(String clientId) {
         try {
             DocumentSnapshot snapshot = firestore.collection(clientsCollection)
                     .document(clientId)
@@ -79,48 +144,52 @@ public class FirestoreClientStore {
 
     public boolean isRedirectUriAllowed(String clientId, String redirectUri) {
         return findById(clientId)
-                .map(client -> client.getRedirectUris().contains(redirectUri))
+                .map(client -> client.isRedirectUriAllowed(redirectUri))
                 .orElse(false);
     }
 
-    public void updateLastUsedAt(String clientId, Instant lastUsedAt) {
+    // Only raises lastUsedAt: a flush from an instance whose activity is older than what another instance already
+    // wrote leaves the newer value, and a client deleted by cleanup is skipped rather than recreated as a
+    // document holding nothing but lastUsedAt. Firestore caps a transaction at 500 writes.
+    public void updateLastUsedAt(Map<String, Instant> lastUsedAt) {
+        List<Map.Entry<String, Instant>> entries = new ArrayList<>(lastUsedAt.entrySet());
         try {
-            firestore.collection(clientsCollection)
-                    .document(clientId)
-                    .set(Map.of("lastUsedAt", Timestamp.ofTimeSecondsAndNanos(
-                            lastUsedAt.getEpochSecond(), lastUsedAt.getNano())), SetOptions.merge())
-                    .get();
+            for (int from = 0; from < entries.size(); from += MAX_TRANSACTION_WRITES) {
+                List<Map.Entry<String, Instant>> chunk =
+                        entries.subList(from, Math.min(entries.size(), from + MAX_TRANSACTION_WRITES));
+                DocumentReference[] references = chunk.stream()
+                        .map(entry -> firestore.collection(clientsCollection).document(entry.getKey()))
+                        .toArray(DocumentReference[]::new);
+                firestore.runTransaction(transaction -> {
+                    List<DocumentSnapshot> snapshots = transaction.getAll(references).get();
+                    for (int i = 0; i < references.length; i++) {
+                        DocumentSnapshot snapshot = snapshots.get(i);
+                        Instant value = chunk.get(i).getValue();
+                        Timestamp stored = snapshot.getTimestamp("lastUsedAt");
+                        if (!snapshot.exists() || stored != null
+                                && !value.isAfter(Instant.ofEpochSecond(stored.getSeconds(), stored.getNanos()))) {
+                            continue;
+                        }
+                        transaction.update(references[i], Map.of("lastUsedAt",
+                                Timestamp.ofTimeSecondsAndNanos(value.getEpochSecond(), value.getNano())));
+                    }
+                    return null;
+                }).get();
+            }
         } catch (Exception e) {
             throw new IllegalStateException("Failed to update client lastUsedAt", e);
         }
     }
 
-    public int cleanupInactive(Instant cutoff) {
+    public int cleanupInactive(Instant cutoff, CleanupBudget budget) {
         try {
             Timestamp cutoffTimestamp = Timestamp.ofTimeSecondsAndNanos(
                     cutoff.getEpochSecond(), cutoff.getNano());
-            java.util.Set<String> ids = new java.util.HashSet<>();
-            var lastUsedSnapshot = firestore.collection(clientsCollection)
-                    .whereLessThan("lastUsedAt", cutoffTimestamp)
-                    .get()
-                    .get();
-            for (QueryDocumentSnapshot doc : lastUsedSnapshot.getDocuments()) {
-                ids.add(doc.getId());
-            }
-            var neverUsedSnapshot = firestore.collection(clientsCollection)
-                    .whereEqualTo("lastUsedAt", null)
-                    .whereLessThan("createdAt", cutoffTimestamp)
-                    .get()
-                    .get();
-            for (QueryDocumentSnapshot doc : neverUsedSnapshot.getDocuments()) {
-                ids.add(doc.getId());
-            }
-            int removed = 0;
-            for (String id : ids) {
-                firestore.collection(clientsCollection).document(id).delete().get();
-                removed++;
-            }
-            return removed;
+            CollectionReference collection = firestore.collection(clientsCollection);
+            return sweeper.deleteAll(collection.whereLessThan("lastUsedAt", cutoffTimestamp), "lastUsedAt",
+                    budget, clients::invalidate)
+                    + sweeper.deleteAll(collection.whereEqualTo("lastUsedAt", null)
+                            .whereLessThan("createdAt", cutoffTimestamp), "createdAt", budget, clients::invalidate);
         } catch (Exception e) {
             throw new IllegalStateException("Failed to cleanup inactive clients", e);
         }
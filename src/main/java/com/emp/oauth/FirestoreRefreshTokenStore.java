@@ -4,6 +4,7 @@ import java.time.Instant;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Function;
 
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
@@ -11,9 +12,10 @@ import jakarta.inject.Inject;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 
 import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
 import com.google.cloud.firestore.DocumentSnapshot;
 import com.google.cloud.firestore.Firestore;
-import com.google.cloud.firestore.QueryDocumentSnapshot;
 import com.google.cloud.firestore.SetOptions;
 
 @ApplicationScoped
@@ -25,7 +27,24 @@ public class FirestoreRefreshTokenStore {
     @Inject
     Firestore firestore;
 
+    @Inject
+    FirestoreSweeper sweeper;
+
     public void save(RefreshTokenRecord record) {
+        try {
+            document(record.getToken())
+                    .set(toDocument(record), SetOptions.merge())
+                    .get();
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to save refresh token", e);
+        }
+    }
+
+    DocumentReference document(String token) {
+        return firestore.collection(collectionName).document(token);
+    }
+
+    Map<String, Object> toDocument(RefreshTokenRecord record) {
         Map<String, Object> data = new HashMap<>();
         data.put("token", record.getToken());
         data.put("clientId", record.getClientId());
@@ -45,85 +64,79 @@ public class FirestoreRefreshTokenStore {
         if (record.getRotatedTo() != null) {
             data.put("rotatedTo", record.getRotatedTo());
         }
-        try {
-            firestore.collection(collectionName)
-                    .document(record.getToken())
-                    .set(data, SetOptions.merge())
-                    .get();
-        } catch (Exception e) {
-            throw new IllegalStateException("Failed to save refresh token", e);
-        }
+        FirestoreUserStore.writeClaims(data, record.getUserClaims());
+        return data;
     }
 
     public Optional<RefreshTokenRecord> find(String token) {
         try {
-            DocumentSnapshot snapshot = firestore.collection(collectionName).document(token).get().get();
-            if (!snapshot.exists()) {
-                return Optional.empty();
-            }
-            Instant expiresAt = Optional.ofNullable(snapshot.getTimestamp("expiresAt"))
-                    .map(ts -> Instant.ofEpochSecond(ts.getSeconds(), ts.getNanos()))
-                    .orElse(Instant.now());
-            RefreshTokenRecord record = new RefreshTokenRecord(
-                    token,
-                    snapshot.getString("clientId"),
-                    snapshot.getString("userId"),
-                    snapshot.getString("scope"),
-                    snapshot.getString("resource"),
-                    expiresAt);
-            if (snapshot.getTimestamp("usedAt") != null) {
-                record.markUsed(Instant.ofEpochSecond(
-                        snapshot.getTimestamp("usedAt").getSeconds(),
-                        snapshot.getTimestamp("usedAt").getNanos()),
-                        snapshot.getString("rotatedTo"));
-            }
-            return Optional.of(record);
+            return toRecord(token, document(token).get().get());
         } catch (Exception e) {
             throw new IllegalStateException("Failed to load refresh token", e);
         }
     }
 
-    public void markUsed(String token, String rotatedTo) {
+    // Consumes the old token and creates its successor in one transaction commit, so a token rotates once.
+    public Redemption<RefreshTokenRecord> rotate(String token, Function<RefreshTokenRecord, GrantError> validator,
+            Function<RefreshTokenRecord, RefreshTokenRecord> successorFactory) {
+        DocumentReference reference = document(token);
         try {
-            Timestamp now = Timestamp.now();
-            Map<String, Object> updates = new HashMap<>();
-            updates.put("usedAt", now);
-            if (rotatedTo != null) {
-                updates.put("rotatedTo", rotatedTo);
-            }
-            firestore.collection(collectionName)
-                    .document(token)
-                    .update(updates)
-                    .get();
+            return firestore.runTransaction(transaction -> {
+                RefreshTokenRecord record = toRecord(token, transaction.get(reference).get()).orElse(null);
+                if (record == null) {
+                    return Redemption.<RefreshTokenRecord>rejected(null,
+                            new GrantError("invalid_grant", "refresh token is invalid"));
+                }
+                GrantError error = validator.apply(record);
+                if (error != null) {
+                    return Redemption.rejected(record, error);
+                }
+                RefreshTokenRecord successor = successorFactory.apply(record);
+                Instant now = Instant.now();
+                Map<String, Object> updates = new HashMap<>();
+                updates.put("usedAt", Timestamp.ofTimeSecondsAndNanos(now.getEpochSecond(), now.getNano()));
+                updates.put("rotatedTo", successor.getToken());
+                transaction.update(reference, updates);
+                transaction.create(document(successor.getToken()), toDocument(successor));
+                record.markUsed(now, successor.getToken());
+                return Redemption.redeemed(record, successor);
+            }).get();
         } catch (Exception e) {
-            throw new IllegalStateException("Failed to mark refresh token used", e);
+            throw new IllegalStateException("Failed to rotate refresh token", e);
         }
     }
 
-    public int cleanup(Instant now) {
+    private Optional<RefreshTokenRecord> toRecord(String token, DocumentSnapshot snapshot) {
+        if (!snapshot.exists()) {
+            return Optional.empty();
+        }
+        Instant expiresAt = Optional.ofNullable(snapshot.getTimestamp("expiresAt"))
+                .map(ts -> Instant.ofEpochSecond(ts.getSeconds(), ts.getNanos()))
+                .orElse(Instant.now());
+        RefreshTokenRecord record = new RefreshTokenRecord(
+                token,
+                snapshot.getString("clientId"),
+                snapshot.getString("userId"),
+                snapshot.getString("scope"),
+                snapshot.getString("resource"),
+                expiresAt,
+                FirestoreUserStore.readClaims(snapshot));
+        if (snapshot.getTimestamp("usedAt") != null) {
+            record.markUsed(Instant.ofEpochSecond(
+                    snapshot.getTimestamp("usedAt").getSeconds(),
+                    snapshot.getTimestamp("usedAt").getNanos()),
+                    snapshot.getString("rotatedTo"));
+        }
+        return Optional.of(record);
+    }
+
+    public int cleanup(Instant now, CleanupBudget budget) {
         try {
             Timestamp cutoff = Timestamp.ofTimeSecondsAndNanos(now.getEpochSecond(), now.getNano());
-            java.util.Set<String> ids = new java.util.HashSet<>();
-            var expiresSnapshot = firestore.collection(collectionName)
-                    .whereLessThan("expiresAt", cutoff)
-                    .get()
-                    .get();
-            for (QueryDocumentSnapshot doc : expiresSnapshot.getDocuments()) {
-                ids.add(doc.getId());
-            }
-            var usedSnapshot = firestore.collection(collectionName)
-                    .whereLessThan("usedAt", cutoff)
-                    .get()
-                    .get();
-            for (QueryDocumentSnapshot doc : usedSnapshot.getDocuments()) {
-                ids.add(doc.getId());
-            }
-            int removed = 0;
-            for (String id : ids) {
-                firestore.collection(collectionName).document(id).delete().get();
-                removed++;
-            }
-            return removed;
+            CollectionReference collection = firestore.collection(collectionName);
+            // Sequential on purpose: the usedAt sweep then never sees documents the expiresAt sweep removed.
+            return sweeper.deleteAll(collection.whereLessThan("expiresAt", cutoff), "expiresAt", budget)
+                    + sweeper.deleteAll(collection.whereLessThan("usedAt", cutoff), "usedAt", budget);
         } catch (Exception e) {
             throw new IllegalStateException("Failed to cleanup refresh tokens", e);
         }
@@ -0,0 +1,104 @@
+package com.emp.oauth;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import com.google.api.core.ApiFuture;
+import com.google.cloud.firestore.BulkWriter;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.QuerySnapshot;
+import com.google.cloud.firestore.WriteResult;
+
+// Deletes everything matched by a query, one cursor page at a time. Pages only carry the order-by field
+// (the cursor needs it), deletes go through a BulkWriter, and at most `parallelism` pages of deletes are in
+// flight while the next page is fetched, so memory stays flat however large the collection is.
+@ApplicationScoped
+public class FirestoreSweeper {
+
+    @ConfigProperty(name = "emp.oauth.cleanup.page-size", defaultValue = "500")
+    int pageSize;
+
+    @ConfigProperty(name = "emp.oauth.cleanup.parallelism", defaultValue = "4")
+    int parallelism;
+
+    @Inject
+    Firestore firestore;
+
+    public int deleteAll(Query query, String orderField, CleanupBudget budget)
+            throws InterruptedException, ExecutionException {
+        return deleteAll(query, orderField, budget, id -> {
+        });
+    }
+
+    // Stops at a page boundary once the budget is spent. No cursor has to survive the run: every matched
+    // document that was deleted is gone, so the next run's query starts exactly where this one stopped.
+    public int deleteAll(Query query, String orderField, CleanupBudget budget, Consumer<String> onDelete)
+            throws InterruptedException, ExecutionException {
+        Deque<Page> inFlight = new ArrayDeque<>();
+        int deleted = 0;
+        try (BulkWriter writer = firestore.bulkWriter()) {
+            QueryDocumentSnapshot last = null;
+            while (true) {
+                int limit = budget.reserve(pageSize);
+                if (limit == 0) {
+                    break;
+                }
+                Query page = query.orderBy(orderField).select(orderField).limit(limit);
+                if (last != null) {
+                    page = page.startAfter(last);
+                }
+                QuerySnapshot snapshot = page.get().get();
+                List<QueryDocumentSnapshot> documents = snapshot.getDocuments();
+                budget.refund(limit - documents.size());
+                if (documents.isEmpty()) {
+                    break;
+                }
+                List<ApiFuture<WriteResult>> deletes = new ArrayList<>(documents.size());
+                for (QueryDocumentSnapshot document : documents) {
+                    deletes.add(writer.delete(document.getReference()));
+                    onDelete.accept(document.getId());
+                }
+                inFlight.addLast(new Page(deletes, writer.flush()));
+                while (inFlight.size() > parallelism) {
+                    deleted += inFlight.removeFirst().await();
+                }
+                if (documents.size() < limit) {
+                    break;
+                }
+                last = documents.get(documents.size() - 1);
+            }
+            while (!inFlight.isEmpty()) {
+                deleted += inFlight.removeFirst().await();
+            }
+        }
+        return deleted;
+    }
+
+    private record Page(List<ApiFuture<WriteResult>> deletes, ApiFuture<Void> flushed) {
+
+        int await() throws InterruptedException, ExecutionException {
+            flushed.get();
+            int succeeded = 0;
+            for (ApiFuture<WriteResult> delete : deletes) {
+                try {
+                    delete.get();
+                    succeeded++;
+                } catch (ExecutionException e) {
+                    // BulkWriter already retried; the document is picked up again by the next sweep.
+                }
+            }
+            return succeeded;
+        }
+    }
+}
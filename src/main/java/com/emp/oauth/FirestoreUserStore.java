@@ -1,31 +1,87 @@
 package com.emp.oauth;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.Base64;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
 
+import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
 import jakarta.inject.Inject;
 
 import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
 
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
 import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentReference;
 import com.google.cloud.firestore.DocumentSnapshot;
 import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.SetOptions;
+import com.google.cloud.firestore.WriteBatch;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.scheduler.Scheduled;
 
 @ApplicationScoped
 public class FirestoreUserStore {
 
+    private static final Logger LOG = Logger.getLogger(FirestoreUserStore.class);
+    private static final int MAX_BATCH_WRITES = 500;
+
     @ConfigProperty(name = "emp.oauth.firestore.users-collection", defaultValue = "users")
     String usersCollection;
 
+    @ConfigProperty(name = "emp.oauth.users.profile-cache-size", defaultValue = "10000")
+    long profileCacheSize;
+
+    @ConfigProperty(name = "emp.oauth.users.profile-cache-ttl-seconds", defaultValue = "3600")
+    long profileCacheTtlSeconds;
+
     @Inject
     Firestore firestore;
 
-    public void upsertGoogleUser(GoogleIdToken idToken) {
+    @Inject
+    MeterRegistry meterRegistry;
+
+    private final ConcurrentMap<String, Long> pendingLogins = new ConcurrentHashMap<>();
+    private Cache<String, String> profileHashes;
+
+    @PostConstruct
+    void init() {
+        profileHashes = GuavaCacheMetrics.monitor(meterRegistry, CacheBuilder.newBuilder()
+                .maximumSize(profileCacheSize)
+                .expireAfterWrite(Duration.ofSeconds(profileCacheTtlSeconds))
+                .recordStats()
+                .<String, String>build(), "emp.oauth.users.profiles");
+    }
+
+    // Returning users whose profile matches what we last wrote cost no write on the request path; their
+    // lastLoginAt is buffered and flushed in batches. New or changed profiles are written immediately.
+    public CompletableFuture<Void> upsertGoogleUserAsync(GoogleIdToken idToken) {
         String userId = idToken.getSubject();
         Instant now = Instant.now();
+        String hash = profileHash(idToken);
+        String known = profileHashes.getIfPresent(userId);
+        if (hash.equals(known)) {
+            pendingLogins.merge(userId, now.toEpochMilli(), Math::max);
+            return CompletableFuture.completedFuture(null);
+        }
         Map<String, Object> data = new HashMap<>();
         data.put("googleSub", userId);
         data.put("userId", userId);
@@ -37,27 +93,142 @@ public class FirestoreUserStore {
         }
         Timestamp timestamp = Timestamp.ofTimeSecondsAndNanos(now.getEpochSecond(), now.getNano());
         data.put("lastLoginAt", timestamp);
-        data.putIfAbsent("createdAt", timestamp);
+        pendingLogins.remove(userId);
+        DocumentReference document = firestore.collection(usersCollection).document(userId);
+        CompletableFuture<Void> write;
+        if (known == null) {
+            // Unknown to this instance: try to create so createdAt is set exactly once, and fall back to a
+            // merge (which leaves createdAt alone) when the user already exists.
+            Map<String, Object> created = new HashMap<>(data);
+            created.put("createdAt", timestamp);
+            write = FutureSupport.toCompletable(document.create(created))
+                    .<CompletableFuture<Void>>handle((result, error) -> {
+                        if (error == null) {
+                            return CompletableFuture.completedFuture(null);
+                        }
+                        if (isAlreadyExists(error)) {
+                            return merge(document, data);
+                        }
+                        return CompletableFuture.failedFuture(error);
+                    })
+                    .thenCompose(Function.identity());
+        } else {
+            write = merge(document, data);
+        }
+        return write.handle((result, error) -> {
+            if (error != null) {
+                throw new IllegalStateException("Failed to upsert user in Firestore", FutureSupport.unwrap(error));
+            }
+            profileHashes.put(userId, hash);
+            return null;
+        });
+    }
+
+    @Scheduled(every = "{emp.oauth.users.last-login-flush-interval}",
+            concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    public synchronized void flushLastLogins() {
+        if (pendingLogins.isEmpty()) {
+            return;
+        }
+        Map<String, Long> batch = new HashMap<>();
+        for (String userId : pendingLogins.keySet()) {
+            Long millis = pendingLogins.remove(userId);
+            if (millis != null) {
+                batch.put(userId, millis);
+            }
+        }
         try {
-            firestore.collection(usersCollection)
-                    .document(userId)
-                    .set(data, com.google.cloud.firestore.SetOptions.merge())
-                    .get();
+            WriteBatch writes = firestore.batch();
+            for (Map.Entry<String, Long> entry : batch.entrySet()) {
+                Instant lastLoginAt = Instant.ofEpochMilli(entry.getValue());
+                writes.set(firestore.collection(usersCollection).document(entry.getKey()),
+                        Map.of("lastLoginAt", Timestamp.ofTimeSecondsAndNanos(
+                                lastLoginAt.getEpochSecond(), lastLoginAt.getNano())),
+                        SetOptions.merge());
+                if (writes.getMutationsSize() == MAX_BATCH_WRITES) {
+                    writes.commit().get();
+                    writes = firestore.batch();
+                }
+            }
+            if (writes.getMutationsSize() > 0) {
+                writes.commit().get();
+            }
         } catch (Exception e) {
-            throw new IllegalStateException("Failed to upsert user in Firestore", e);
+            batch.forEach((userId, millis) -> pendingLogins.merge(userId, millis, Math::max));
+            LOG.warnf("Failed to flush lastLoginAt for %d users: %s", batch.size(), e.getMessage());
         }
     }
 
-    public Optional<String> findEmail(String userId) {
+    void onStop(@Observes ShutdownEvent event) {
+        flushLastLogins();
+    }
+
+    private CompletableFuture<Void> merge(DocumentReference document, Map<String, Object> data) {
+        return FutureSupport.toCompletable(document.set(data, SetOptions.merge())).thenApply(result -> null);
+    }
+
+    static boolean isAlreadyExists(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ApiException api
+                    && api.getStatusCode().getCode() == StatusCode.Code.ALREADY_EXISTS) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String profileHash(GoogleIdToken idToken) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(String.valueOf(idToken.getEmail()).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(String.valueOf(idToken.getEmailVerified()).getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public Optional<UserClaims> findClaims(String userId) {
         try {
             DocumentSnapshot snapshot = firestore.collection(usersCollection).document(userId).get().get();
             if (!snapshot.exists()) {
                 return Optional.empty();
             }
             Object email = snapshot.get("email");
-            return email == null ? Optional.empty() : Optional.of(email.toString());
+            Object emailVerified = snapshot.get("emailVerified");
+            return Optional.of(new UserClaims(
+                    email == null ? null : email.toString(),
+                    emailVerified == null ? null : Boolean.valueOf(emailVerified.toString()),
+                    Instant.now()));
         } catch (Exception e) {
             throw new IllegalStateException("Failed to read user from Firestore", e);
         }
     }
+
+    // Claims snapshots are stored flat on code, refresh token and auth request documents.
+    static void writeClaims(Map<String, Object> data, UserClaims claims) {
+        if (claims == null) {
+            return;
+        }
+        if (claims.getEmail() != null) {
+            data.put("email", claims.getEmail());
+        }
+        if (claims.getEmailVerified() != null) {
+            data.put("emailVerified", claims.getEmailVerified());
+        }
+        Instant verifiedAt = claims.getVerifiedAt();
+        data.put("claimsVerifiedAt", Timestamp.ofTimeSecondsAndNanos(verifiedAt.getEpochSecond(), verifiedAt.getNano()));
+    }
+
+    static UserClaims readClaims(DocumentSnapshot snapshot) {
+        Timestamp verifiedAt = snapshot.getTimestamp("claimsVerifiedAt");
+        if (verifiedAt == null) {
+            return null;
+        }
+        return new UserClaims(
+                snapshot.getString("email"),
+                snapshot.getBoolean("emailVerified"),
+                Instant.ofEpochSecond(verifiedAt.getSeconds(), verifiedAt.getNanos()));
+    }
 }
@@ -4,6 +4,8 @@ import java.net.URI;
 import java.time.Instant;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 import jakarta.inject.Inject;
 import jakarta.ws.rs.GET;
@@ -47,49 +49,64 @@ public class GoogleAuthResource {
         return Response.seeOther(redirect).build();
     }
 
+    // Runs as one async chain so no event-loop or worker thread waits on Google or Firestore round trips.
     @GET
     @Path("/callback")
-    public Response callback(
+    public CompletionStage<Response> callback(
             @QueryParam("state") String state,
             @QueryParam("code") String code,
             @QueryParam("error") String error) {
         if (state == null || state.isBlank()) {
-            return error(Response.Status.BAD_REQUEST, "invalid_request", "state is required");
-        }
-        AuthRequestRecord record = authRequestStore.find(state).orElse(null);
-        if (record == null || Instant.now().isAfter(record.getExpiresAt())) {
-            return error(Response.Status.BAD_REQUEST, "invalid_request", "authorization request expired");
-        }
-        if (error != null && !error.isBlank()) {
-            authRequestStore.remove(state);
-            return redirectError(record.getRedirectUri(), error, "google authorization failed", record.getOriginalState());
-        }
-        if (code == null || code.isBlank()) {
-            return redirectError(record.getRedirectUri(), "invalid_request", "code is required", record.getOriginalState());
+            return CompletableFuture.completedFuture(
+                    error(Response.Status.BAD_REQUEST, "invalid_request", "state is required"));
         }
-        GoogleIdToken idToken = googleOidcClient.exchangeCode(code);
-        userStore.upsertGoogleUser(idToken);
+        return authRequestStore.findAsync(state).thenCompose(found -> {
+            AuthRequestRecord record = found.orElse(null);
+            if (record == null || Instant.now().isAfter(record.getExpiresAt())) {
+                return CompletableFuture.completedFuture(
+                        error(Response.Status.BAD_REQUEST, "invalid_request", "authorization request expired"));
+            }
+            if (error != null && !error.isBlank()) {
+                return authRequestStore.removeAsync(state).thenApply(ignored -> redirectError(
+                        record.getRedirectUri(), error, "google authorization failed", record.getOriginalState()));
+            }
+            if (code == null || code.isBlank()) {
+                return CompletableFuture.completedFuture(redirectError(
+                        record.getRedirectUri(), "invalid_request", "code is required", record.getOriginalState()));
+            }
+            return googleOidcClient.exchangeCodeAsync(code)
+                    .thenCompose(idToken -> userStore.upsertGoogleUserAsync(idToken)
+                            .thenCompose(ignored -> complete(state, record, idToken)));
+        });
+    }
+
+    private CompletableFuture<Response> complete(String state, AuthRequestRecord record, GoogleIdToken idToken) {
+        UserClaims claims = UserClaims.fromIdToken(idToken);
         if (!autoConsent) {
-            authRequestStore.updateUserId(state, idToken.getSubject());
-            UriBuilder redirect = UriBuilder.fromPath("/oauth/consent")
-                    .queryParam("state", state);
-            return Response.seeOther(redirect.build()).build();
+            return authRequestStore.updateUserIdAsync(state, idToken.getSubject(), claims).thenApply(next -> {
+                UriBuilder redirect = UriBuilder.fromPath("/oauth/consent")
+                        .queryParam("state", next);
+                return Response.seeOther(redirect.build()).build();
+            });
         }
-        String authCode = authorizationCodeService.issueCode(
+        // The code write and the auth request delete are independent, so they go out together.
+        CompletableFuture<String> issued = authorizationCodeService.issueCodeAsync(
                 record.getClientId(),
                 record.getRedirectUri(),
                 record.getScope(),
                 record.getResource(),
                 record.getCodeChallenge(),
                 record.getCodeChallengeMethod(),
-                idToken.getSubject());
-        authRequestStore.remove(state);
-        UriBuilder redirect = UriBuilder.fromUri(record.getRedirectUri())
-                .queryParam("code", authCode);
-        if (record.getOriginalState() != null && !record.getOriginalState().isBlank()) {
-            redirect.queryParam("state", record.getOriginalState());
-        }
-        return Response.seeOther(redirect.build()).build();
+                idToken.getSubject(),
+                claims);
+        return issued.thenCombine(authRequestStore.removeAsync(state), (authCode, ignored) -> {
+            UriBuilder redirect = UriBuilder.fromUri(record.getRedirectUri())
+                    .queryParam("code", authCode);
+            if (record.getOriginalState() != null && !record.getOriginalState().isBlank()) {
+                redirect.queryParam("state", record.getOriginalState());
+            }
+            return Response.seeOther(redirect.build()).build();
+        });
     }
 
     private Response error(Response.Status status, String code, String description) {
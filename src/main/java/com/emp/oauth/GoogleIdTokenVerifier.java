@@ -0,0 +1,295 @@
+package com.emp.oauth;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Signature;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+
+@ApplicationScoped
+public class GoogleIdTokenVerifier {
+
+    private static final String ISSUER_HTTPS = "https://accounts.google.com";
+    private static final String ISSUER_PLAIN = "accounts.google.com";
+    private static final long CLOCK_SKEW_SECONDS = 300;
+    // Google publishes two or three keys at a time; anything beyond that is churn from rotation.
+    private static final int MAX_VERIFIERS_PER_THREAD = 8;
+
+    private static final ThreadLocal<Map<RSAPublicKey, Signature>> VERIFIERS =
+            ThreadLocal.withInitial(IdentityHashMap::new);
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    });
+
+    @ConfigProperty(name = "emp.oauth.google.client-id")
+    String clientId;
+
+    @ConfigProperty(name = "emp.oauth.google.id-token.verified-cache-size", defaultValue = "1024")
+    long verifiedCacheSize;
+
+    @ConfigProperty(name = "emp.oauth.google.id-token.verified-cache-ttl-seconds", defaultValue = "600")
+    long verifiedCacheTtlSeconds;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @Inject
+    GoogleJwksCache jwksCache;
+
+    @Inject
+    MeterRegistry meterRegistry;
+
+    private JsonFactory jsonFactory;
+    private Cache<String, Claims> verified;
+
+    @PostConstruct
+    void init() {
+        jsonFactory = objectMapper.getFactory();
+        verified = GuavaCacheMetrics.monitor(meterRegistry, CacheBuilder.newBuilder()
+                .maximumSize(verifiedCacheSize)
+                .expireAfterWrite(Duration.ofSeconds(verifiedCacheTtlSeconds))
+                .recordStats()
+                .<String, Claims>build(), "emp.oauth.google.id-token.verified");
+    }
+
+    public CompletableFuture<GoogleIdToken> verifyAsync(String idToken) {
+        byte[] token = idToken.getBytes(StandardCharsets.US_ASCII);
+        int firstDot = indexOf(token, 0);
+        int secondDot = firstDot < 0 ? -1 : indexOf(token, firstDot + 1);
+        if (secondDot < 0 || indexOf(token, secondDot + 1) >= 0) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Invalid id_token"));
+        }
+        // A replayed callback carrying a token we already checked skips the RSA work; expiry is still enforced.
+        String hash = hash(token);
+        Claims cached = verified.getIfPresent(hash);
+        if (cached != null) {
+            try {
+                validateTimes(cached);
+                return CompletableFuture.completedFuture(cached.toIdToken());
+            } catch (IllegalStateException e) {
+                verified.invalidate(hash);
+                return CompletableFuture.failedFuture(new IllegalStateException("Invalid id_token", e));
+            }
+        }
+        Header header;
+        Claims claims;
+        try {
+            header = parseHeader(decode(token, 0, firstDot));
+            claims = parseClaims(decode(token, firstDot + 1, secondDot - firstDot - 1));
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Invalid id_token", e));
+        }
+        if (!"RS256".equals(header.alg())) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Unsupported id_token alg"));
+        }
+        return jwksCache.getKeyAsync(header.kid()).thenApply(key -> {
+            RSAPublicKey publicKey = key.orElseThrow(() -> new IllegalStateException("Unknown id_token key id"));
+            try {
+                byte[] signature = decode(token, secondDot + 1, token.length - secondDot - 1);
+                if (!verify(publicKey, token, secondDot, signature)) {
+                    throw new IllegalStateException("Invalid id_token signature");
+                }
+                validate(claims);
+            } catch (Exception e) {
+                throw new IllegalStateException("Invalid id_token", e);
+            }
+            verified.put(hash, claims);
+            return claims.toIdToken();
+        });
+    }
+
+    // Signature.verify leaves the engine initialised for the same key, so it is reused until the key changes.
+    private boolean verify(RSAPublicKey publicKey, byte[] token, int signingInputLength, byte[] signature)
+            throws GeneralSecurityException {
+        Map<RSAPublicKey, Signature> verifiers = VERIFIERS.get();
+        Signature verifier = verifiers.get(publicKey);
+        if (verifier == null) {
+            if (verifiers.size() >= MAX_VERIFIERS_PER_THREAD) {
+                verifiers.clear();
+            }
+            verifier = Signature.getInstance("SHA256withRSA");
+            verifier.initVerify(publicKey);
+            verifiers.put(publicKey, verifier);
+        }
+        try {
+            verifier.update(token, 0, signingInputLength);
+            return verifier.verify(signature);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            verifiers.remove(publicKey);
+            throw e;
+        }
+    }
+
+    private void validate(Claims claims) {
+        if (!ISSUER_HTTPS.equals(claims.iss()) && !ISSUER_PLAIN.equals(claims.iss())) {
+            throw new IllegalStateException("Invalid issuer");
+        }
+        if (!claims.audienceMatches()) {
+            throw new IllegalStateException("Invalid audience");
+        }
+        if (claims.sub() == null) {
+            throw new IllegalStateException("Missing subject");
+        }
+        validateTimes(claims);
+    }
+
+    private void validateTimes(Claims claims) {
+        long now = Instant.now().getEpochSecond();
+        if (claims.exp() == null || now > claims.exp() + CLOCK_SKEW_SECONDS) {
+            throw new IllegalStateException("Token expired");
+        }
+        if (claims.iat() == null || claims.iat() - CLOCK_SKEW_SECONDS > now) {
+            throw new IllegalStateException("Invalid iat");
+        }
+    }
+
+    private Header parseHeader(byte[] json) throws IOException {
+        String alg = null;
+        String kid = null;
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            expectObject(parser);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (name) {
+                    case "alg" -> alg = textOrNull(parser, value);
+                    case "kid" -> kid = textOrNull(parser, value);
+                    default -> parser.skipChildren();
+                }
+            }
+        }
+        return new Header(alg, kid);
+    }
+
+    // Pulls only the claims we check or hand on; everything else is skipped without being materialised.
+    private Claims parseClaims(byte[] json) throws IOException {
+        String iss = null;
+        String sub = null;
+        String email = null;
+        Boolean emailVerified = null;
+        Long exp = null;
+        Long iat = null;
+        boolean audienceMatches = false;
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            expectObject(parser);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (name) {
+                    case "iss" -> iss = textOrNull(parser, value);
+                    case "sub" -> sub = textOrNull(parser, value);
+                    case "email" -> email = textOrNull(parser, value);
+                    case "email_verified" -> emailVerified = value == JsonToken.VALUE_NULL
+                            ? null
+                            : value == JsonToken.VALUE_STRING
+                                    ? Boolean.valueOf(parser.getText())
+                                    : parser.getValueAsBoolean();
+                    case "exp" -> exp = numberOrNull(parser, value);
+                    case "iat" -> iat = numberOrNull(parser, value);
+                    case "aud" -> audienceMatches = audienceMatches(parser, value);
+                    default -> parser.skipChildren();
+                }
+            }
+        }
+        return new Claims(iss, sub, email, emailVerified, exp, iat, audienceMatches);
+    }
+
+    // Exactly our client id, as before: Google issues a single audience for sign-in, and an array (even one
+    // containing us) means the token was minted for someone else as well.
+    private boolean audienceMatches(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_STRING) {
+            return clientId.equals(parser.getText());
+        }
+        parser.skipChildren();
+        return false;
+    }
+
+    private static void expectObject(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IllegalStateException("Expected JSON object");
+        }
+    }
+
+    private static String textOrNull(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (!value.isScalarValue()) {
+            parser.skipChildren();
+            return null;
+        }
+        return parser.getText();
+    }
+
+    private static Long numberOrNull(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_NUMBER_INT || value == JsonToken.VALUE_NUMBER_FLOAT) {
+            return parser.getValueAsLong();
+        }
+        if (value == JsonToken.VALUE_STRING) {
+            return Long.parseLong(parser.getText());
+        }
+        parser.skipChildren();
+        return null;
+    }
+
+    private static byte[] decode(byte[] token, int offset, int length) {
+        ByteBuffer decoded = Base64.getUrlDecoder().decode(ByteBuffer.wrap(token, offset, length));
+        byte[] out = new byte[decoded.remaining()];
+        decoded.get(out);
+        return out;
+    }
+
+    private static String hash(byte[] token) {
+        MessageDigest digest = SHA256.get();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(digest.digest(token));
+    }
+
+    private static int indexOf(byte[] token, int from) {
+        for (int i = from; i < token.length; i++) {
+            if (token[i] == '.') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private record Header(String alg, String kid) {
+    }
+
+    private record Claims(String iss, String sub, String email, Boolean emailVerified, Long exp, Long iat,
+            boolean audienceMatches) {
+
+        GoogleIdToken toIdToken() {
+            return new GoogleIdToken(sub, email, emailVerified);
+        }
+    }
+}
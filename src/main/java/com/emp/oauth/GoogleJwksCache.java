@@ -2,7 +2,6 @@ package com.emp.oauth;
 
 import java.math.BigInteger;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.security.KeyFactory;
@@ -11,57 +10,171 @@ import java.security.spec.RSAPublicKeySpec;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Base64;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 
 import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
 @ApplicationScoped
 public class GoogleJwksCache {
 
-    private static final Duration CACHE_TTL = Duration.ofMinutes(30);
+    private static final Logger LOG = Logger.getLogger(GoogleJwksCache.class);
+    private static final Duration DEFAULT_MAX_AGE = Duration.ofMinutes(30);
+    private static final Duration LONGEST_MAX_AGE = Duration.ofDays(1);
+    private static final Pattern MAX_AGE = Pattern.compile("max-age=(\\d+)");
 
     @ConfigProperty(name = "emp.oauth.google.jwks-uri")
     String jwksUri;
 
+    @ConfigProperty(name = "emp.oauth.google.jwks.refresh-ahead-seconds", defaultValue = "300")
+    long refreshAheadSeconds;
+
+    @ConfigProperty(name = "emp.oauth.google.jwks.unknown-kid-refresh-seconds", defaultValue = "30")
+    long unknownKidRefreshSeconds;
+
     @Inject
     ObjectMapper objectMapper;
 
-    private Instant lastFetch;
-    private Map<String, RSAPublicKey> cachedKeys = new HashMap<>();
+    @Inject
+    MeterRegistry meterRegistry;
+
+    @Inject
+    OutboundHttpClient httpClient;
+
+    private final AtomicReference<CompletableFuture<Snapshot>> inFlight = new AtomicReference<>();
+    private final AtomicLong lastForcedRefreshMillis = new AtomicLong();
+    private volatile Snapshot snapshot;
+    private Counter hits;
+    private Counter misses;
+    private Counter refreshSuccesses;
+    private Counter refreshFailures;
+    private Counter staleServed;
+
+    @PostConstruct
+    void init() {
+        hits = meterRegistry.counter("emp.oauth.google.jwks.lookups", "result", "hit");
+        misses = meterRegistry.counter("emp.oauth.google.jwks.lookups", "result", "miss");
+        refreshSuccesses = meterRegistry.counter("emp.oauth.google.jwks.refreshes", "result", "success");
+        refreshFailures = meterRegistry.counter("emp.oauth.google.jwks.refreshes", "result", "failure");
+        staleServed = meterRegistry.counter("emp.oauth.google.jwks.stale");
+    }
 
-    public Optional<RSAPublicKey> getKey(String keyId) {
+    public CompletableFuture<Optional<RSAPublicKey>> getKeyAsync(String keyId) {
         if (keyId == null || keyId.isBlank()) {
-            return Optional.empty();
+            return CompletableFuture.completedFuture(Optional.empty());
         }
-        if (isExpired() || !cachedKeys.containsKey(keyId)) {
+        return currentSnapshot().thenCompose(current -> {
+            RSAPublicKey key = current.keys().get(keyId);
+            if (key != null) {
+                hits.increment();
+                return CompletableFuture.completedFuture(Optional.of(key));
+            }
+            misses.increment();
+            // Google rotated its keys before our copy expired; refetch, but not more than once per interval.
+            if (!tryForcedRefresh()) {
+                return CompletableFuture.completedFuture(Optional.empty());
+            }
+            return refresh().handle((refreshed, error) -> {
+                if (error != null) {
+                    LOG.warnf("Forced Google JWKS refresh for unknown kid %s failed: %s", keyId, error.getMessage());
+                    return Optional.empty();
+                }
+                return Optional.ofNullable(refreshed.keys().get(keyId));
+            });
+        });
+    }
+
+    private CompletableFuture<Snapshot> currentSnapshot() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            return refresh().exceptionally(error -> {
+                throw new IllegalStateException("Failed to refresh Google JWKS", FutureSupport.unwrap(error));
+            });
+        }
+        Instant now = Instant.now();
+        if (now.isAfter(current.expiresAt())) {
+            return refresh().exceptionally(error -> {
+                staleServed.increment();
+                LOG.warnf("Google JWKS expired and refresh failed, serving stale keys: %s", error.getMessage());
+                return current;
+            });
+        }
+        if (now.isAfter(current.refreshAt())) {
             refresh();
         }
-        return Optional.ofNullable(cachedKeys.get(keyId));
+        return CompletableFuture.completedFuture(current);
     }
 
-    private boolean isExpired() {
-        return lastFetch == null || lastFetch.plus(CACHE_TTL).isBefore(Instant.now());
+    private boolean tryForcedRefresh() {
+        long now = System.currentTimeMillis();
+        long last = lastForcedRefreshMillis.get();
+        return now - last >= unknownKidRefreshSeconds * 1000 && lastForcedRefreshMillis.compareAndSet(last, now);
     }
 
-    private synchronized void refresh() {
-        if (!isExpired()) {
-            return;
+    // Single flight: concurrent callers share the running fetch instead of starting their own.
+    private CompletableFuture<Snapshot> refresh() {
+        while (true) {
+            CompletableFuture<Snapshot> running = inFlight.get();
+            if (running != null) {
+                return running;
+            }
+            CompletableFuture<Snapshot> created = new CompletableFuture<>();
+            if (inFlight.compareAndSet(null, created)) {
+                CompletableFuture<Snapshot> fetched;
+                try {
+                    fetched = fetch();
+                } catch (RuntimeException e) {
+                    // A bad URI or request fails before any future exists; it must still release inFlight.
+                    fetched = CompletableFuture.failedFuture(e);
+                }
+                fetched.whenComplete((next, error) -> {
+                    if (error == null) {
+                        snapshot = next;
+                        refreshSuccesses.increment();
+                    } else {
+                        refreshFailures.increment();
+                    }
+                    inFlight.compareAndSet(created, null);
+                    if (error == null) {
+                        created.complete(next);
+                    } else {
+                        created.completeExceptionally(error);
+                    }
+                });
+                return created;
+            }
+        }
+    }
+
+    private CompletableFuture<Snapshot> fetch() {
+        HttpRequest request = httpClient.newRequest(URI.create(jwksUri)).GET().build();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .thenApply(this::parse);
+    }
+
+    private Snapshot parse(HttpResponse<String> response) {
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("Unable to fetch Google JWKS: " + response.statusCode());
         }
         try {
-            HttpClient client = HttpClient.newHttpClient();
-            HttpRequest request = HttpRequest.newBuilder(URI.create(jwksUri)).GET().build();
-            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-            if (response.statusCode() != 200) {
-                throw new IllegalStateException("Unable to fetch Google JWKS: " + response.statusCode());
-            }
             Map<?, ?> json = objectMapper.readValue(response.body(), Map.class);
             Object keysValue = json.get("keys");
             if (!(keysValue instanceof List<?> keys)) {
@@ -79,10 +192,41 @@ public class GoogleJwksCache {
                     next.put(kid, toPublicKey(n, e));
                 }
             }
-            cachedKeys = next;
-            lastFetch = Instant.now();
+            Duration maxAge = maxAge(response);
+            Instant now = Instant.now();
+            long refreshAhead = Math.min(refreshAheadSeconds, maxAge.getSeconds() / 2);
+            return new Snapshot(Collections.unmodifiableMap(next), now.plus(maxAge).minusSeconds(refreshAhead),
+                    now.plus(maxAge));
+        } catch (IllegalStateException e) {
+            throw e;
         } catch (Exception e) {
-            throw new IllegalStateException("Failed to refresh Google JWKS", e);
+            throw new IllegalStateException("Failed to parse Google JWKS", e);
+        }
+    }
+
+    private Duration maxAge(HttpResponse<String> response) {
+        Optional<String> cacheControl = response.headers().firstValue("Cache-Control");
+        if (cacheControl.isEmpty()) {
+            return DEFAULT_MAX_AGE;
+        }
+        Matcher matcher = MAX_AGE.matcher(cacheControl.get());
+        if (!matcher.find()) {
+            return DEFAULT_MAX_AGE;
+        }
+        long seconds = parseSeconds(matcher.group(1), LONGEST_MAX_AGE.getSeconds());
+        long age = response.headers().firstValue("Age").map(value -> parseSeconds(value.trim(), 0)).orElse(0L);
+        // A zero or used-up max-age would expire the keys on arrival and send every lookup back down the
+        // blocking refresh path; keep them at least as long as we would wait before forcing another fetch.
+        long shortest = Math.max(1, unknownKidRefreshSeconds);
+        return Duration.ofSeconds(Math.min(Math.max(shortest, seconds - age), LONGEST_MAX_AGE.getSeconds()));
+    }
+
+    // Digits too long for a long are taken as the fallback rather than failing the whole fetch.
+    private static long parseSeconds(String value, long fallback) {
+        try {
+            return Math.max(0, Long.parseLong(value));
+        } catch (NumberFormatException e) {
+            return fallback;
         }
     }
 
@@ -94,4 +238,7 @@ public class GoogleJwksCache {
         RSAPublicKeySpec spec = new RSAPublicKeySpec(mod, exp);
         return (RSAPublicKey) KeyFactory.getInstance("RSA").generatePublic(spec);
     }
+
+    private record Snapshot(Map<String, RSAPublicKey> keys, Instant refreshAt, Instant expiresAt) {
+    }
 }
@@ -0,0 +1,4 @@
+package com.emp.oauth;
+
+public record GrantError(String code, String description) {
+}
@@ -1,18 +1,55 @@
 package com.emp.oauth;
 
+import java.time.Instant;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
+import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import io.micrometer.core.instrument.MeterRegistry;
 
 @ApplicationScoped
 public class InMemoryAuthRequestStore {
 
+    @ConfigProperty(name = "emp.oauth.memory.auth-requests.max-entries", defaultValue = "100000")
+    long maxEntries;
+
+    @ConfigProperty(name = "emp.oauth.memory.auth-requests.overflow-policy", defaultValue = "evict-oldest")
+    String overflowPolicy;
+
+    @Inject
+    MeterRegistry meterRegistry;
+
     private final ConcurrentMap<String, AuthRequestRecord> requests = new ConcurrentHashMap<>();
+    private final ExpiryIndex<String> expiry = new ExpiryIndex<>();
+    // Ids of sealed auth requests whose flow has finished; sealed requests are never stored here.
+    private final ConsumedIdSet finished = new ConsumedIdSet();
+    private StoreCapacity capacity;
+
+    @PostConstruct
+    void init() {
+        capacity = new StoreCapacity("auth-requests", maxEntries, overflowPolicy, requests::size, meterRegistry);
+    }
 
     public void save(AuthRequestRecord record) {
-        requests.put(record.getId(), record);
+        // An auth request is only touched by its own login round trip, so the one closest to expiry is also
+        // the least recently used; evicting it costs at most one abandoned login.
+        capacity.admit(expiry, this::evict);
+        store(record);
+    }
+
+    void store(AuthRequestRecord record) {
+        AuthRequestRecord previous = requests.put(record.getId(), record);
+        if (previous != null) {
+            capacity.removed(footprint(previous));
+        }
+        capacity.added(footprint(record));
+        expiry.add(record.getId(), record.getExpiresAt());
     }
 
     public Optional<AuthRequestRecord> find(String id) {
@@ -20,10 +57,14 @@ public class InMemoryAuthRequestStore {
     }
 
     public void remove(String id) {
-        requests.remove(id);
+        AuthRequestRecord removed = requests.remove(id);
+        if (removed != null) {
+            capacity.removed(footprint(removed));
+            expiry.remove(id, removed.getExpiresAt());
+        }
     }
 
-    public void updateUserId(String id, String userId) {
+    public void updateUserId(String id, String userId, UserClaims claims) {
         AuthRequestRecord existing = requests.get(id);
         if (existing == null) {
             return;
@@ -38,18 +79,61 @@ public class InMemoryAuthRequestStore {
                 existing.getCodeChallengeMethod(),
                 existing.getOriginalState(),
                 userId,
-                existing.getExpiresAt());
-        requests.put(id, updated);
+                existing.getExpiresAt(),
+                claims);
+        if (requests.replace(id, existing, updated)) {
+            capacity.added(footprint(updated) - footprint(existing));
+        }
+    }
+
+    public boolean finish(String id, Instant expiresAt) {
+        return finished.consume(id, expiresAt);
     }
 
-    public int cleanupExpired(java.time.Instant now) {
-        int removed = 0;
-        for (var entry : requests.entrySet()) {
-            if (entry.getValue().getExpiresAt().isBefore(now)) {
-                requests.remove(entry.getKey());
-                removed++;
+    public boolean isFinished(String id) {
+        return finished.contains(id);
+    }
+
+    public int cleanupExpired(Instant now, CleanupBudget budget) {
+        int[] removed = {0};
+        expiry.drain(now, id -> {
+            AuthRequestRecord record = requests.get(id);
+            if (record == null || !record.getExpiresAt().isBefore(now)) {
+                return true;
+            }
+            if (!budget.tryConsume()) {
+                return false;
             }
+            if (requests.remove(id, record)) {
+                capacity.removed(footprint(record));
+                removed[0]++;
+            }
+            return true;
+        });
+        return removed[0];
+    }
+
+    private boolean evict(String id) {
+        AuthRequestRecord oldest = requests.get(id);
+        if (oldest != null && requests.remove(id, oldest)) {
+            capacity.removed(footprint(oldest));
+            return true;
         }
-        return removed;
+        return false;
+    }
+
+    private static long footprint(AuthRequestRecord record) {
+        return StoreCapacity.ENTRY_OVERHEAD_BYTES
+                + StoreCapacity.stringBytes(record.getId())
+                + StoreCapacity.stringBytes(record.getClientId())
+                + StoreCapacity.stringBytes(record.getRedirectUri())
+                + StoreCapacity.stringBytes(record.getScope())
+                + StoreCapacity.stringBytes(record.getResource())
+                + StoreCapacity.stringBytes(record.getCodeChallenge())
+                + StoreCapacity.stringBytes(record.getCodeChallengeMethod())
+                + StoreCapacity.stringBytes(record.getOriginalState())
+                + StoreCapacity.stringBytes(record.getUserId())
+                + StoreCapacity.INSTANT_BYTES
+                + StoreCapacity.claimsBytes(record.getUserClaims());
     }
 }
@@ -1,33 +1,89 @@
 package com.emp.oauth;
 
+import java.time.Instant;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
 
 @ApplicationScoped
 public class InMemoryAuthorizationCodeStore {
 
+    @Inject
+    InMemoryRefreshTokenStore refreshTokenStore;
+
     private final ConcurrentMap<String, AuthorizationCodeRecord> codes = new ConcurrentHashMap<>();
+    private final ExpiryIndex<String> expiry = new ExpiryIndex<>();
+    // Sealed codes carry their own record, so all that is kept for them is which ones were redeemed.
+    private final ConsumedIdSet consumed = new ConsumedIdSet();
 
     public void save(AuthorizationCodeRecord record) {
         codes.put(record.getCode(), record);
+        expiry.add(record.getCode(), record.getExpiresAt());
     }
 
     public Optional<AuthorizationCodeRecord> find(String code) {
         return Optional.ofNullable(codes.get(code));
     }
 
-    public int cleanup(java.time.Instant now) {
-        int removed = 0;
-        for (var entry : codes.entrySet()) {
-            AuthorizationCodeRecord record = entry.getValue();
-            if (record.getUsedAt() != null || record.getExpiresAt().isBefore(now)) {
-                codes.remove(entry.getKey());
-                removed++;
+    public Redemption<AuthorizationCodeRecord> redeem(String code,
+            Function<AuthorizationCodeRecord, GrantError> validator,
+            Function<AuthorizationCodeRecord, RefreshTokenRecord> refreshTokenFactory) {
+        AtomicReference<Redemption<AuthorizationCodeRecord>> result = new AtomicReference<>(
+                Redemption.rejected(null, new GrantError("invalid_grant", "code is invalid")));
+        refreshTokenStore.admit();
+        // compute holds the bin lock, so the check and the consume cannot interleave with another redemption.
+        codes.computeIfPresent(code, (key, record) -> {
+            GrantError error = validator.apply(record);
+            if (error != null) {
+                result.set(Redemption.rejected(record, error));
+                return record;
             }
+            Instant now = Instant.now();
+            record.markUsed(now);
+            // A used code is dead weight; file it for the next sweep instead of waiting for its expiry.
+            expiry.add(key, now);
+            RefreshTokenRecord refreshToken = refreshTokenFactory.apply(record);
+            refreshTokenStore.store(refreshToken);
+            result.set(Redemption.redeemed(record, refreshToken));
+            return record;
+        });
+        return result.get();
+    }
+
+    // Records a sealed code as redeemed and stores the refresh token it produced; false when it already was.
+    public boolean consume(String codeId, Instant expiresAt, RefreshTokenRecord refreshToken) {
+        refreshTokenStore.admit();
+        if (!consumed.consume(codeId, expiresAt)) {
+            return false;
         }
-        return removed;
+        refreshTokenStore.store(refreshToken);
+        return true;
+    }
+
+    void restoreConsumed(String codeId, Instant expiresAt) {
+        consumed.restore(codeId, expiresAt);
+    }
+
+    public int cleanup(Instant now, CleanupBudget budget) {
+        int[] removed = {0};
+        expiry.drain(now, code -> {
+            AuthorizationCodeRecord record = codes.get(code);
+            if (record == null || (record.getUsedAt() == null && !record.getExpiresAt().isBefore(now))) {
+                return true;
+            }
+            if (!budget.tryConsume()) {
+                return false;
+            }
+            if (codes.remove(code, record)) {
+                removed[0]++;
+            }
+            return true;
+        });
+        return removed[0];
     }
 }
@@ -1,18 +1,55 @@
 package com.emp.oauth;
 
+import java.time.Instant;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
+import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import io.micrometer.core.instrument.MeterRegistry;
 
 @ApplicationScoped
 public class InMemoryClientStore {
 
+    @ConfigProperty(name = "emp.oauth.memory.clients.max-entries", defaultValue = "100000")
+    long maxEntries;
+
+    @ConfigProperty(name = "emp.oauth.memory.clients.overflow-policy", defaultValue = "reject")
+    String overflowPolicy;
+
+    @Inject
+    MeterRegistry meterRegistry;
+
     private final ConcurrentMap<String, ClientRecord> clients = new ConcurrentHashMap<>();
+    // Clients are filed by last activity; a cleanup cutoff then selects the inactive ones directly, and the
+    // earliest entries are the least recently used ones when the store is full.
+    private final ExpiryIndex<String> activity = new ExpiryIndex<>();
+    private StoreCapacity capacity;
+
+    @PostConstruct
+    void init() {
+        capacity = new StoreCapacity("clients", maxEntries, overflowPolicy, clients::size, meterRegistry);
+    }
 
     public void save(ClientRecord client) {
-        clients.put(client.getClientId(), client);
+        capacity.admit(activity, this::evict);
+        store(client);
+    }
+
+    // Bypasses admission: updates to known clients and restores from the embedded log.
+    void store(ClientRecord client) {
+        ClientRecord previous = clients.put(client.getClientId(), client);
+        if (previous != null) {
+            capacity.removed(footprint(previous));
+            activity.remove(client.getClientId(), lastActivity(previous));
+        }
+        capacity.added(footprint(client));
+        activity.add(client.getClientId(), lastActivity(client));
     }
 
     public Optional<ClientRecord> findById(String clientId) {
@@ -21,13 +58,14 @@ public class InMemoryClientStore {
 
     public boolean isRedirectUriAllowed(String clientId, String redirectUri) {
         return findById(clientId)
-                .map(client -> client.getRedirectUris().contains(redirectUri))
+                .map(client -> client.isRedirectUriAllowed(redirectUri))
                 .orElse(false);
     }
 
-    public void updateLastUsedAt(String clientId, java.time.Instant lastUsedAt) {
+    public void updateLastUsedAt(String clientId, Instant lastUsedAt) {
         ClientRecord existing = clients.get(clientId);
-        if (existing == null) {
+        if (existing == null
+                || existing.getLastUsedAt() != null && !lastUsedAt.isAfter(existing.getLastUsedAt())) {
             return;
         }
         ClientRecord updated = new ClientRecord(
@@ -37,21 +75,56 @@ public class InMemoryClientStore {
                 existing.getTokenEndpointAuthMethod(),
                 existing.getCreatedAt(),
                 lastUsedAt);
-        clients.put(clientId, updated);
-    }
-
-    public int cleanupInactive(java.time.Instant cutoff) {
-        int removed = 0;
-        for (var entry : clients.entrySet()) {
-            ClientRecord record = entry.getValue();
-            java.time.Instant lastUsedAt = record.getLastUsedAt() == null
-                    ? record.getCreatedAt()
-                    : record.getLastUsedAt();
-            if (lastUsedAt.isBefore(cutoff)) {
-                clients.remove(entry.getKey());
-                removed++;
+        store(updated);
+    }
+
+    public boolean hasInactiveBefore(Instant cutoff) {
+        return activity.hasDue(cutoff);
+    }
+
+    public int cleanupInactive(Instant cutoff, CleanupBudget budget) {
+        int[] removed = {0};
+        activity.drain(cutoff, clientId -> {
+            ClientRecord record = clients.get(clientId);
+            if (record == null || !lastActivity(record).isBefore(cutoff)) {
+                return true;
+            }
+            if (!budget.tryConsume()) {
+                return false;
             }
+            if (clients.remove(clientId, record)) {
+                capacity.removed(footprint(record));
+                removed[0]++;
+            }
+            return true;
+        });
+        return removed[0];
+    }
+
+    private boolean evict(String clientId) {
+        ClientRecord leastRecent = clients.get(clientId);
+        if (leastRecent != null && clients.remove(clientId, leastRecent)) {
+            capacity.removed(footprint(leastRecent));
+            return true;
         }
-        return removed;
+        return false;
+    }
+
+    private static long footprint(ClientRecord record) {
+        long redirectUris = 0;
+        for (String redirectUri : record.getRedirectUris()) {
+            // Each URI is held by the list and by the lookup set.
+            redirectUris += StoreCapacity.stringBytes(redirectUri) + 40;
+        }
+        return StoreCapacity.ENTRY_OVERHEAD_BYTES
+                + StoreCapacity.stringBytes(record.getClientId())
+                + StoreCapacity.stringBytes(record.getClientName())
+                + StoreCapacity.stringBytes(record.getTokenEndpointAuthMethod())
+                + redirectUris
+                + 2 * StoreCapacity.INSTANT_BYTES;
+    }
+
+    private static Instant lastActivity(ClientRecord record) {
+        return record.getLastUsedAt() == null ? record.getCreatedAt() : record.getLastUsedAt();
     }
 }
@@ -2,41 +2,128 @@ package com.emp.oauth;
 
 import java.time.Instant;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
 
+import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import io.micrometer.core.instrument.MeterRegistry;
 
 @ApplicationScoped
 public class InMemoryRefreshTokenStore {
 
-    private final ConcurrentMap<String, RefreshTokenRecord> tokens = new ConcurrentHashMap<>();
+    @ConfigProperty(name = "emp.oauth.memory.refresh-tokens.max-entries", defaultValue = "1000000")
+    long maxEntries;
+
+    @ConfigProperty(name = "emp.oauth.memory.refresh-tokens.overflow-policy", defaultValue = "reject")
+    String overflowPolicy;
+
+    @Inject
+    MeterRegistry meterRegistry;
+
+    // Every operation is a handful of array accesses, so one lock costs less than the per-entry objects a
+    // concurrent map would need.
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final CompactRefreshTokenTable tokens = new CompactRefreshTokenTable();
+    private StoreCapacity capacity;
+
+    @PostConstruct
+    void init() {
+        capacity = new StoreCapacity("refresh-tokens", maxEntries, overflowPolicy, tokens::size,
+                this::retainedBytes, meterRegistry);
+    }
 
     public void save(RefreshTokenRecord record) {
-        tokens.put(record.getToken(), record);
+        lock.writeLock().lock();
+        try {
+            capacity.admit(tokens::evictEarliest);
+            tokens.put(record);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Grants check for room before they consume their code or token, so a full store refuses the request
+    // instead of leaving the client with nothing.
+    void admit() {
+        lock.writeLock().lock();
+        try {
+            capacity.admit(tokens::evictEarliest);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void store(RefreshTokenRecord record) {
+        lock.writeLock().lock();
+        try {
+            tokens.put(record);
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     public Optional<RefreshTokenRecord> find(String token) {
-        return Optional.ofNullable(tokens.get(token));
+        lock.readLock().lock();
+        try {
+            return Optional.ofNullable(tokens.get(token));
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
-    public void markUsed(String token, String rotatedTo) {
-        RefreshTokenRecord record = tokens.get(token);
+    public Redemption<RefreshTokenRecord> rotate(String token, Function<RefreshTokenRecord, GrantError> validator,
+            Function<RefreshTokenRecord, RefreshTokenRecord> successorFactory) {
+        admit();
+        RefreshTokenRecord record = find(token).orElse(null);
         if (record == null) {
-            return;
+            return Redemption.rejected(null, new GrantError("invalid_grant", "refresh token is invalid"));
         }
-        record.markUsed(Instant.now(), rotatedTo);
+        // Validation and building the successor run unlocked; only the compare-and-set below holds the lock.
+        GrantError error = validator.apply(record);
+        if (error != null) {
+            return Redemption.rejected(record, error);
+        }
+        RefreshTokenRecord successor = successorFactory.apply(record);
+        Instant now = Instant.now();
+        lock.writeLock().lock();
+        try {
+            int row = tokens.find(token);
+            if (row < 0) {
+                return Redemption.rejected(record, new GrantError("invalid_grant", "refresh token is invalid"));
+            }
+            if (tokens.isUsed(row)) {
+                return Redemption.rejected(record, new GrantError("invalid_grant", "refresh token was already used"));
+            }
+            tokens.markUsed(row, now);
+            tokens.put(successor);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        record.markUsed(now, successor.getToken());
+        return Redemption.redeemed(record, successor);
     }
 
-    public int cleanup(java.time.Instant now) {
-        int removed = 0;
-        for (var entry : tokens.entrySet()) {
-            RefreshTokenRecord record = entry.getValue();
-            if (record.getUsedAt() != null || record.getExpiresAt().isBefore(now)) {
-                tokens.remove(entry.getKey());
-                removed++;
-            }
+    public int cleanup(Instant now, CleanupBudget budget) {
+        lock.writeLock().lock();
+        try {
+            return tokens.removeDue(now, budget);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private long retainedBytes() {
+        lock.readLock().lock();
+        try {
+            return tokens.retainedBytes();
+        } finally {
+            lock.readLock().unlock();
         }
-        return removed;
     }
 }
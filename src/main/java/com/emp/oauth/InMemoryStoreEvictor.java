@@ -0,0 +1,69 @@
+package com.emp.oauth;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import io.quarkus.scheduler.Scheduled;
+
+// Evicts due entries from the in-memory stores between cleanup runs, so a single-node deployment does not
+// hold expired state until someone sweeps. Each tick only touches what the expiry indexes say is due.
+@ApplicationScoped
+public class InMemoryStoreEvictor {
+
+    private static final Logger LOG = Logger.getLogger(InMemoryStoreEvictor.class);
+    // Keeps one tick short even after a long pause let a large backlog fall due.
+    private static final Duration MAX_TICK = Duration.ofSeconds(1);
+
+    @ConfigProperty(name = "emp.oauth.firestore.enabled", defaultValue = "false")
+    boolean firestoreEnabled;
+
+    @ConfigProperty(name = "emp.oauth.cleanup.clients-inactive-days", defaultValue = "7")
+    long clientsInactiveDays;
+
+    @ConfigProperty(name = "emp.oauth.memory.eviction-max-operations", defaultValue = "10000")
+    long maxOperations;
+
+    @Inject
+    InMemoryAuthRequestStore authRequestStore;
+
+    @Inject
+    InMemoryAuthorizationCodeStore authorizationCodeStore;
+
+    @Inject
+    InMemoryRefreshTokenStore refreshTokenStore;
+
+    @Inject
+    InMemoryClientStore clientStore;
+
+    @Inject
+    ClientStoreService clientStoreService;
+
+    @Scheduled(every = "{emp.oauth.memory.eviction-interval}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void evict() {
+        if (firestoreEnabled) {
+            return;
+        }
+        Instant now = Instant.now();
+        CleanupBudget budget = new CleanupBudget(MAX_TICK, maxOperations);
+        Instant clientCutoff = now.minus(clientsInactiveDays, ChronoUnit.DAYS);
+        int evicted = authRequestStore.cleanupExpired(now, budget)
+                + authorizationCodeStore.cleanup(now, budget)
+                + refreshTokenStore.cleanup(now, budget);
+        // A client may have been used since its filed activity, with the update still buffered in
+        // ClientActivityTracker; the service flushes it first. Only done when a client looks inactive, so the
+        // tracker keeps batching its writes the rest of the time.
+        if (clientStore.hasInactiveBefore(clientCutoff)) {
+            evicted += clientStoreService.cleanupInactive(clientCutoff, budget);
+        }
+        if (evicted > 0) {
+            LOG.debugf("Evicted %d expired in-memory entries", evicted);
+        }
+    }
+}
@@ -2,39 +2,76 @@ package com.emp.oauth;
 
 import java.math.BigInteger;
 import java.security.interfaces.ECPublicKey;
+import java.util.ArrayList;
 import java.util.Base64;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
 import jakarta.inject.Inject;
 
-import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.quarkus.runtime.StartupEvent;
 
 @ApplicationScoped
 public class JwksService {
 
+    private static final Logger LOG = Logger.getLogger(JwksService.class);
     private static final int P256_COORDINATE_BYTES = 32;
 
-    @ConfigProperty(name = "emp.oauth.key-id")
-    Optional<String> keyId;
-
     @Inject
     KeyMaterialService keyMaterialService;
 
-    public Map<String, Object> jwks() {
-        ECPublicKey publicKey = keyMaterialService.publicKey();
-        Map<String, Object> jwk = new LinkedHashMap<>();
-        jwk.put("kty", "EC");
-        jwk.put("crv", "P-256");
-        jwk.put("alg", "ES256");
-        jwk.put("use", "sig");
-        jwk.put("kid", keyId.orElse("es256-1"));
-        jwk.put("x", toBase64Url(publicKey.getW().getAffineX()));
-        jwk.put("y", toBase64Url(publicKey.getW().getAffineY()));
-        return Map.of("keys", List.of(jwk));
+    @Inject
+    ObjectMapper objectMapper;
+
+    private volatile Published published;
+
+    void onStart(@Observes StartupEvent event) {
+        try {
+            document();
+        } catch (IllegalStateException e) {
+            LOG.warnf("JWKS not available at startup: %s", e.getMessage());
+        }
+    }
+
+    // Rebuilt only when KeyMaterialService publishes a different key ring, i.e. after a reload.
+    public CachedJsonDocument document() {
+        Map<String, ECPublicKey> keys = keyMaterialService.verificationKeys();
+        Published current = published;
+        if (current != null && current.keys() == keys) {
+            return current.document();
+        }
+        try {
+            byte[] body = objectMapper.writeValueAsBytes(jwks(keys));
+            Published next = new Published(keys, new CachedJsonDocument(body));
+            published = next;
+            return next.document();
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unable to serialise JWKS", e);
+        }
+    }
+
+    private Map<String, Object> jwks(Map<String, ECPublicKey> keys) {
+        List<Map<String, Object>> jwks = new ArrayList<>();
+        keys.forEach((kid, publicKey) -> {
+            Map<String, Object> jwk = new LinkedHashMap<>();
+            jwk.put("kty", "EC");
+            jwk.put("crv", "P-256");
+            jwk.put("alg", "ES256");
+            jwk.put("use", "sig");
+            jwk.put("kid", kid);
+            jwk.put("x", toBase64Url(publicKey.getW().getAffineX()));
+            jwk.put("y", toBase64Url(publicKey.getW().getAffineY()));
+            jwks.add(jwk);
+        });
+        return Map.of("keys", jwks);
     }
 
     private String toBase64Url(BigInteger coordinate) {
@@ -48,4 +85,7 @@ public class JwksService {
         System.arraycopy(raw, srcPos, fixed, P256_COORDINATE_BYTES - length, length);
         return Base64.getUrlEncoder().withoutPadding().encodeToString(fixed);
     }
+
+    private record Published(Map<String, ECPublicKey> keys, CachedJsonDocument document) {
+    }
 }
@@ -0,0 +1,132 @@
+package com.emp.oauth;
+
+import java.util.Arrays;
+
+public final class JwtClaimsWriter {
+
+    private byte[] buffer = new byte[512];
+    private int length;
+
+    JwtClaimsWriter reset() {
+        length = 0;
+        ensure(1);
+        buffer[length++] = '{';
+        return this;
+    }
+
+    public JwtClaimsWriter put(String name, String value) {
+        writeName(name);
+        if (value == null) {
+            writeAscii("null");
+        } else {
+            writeString(value);
+        }
+        return this;
+    }
+
+    public JwtClaimsWriter put(String name, long value) {
+        writeName(name);
+        writeAscii(Long.toString(value));
+        return this;
+    }
+
+    public JwtClaimsWriter put(String name, boolean value) {
+        writeName(name);
+        writeAscii(value ? "true" : "false");
+        return this;
+    }
+
+    JwtClaimsWriter close() {
+        ensure(1);
+        buffer[length++] = '}';
+        return this;
+    }
+
+    byte[] buffer() {
+        return buffer;
+    }
+
+    int length() {
+        return length;
+    }
+
+    private void writeName(String name) {
+        if (length > 1) {
+            ensure(1);
+            buffer[length++] = ',';
+        }
+        writeString(name);
+        ensure(1);
+        buffer[length++] = ':';
+    }
+
+    private void writeAscii(String value) {
+        int size = value.length();
+        ensure(size);
+        for (int i = 0; i < size; i++) {
+            buffer[length++] = (byte) value.charAt(i);
+        }
+    }
+
+    private void writeString(String value) {
+        int size = value.length();
+        // Worst case is six bytes per char (\\u00XX escapes); UTF-8 never needs more than that.
+        ensure(size * 6 + 2);
+        byte[] out = buffer;
+        int pos = length;
+        out[pos++] = '"';
+        for (int i = 0; i < size; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c < 0x80) {
+                if (c == '"' || c == '\\') {
+                    out[pos++] = '\\';
+                }
+                out[pos++] = (byte) c;
+            } else if (c < 0x20) {
+                pos = writeControl(out, pos, c);
+            } else if (c < 0x800) {
+                out[pos++] = (byte) (0xc0 | (c >> 6));
+                out[pos++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < size && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                out[pos++] = (byte) (0xf0 | (codePoint >> 18));
+                out[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                out[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                out[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                out[pos++] = '?';
+            } else {
+                out[pos++] = (byte) (0xe0 | (c >> 12));
+                out[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                out[pos++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        out[pos++] = '"';
+        length = pos;
+    }
+
+    private static int writeControl(byte[] out, int pos, char c) {
+        out[pos++] = '\\';
+        switch (c) {
+            case '\n' -> out[pos++] = 'n';
+            case '\r' -> out[pos++] = 'r';
+            case '\t' -> out[pos++] = 't';
+            case '\b' -> out[pos++] = 'b';
+            case '\f' -> out[pos++] = 'f';
+            default -> {
+                out[pos++] = 'u';
+                out[pos++] = '0';
+                out[pos++] = '0';
+                out[pos++] = (byte) Character.forDigit(c >> 4, 16);
+                out[pos++] = (byte) Character.forDigit(c & 0xf, 16);
+            }
+        }
+        return pos;
+    }
+
+    private void ensure(int extra) {
+        if (length + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+        }
+    }
+}
@@ -5,6 +5,7 @@ import java.io.StringReader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.KeyFactory;
 import java.security.PrivateKey;
 import java.security.PublicKey;
@@ -12,23 +13,46 @@ import java.security.interfaces.ECPrivateKey;
 import java.security.interfaces.ECPublicKey;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.X509EncodedKeySpec;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
 
 import org.bouncycastle.asn1.pkcs.PrivateKeyInfo;
 import org.bouncycastle.openssl.PEMKeyPair;
 import org.bouncycastle.openssl.PEMParser;
 import org.bouncycastle.openssl.jcajce.JcaPEMKeyConverter;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
 
 import com.google.cloud.secretmanager.v1.AccessSecretVersionRequest;
+import com.google.cloud.secretmanager.v1.AccessSecretVersionResponse;
 import com.google.cloud.secretmanager.v1.SecretManagerServiceClient;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.scheduler.Scheduled;
+
 @ApplicationScoped
 public class KeyMaterialService {
 
+    private static final Logger LOG = Logger.getLogger(KeyMaterialService.class);
+    private static final String CLASSPATH_PREFIX = "classpath:";
+    private static final String SECRET_PREFIX = "secret:";
+    private static final String CLASSPATH_VERSION = "classpath";
+    private static final String DEFAULT_KEY_ID = "es256-1";
+
     @ConfigProperty(name = "emp.oauth.public-key-path")
     Optional<String> publicKeyPath;
 
@@ -41,8 +65,234 @@ public class KeyMaterialService {
     @ConfigProperty(name = "emp.oauth.private-key-path")
     Optional<String> privateKeyPath;
 
-    public ECPublicKey publicKey() {
-        String pem = loadPublicKeyPem();
+    @ConfigProperty(name = "emp.oauth.key-id")
+    Optional<String> keyId;
+
+    @ConfigProperty(name = "emp.oauth.key-ring.public-keys")
+    Optional<List<String>> ringPublicKeys;
+
+    @ConfigProperty(name = "emp.oauth.key-ring.private-keys")
+    Optional<List<String>> ringPrivateKeys;
+
+    @ConfigProperty(name = "emp.oauth.key-ring.active-key-id")
+    Optional<String> configuredActiveKeyId;
+
+    @ConfigProperty(name = "emp.oauth.key-ring.active-key-id-location")
+    Optional<String> activeKeyIdLocation;
+
+    @Inject
+    MeterRegistry meterRegistry;
+
+    private final Object loadLock = new Object();
+    private final AtomicLong lastReloadEpochSeconds = new AtomicLong();
+    private volatile Map<String, LoadedKey<ECPublicKey>> publicKeys;
+    private volatile Map<String, ECPublicKey> verificationKeys;
+    // Private keys and the kid that picks the signing key among them, swapped together on reload.
+    private volatile SigningRing signingRing;
+    private Counter publicKeyReloadFailures;
+    private Counter privateKeyReloadFailures;
+    private SecretManagerServiceClient secretManagerClient;
+
+    @PostConstruct
+    void init() {
+        meterRegistry.gauge("emp.oauth.keys.last.reload", lastReloadEpochSeconds, AtomicLong::get);
+        publicKeyReloadFailures = meterRegistry.counter("emp.oauth.keys.reload.failures", "key", "public");
+        privateKeyReloadFailures = meterRegistry.counter("emp.oauth.keys.reload.failures", "key", "private");
+    }
+
+    @PreDestroy
+    void close() {
+        synchronized (loadLock) {
+            if (secretManagerClient != null) {
+                secretManagerClient.close();
+                secretManagerClient = null;
+            }
+        }
+    }
+
+    public SigningKey activeSigningKey() {
+        SigningRing current = signingRing;
+        if (current != null) {
+            return current.active();
+        }
+        synchronized (loadLock) {
+            if (signingRing == null) {
+                signingRing = loadSigningRing(null);
+                markReloaded();
+            }
+            return signingRing.active();
+        }
+    }
+
+    // Every published key, active one included; the returned map is replaced, never mutated, on reload.
+    public Map<String, ECPublicKey> verificationKeys() {
+        Map<String, ECPublicKey> current = verificationKeys;
+        if (current != null) {
+            return current;
+        }
+        synchronized (loadLock) {
+            if (verificationKeys == null) {
+                publicKeys = loadKeys(publicKeySources(), Collections.emptyMap(), this::parsePublicKey);
+                verificationKeys = toVerificationKeys(publicKeys);
+                markReloaded();
+            }
+            return verificationKeys;
+        }
+    }
+
+    // A failed reload keeps serving the previous keys and only bumps the failure counter.
+    @Scheduled(every = "{emp.oauth.keys.reload-interval}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void reload() {
+        synchronized (loadLock) {
+            boolean reloaded = false;
+            if (publicKeys != null) {
+                try {
+                    Map<String, LoadedKey<ECPublicKey>> next = loadKeys(publicKeySources(), publicKeys,
+                            this::parsePublicKey);
+                    if (!next.equals(publicKeys)) {
+                        publicKeys = next;
+                        verificationKeys = toVerificationKeys(next);
+                        LOG.infof("Reloaded ES256 public keys %s", next.keySet());
+                    }
+                    reloaded = true;
+                } catch (RuntimeException e) {
+                    publicKeyReloadFailures.increment();
+                    LOG.warnf("Unable to reload ES256 public keys, keeping previous keys: %s", e.getMessage());
+                }
+            }
+            if (signingRing != null) {
+                try {
+                    SigningRing current = signingRing;
+                    SigningRing next = loadSigningRing(current);
+                    if (!next.keys().equals(current.keys()) || !next.activeKeyId().equals(current.activeKeyId())) {
+                        signingRing = next;
+                        LOG.infof("Reloaded ES256 private keys %s, signing with %s", next.keys().keySet(),
+                                next.active().keyId());
+                    }
+                    reloaded = true;
+                } catch (RuntimeException e) {
+                    privateKeyReloadFailures.increment();
+                    LOG.warnf("Unable to reload ES256 private keys, keeping previous keys: %s", e.getMessage());
+                }
+            }
+            if (reloaded) {
+                markReloaded();
+            }
+        }
+    }
+
+    private void markReloaded() {
+        lastReloadEpochSeconds.set(Instant.now().getEpochSecond());
+    }
+
+    private String primaryKeyId() {
+        return keyId.orElse(DEFAULT_KEY_ID);
+    }
+
+    // Fails, leaving the current ring in place, when the active kid names no loaded private key.
+    private SigningRing loadSigningRing(SigningRing current) {
+        Map<String, LoadedKey<ECPrivateKey>> keys = loadKeys(privateKeySources(),
+                current == null ? Collections.emptyMap() : current.keys(), this::parsePrivateKey);
+        LoadedKey<String> activeKeyId = loadActiveKeyId(current == null ? null : current.activeKeyId());
+        return new SigningRing(keys, activeKeyId, signingKey(activeKeyId.key(), keys));
+    }
+
+    // A location is polled like the keys, so switching the signing key needs no restart.
+    private LoadedKey<String> loadActiveKeyId(LoadedKey<String> known) {
+        if (activeKeyIdLocation.isEmpty()) {
+            return new LoadedKey<>(configuredActiveKeyId.orElse(primaryKeyId()), null);
+        }
+        Pem pem = loadPem(new KeySource("active-key-id", activeKeyIdLocation.get()),
+                known == null ? null : known.version());
+        if (pem == null) {
+            return known;
+        }
+        String keyId = pem.content().trim();
+        if (keyId.isEmpty()) {
+            throw new IllegalStateException("Active key id at " + activeKeyIdLocation.get() + " is empty");
+        }
+        return new LoadedKey<>(keyId, pem.version());
+    }
+
+    private SigningKey signingKey(String keyId, Map<String, LoadedKey<ECPrivateKey>> keys) {
+        LoadedKey<ECPrivateKey> loaded = keys.get(keyId);
+        if (loaded == null) {
+            throw new IllegalStateException("No private key configured for key id " + keyId);
+        }
+        return new SigningKey(keyId, loaded.key());
+    }
+
+    private Map<String, ECPublicKey> toVerificationKeys(Map<String, LoadedKey<ECPublicKey>> keys) {
+        Map<String, ECPublicKey> result = new LinkedHashMap<>();
+        keys.forEach((kid, loaded) -> result.put(kid, loaded.key()));
+        return Collections.unmodifiableMap(result);
+    }
+
+    // Unchanged sources keep their LoadedKey instance, so an unchanged ring compares equal.
+    private <K> Map<String, LoadedKey<K>> loadKeys(List<KeySource> sources, Map<String, LoadedKey<K>> current,
+            Function<String, K> parser) {
+        Map<String, LoadedKey<K>> result = new LinkedHashMap<>();
+        for (KeySource source : sources) {
+            LoadedKey<K> known = current.get(source.keyId());
+            Pem pem = loadPem(source, known == null ? null : known.version());
+            result.put(source.keyId(), pem == null ? known : new LoadedKey<>(parser.apply(pem.content()), pem.version()));
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    private List<KeySource> publicKeySources() {
+        List<KeySource> sources = new ArrayList<>();
+        if (publicKeySecret.isPresent()) {
+            sources.add(new KeySource(primaryKeyId(), SECRET_PREFIX + publicKeySecret.get()));
+        } else if (publicKeyPath.isPresent()) {
+            sources.add(new KeySource(primaryKeyId(), publicKeyPath.get()));
+        }
+        ringPublicKeys.ifPresent(entries -> entries.forEach(entry -> sources.add(parseKeySource(entry))));
+        if (sources.isEmpty()) {
+            throw new IllegalStateException(
+                    "emp.oauth.public-key-secret or emp.oauth.public-key-path must be configured");
+        }
+        return sources;
+    }
+
+    private List<KeySource> privateKeySources() {
+        List<KeySource> sources = new ArrayList<>();
+        if (privateKeySecret.isPresent()) {
+            sources.add(new KeySource(primaryKeyId(), SECRET_PREFIX + privateKeySecret.get()));
+        } else if (privateKeyPath.isPresent()) {
+            sources.add(new KeySource(primaryKeyId(), privateKeyPath.get()));
+        }
+        ringPrivateKeys.ifPresent(entries -> entries.forEach(entry -> sources.add(parseKeySource(entry))));
+        if (sources.isEmpty()) {
+            throw new IllegalStateException(
+                    "emp.oauth.private-key-secret or emp.oauth.private-key-path must be configured");
+        }
+        return sources;
+    }
+
+    private KeySource parseKeySource(String entry) {
+        int separator = entry.indexOf('=');
+        if (separator <= 0 || separator == entry.length() - 1) {
+            throw new IllegalStateException("Key ring entries must look like <kid>=<location>: " + entry);
+        }
+        return new KeySource(entry.substring(0, separator).trim(), entry.substring(separator + 1).trim());
+    }
+
+    private Pem loadPem(KeySource source, String knownVersion) {
+        String location = source.location();
+        if (location.startsWith(SECRET_PREFIX)) {
+            return loadFromSecretManager(location.substring(SECRET_PREFIX.length()), knownVersion);
+        }
+        if (location.startsWith(CLASSPATH_PREFIX)) {
+            if (knownVersion != null) {
+                return null;
+            }
+            return new Pem(CLASSPATH_VERSION, loadFromClasspath(location.substring(CLASSPATH_PREFIX.length())));
+        }
+        return loadFromFile(location, knownVersion);
+    }
+
+    private ECPublicKey parsePublicKey(String pem) {
         String base64 = pem
                 .replace("-----BEGIN PUBLIC KEY-----", "")
                 .replace("-----END PUBLIC KEY-----", "")
@@ -57,38 +307,7 @@ public class KeyMaterialService {
         }
     }
 
-    private String loadPublicKeyPem() {
-        if (publicKeySecret.isPresent()) {
-            return loadFromSecretManager(publicKeySecret.get());
-        }
-        if (publicKeyPath.isPresent()) {
-            String pemPath = publicKeyPath.get();
-            if (pemPath.startsWith("classpath:")) {
-                return loadFromClasspath(pemPath.substring("classpath:".length()));
-            }
-            try {
-                return Files.readString(Path.of(pemPath), StandardCharsets.US_ASCII);
-            } catch (IOException e) {
-                throw new IllegalStateException("Unable to read public key from " + pemPath, e);
-            }
-        }
-        throw new IllegalStateException("emp.oauth.public-key-secret or emp.oauth.public-key-path must be configured");
-    }
-
-    private String loadFromClasspath(String resourcePath) {
-        String normalized = resourcePath.startsWith("/") ? resourcePath.substring(1) : resourcePath;
-        try (var stream = Thread.currentThread().getContextClassLoader().getResourceAsStream(normalized)) {
-            if (stream == null) {
-                throw new IllegalStateException("Classpath resource not found: " + resourcePath);
-            }
-            return new String(stream.readAllBytes(), StandardCharsets.US_ASCII);
-        } catch (IOException e) {
-            throw new IllegalStateException("Unable to read classpath resource " + resourcePath, e);
-        }
-    }
-
-    public ECPrivateKey privateKey() {
-        String pem = loadPrivateKeyPem();
+    private ECPrivateKey parsePrivateKey(String pem) {
         try (PEMParser parser = new PEMParser(new StringReader(pem))) {
             Object parsed = parser.readObject();
             JcaPEMKeyConverter converter = new JcaPEMKeyConverter();
@@ -106,29 +325,68 @@ public class KeyMaterialService {
         }
     }
 
-    private String loadPrivateKeyPem() {
-        if (privateKeySecret.isPresent()) {
-            return loadFromSecretManager(privateKeySecret.get());
-        }
-        if (privateKeyPath.isPresent()) {
-            String pemPath = privateKeyPath.get();
-            try {
-                return Files.readString(Path.of(pemPath), StandardCharsets.US_ASCII);
-            } catch (IOException e) {
-                throw new IllegalStateException("Unable to read private key from " + pemPath, e);
+    private Pem loadFromFile(String pemPath, String knownVersion) {
+        Path path = Path.of(pemPath);
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            String version = attributes.lastModifiedTime().toMillis() + ":" + attributes.size();
+            if (version.equals(knownVersion)) {
+                return null;
+            }
+            return new Pem(version, Files.readString(path, StandardCharsets.US_ASCII));
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read key from " + pemPath, e);
+        }
+    }
+
+    private String loadFromClasspath(String resourcePath) {
+        String normalized = resourcePath.startsWith("/") ? resourcePath.substring(1) : resourcePath;
+        try (var stream = Thread.currentThread().getContextClassLoader().getResourceAsStream(normalized)) {
+            if (stream == null) {
+                throw new IllegalStateException("Classpath resource not found: " + resourcePath);
             }
+            return new String(stream.readAllBytes(), StandardCharsets.US_ASCII);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read classpath resource " + resourcePath, e);
         }
-        throw new IllegalStateException("emp.oauth.private-key-secret or emp.oauth.private-key-path must be configured");
     }
 
-    private String loadFromSecretManager(String secretResource) {
+    private Pem loadFromSecretManager(String secretResource, String knownVersion) {
         AccessSecretVersionRequest request = AccessSecretVersionRequest.newBuilder()
                 .setName(secretResource)
                 .build();
-        try (SecretManagerServiceClient client = SecretManagerServiceClient.create()) {
-            return client.accessSecretVersion(request).getPayload().getData().toStringUtf8();
-        } catch (IOException e) {
-            throw new IllegalStateException("Unable to access Secret Manager key", e);
+        AccessSecretVersionResponse response = secretManagerClient().accessSecretVersion(request);
+        // The response name is the resolved version, so ".../versions/latest" still detects rotations.
+        String version = response.getName();
+        if (version != null && version.equals(knownVersion)) {
+            return null;
         }
+        return new Pem(version, response.getPayload().getData().toStringUtf8());
+    }
+
+    private SecretManagerServiceClient secretManagerClient() {
+        synchronized (loadLock) {
+            if (secretManagerClient == null) {
+                try {
+                    secretManagerClient = SecretManagerServiceClient.create();
+                } catch (IOException e) {
+                    throw new IllegalStateException("Unable to access Secret Manager key", e);
+                }
+            }
+            return secretManagerClient;
+        }
+    }
+
+    private record KeySource(String keyId, String location) {
+    }
+
+    private record Pem(String version, String content) {
+    }
+
+    private record LoadedKey<K>(K key, String version) {
+    }
+
+    private record SigningRing(Map<String, LoadedKey<ECPrivateKey>> keys, LoadedKey<String> activeKeyId,
+            SigningKey active) {
     }
 }
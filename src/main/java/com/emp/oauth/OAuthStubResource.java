@@ -11,10 +11,12 @@ import jakarta.inject.Inject;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.FormParam;
 import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HeaderParam;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.UriBuilder;
@@ -46,7 +48,7 @@ public class OAuthStubResource {
     AuthorizationCodeService authorizationCodeService;
 
     @Inject
-    FirestoreUserStore userStore;
+    UserClaimsService userClaimsService;
 
     @Inject
     RefreshTokenService refreshTokenService;
@@ -54,6 +56,9 @@ public class OAuthStubResource {
     @Inject
     RefreshTokenStoreService refreshTokenStoreService;
 
+    @Inject
+    RefreshGraceCache refreshGraceCache;
+
     @ConfigProperty(name = "emp.oauth.test-user-id")
     java.util.Optional<String> testUserId;
 
@@ -65,12 +70,16 @@ public class OAuthStubResource {
 
     @ConfigProperty(name = "emp.oauth.auto-consent", defaultValue = "true")
     boolean autoConsent;
+
+    @ConfigProperty(name = "emp.oauth.jwks.max-age-seconds", defaultValue = "300")
+    int jwksMaxAgeSeconds;
+
     @GET
     @Path("/jwks.json")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response jwks() {
+    public Response jwks(@HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch) {
         try {
-            return Response.ok(jwksService.jwks()).build();
+            return jwksService.document().toResponse(ifNoneMatch, jwksMaxAgeSeconds);
         } catch (IllegalStateException ex) {
             Map<String, Object> body = new LinkedHashMap<>();
             body.put("error", "jwks_unavailable");
@@ -123,9 +132,9 @@ public class OAuthStubResource {
                 state,
                 null,
                 Instant.now().plusSeconds(authRequestTtlSeconds));
-            authRequestStore.save(request);
+            String requestState = authRequestStore.save(request);
             UriBuilder redirect = UriBuilder.fromPath("/oauth/google/login")
-                    .queryParam("state", request.getId());
+                    .queryParam("state", requestState);
             return Response.seeOther(redirect.build()).build();
         }
         if (!autoConsent) {
@@ -140,9 +149,9 @@ public class OAuthStubResource {
                     state,
                     userId,
                     Instant.now().plusSeconds(authRequestTtlSeconds));
-            authRequestStore.save(request);
+            String requestState = authRequestStore.save(request);
             UriBuilder redirect = UriBuilder.fromPath("/oauth/consent")
-                    .queryParam("state", request.getId());
+                    .queryParam("state", requestState);
             return Response.seeOther(redirect.build()).build();
         }
         String code = authorizationCodeService.issueCode(
@@ -152,7 +161,8 @@ public class OAuthStubResource {
                 resource,
                 codeChallenge,
                 codeChallengeMethod,
-                userId);
+                userId,
+                null);
 
         UriBuilder redirect = UriBuilder.fromUri(redirectUri)
                 .queryParam("code", code);
@@ -183,67 +193,38 @@ public class OAuthStubResource {
             if (clientId == null || clientId.isBlank()) {
                 return error(Response.Status.BAD_REQUEST, "invalid_request", "client_id is required");
             }
-            AuthorizationCodeRecord record = codeStoreService.find(code).orElse(null);
-            if (record == null) {
-                return error(Response.Status.BAD_REQUEST, "invalid_grant", "code is invalid");
-            }
-            if (!clientId.equals(record.getClientId())) {
-                return error(Response.Status.BAD_REQUEST, "invalid_grant", "client_id does not match");
-            }
-            clientStore.updateLastUsedAt(clientId, Instant.now());
-            if (redirectUri == null || !redirectUri.equals(record.getRedirectUri())) {
-                return error(Response.Status.BAD_REQUEST, "invalid_grant", "redirect_uri does not match");
-            }
-            if (record.getUsedAt() != null) {
-                return error(Response.Status.BAD_REQUEST, "invalid_grant", "code was already used");
-            }
-            if (Instant.now().isAfter(record.getExpiresAt())) {
-                return error(Response.Status.BAD_REQUEST, "invalid_grant", "code has expired");
+            Redemption<AuthorizationCodeRecord> redemption = codeStoreService.redeem(
+                    code,
+                    found -> validateCode(found, clientId, redirectUri, codeVerifier),
+                    found -> refreshTokenService.newRecord(
+                            found.getClientId(),
+                            found.getUserId(),
+                            found.getScope(),
+                            resolveAudience(found.getResource()),
+                            userClaimsService.cached(found.getUserId(), found.getUserClaims())));
+            AuthorizationCodeRecord record = redemption.getRecord();
+            if (record != null && clientId.equals(record.getClientId())) {
+                clientStore.updateLastUsedAt(clientId, Instant.now());
             }
-            if (codeVerifier == null || codeVerifier.isBlank()) {
-                return error(Response.Status.BAD_REQUEST, "invalid_request", "code_verifier is required");
-            }
-            if (!"S256".equals(record.getCodeChallengeMethod())) {
-                return error(Response.Status.BAD_REQUEST, "invalid_grant", "unsupported code_challenge_method");
-            }
-            if (!verifyPkce(codeVerifier, record.getCodeChallenge())) {
-                return error(Response.Status.BAD_REQUEST, "invalid_grant", "code_verifier is invalid");
-            }
-            record.markUsed(Instant.now());
-            codeStoreService.markUsed(record.getCode());
-            String audience = record.getResource();
-            if (audience == null || audience.isBlank()) {
-                audience = defaultResource.orElse(null);
-            }
-            if (audience == null || audience.isBlank()) {
-                return error(Response.Status.BAD_REQUEST, "invalid_request", "resource is required");
-            }
-            String email = null;
-            try {
-                email = userStore.findEmail(record.getUserId()).orElse(null);
-            } catch (IllegalStateException ex) {
-                LOG.warnf("Unable to load user email for %s: %s", record.getUserId(), ex.getMessage());
-            }
-            if ((email == null || email.isBlank()) && record.getUserId() != null
-                    && record.getUserId().contains("@")) {
-                email = record.getUserId();
+            if (!redemption.isRedeemed()) {
+                return error(Response.Status.BAD_REQUEST, redemption.getError().code(),
+                        redemption.getError().description());
             }
+            String audience = resolveAudience(record.getResource());
+            // Outside the store call: a stale snapshot costs a user read here, never under a lock or transaction.
+            String email = emailFor(record.getUserId(),
+                    userClaimsService.current(record.getUserId(), redemption.getIssued().getUserClaims()));
             String accessToken = jwtService.issueAccessToken(
                     record.getUserId(),
                     audience,
                     record.getScope(),
                     record.getClientId(),
                     email);
-            String newRefreshToken = refreshTokenService.issueToken(
-                    record.getClientId(),
-                    record.getUserId(),
-                    record.getScope(),
-                    audience);
             Map<String, Object> body = new LinkedHashMap<>();
             body.put("access_token", accessToken);
             body.put("token_type", "Bearer");
             body.put("expires_in", jwtService.getAccessTokenTtlSeconds());
-            body.put("refresh_token", newRefreshToken);
+            body.put("refresh_token", redemption.getIssued().getToken());
             if (record.getScope() != null && !record.getScope().isBlank()) {
                 body.put("scope", record.getScope());
             }
@@ -256,58 +237,54 @@ public class OAuthStubResource {
             if (clientId == null || clientId.isBlank()) {
                 return error(Response.Status.BAD_REQUEST, "invalid_request", "client_id is required");
             }
-            RefreshTokenRecord record = refreshTokenStoreService.find(refreshToken).orElse(null);
-            if (record == null) {
-                return error(Response.Status.BAD_REQUEST, "invalid_grant", "refresh token is invalid");
-            }
-            if (!clientId.equals(record.getClientId())) {
-                return error(Response.Status.BAD_REQUEST, "invalid_grant", "client_id does not match");
-            }
-            clientStore.updateLastUsedAt(clientId, Instant.now());
-            if (record.getUsedAt() != null) {
-                return error(Response.Status.BAD_REQUEST, "invalid_grant", "refresh token was already used");
+            // Duplicates of a grant that is being or was just rotated wait for its response instead of racing it.
+            RefreshGraceCache.Flight flight = refreshGraceCache.begin(refreshToken);
+            if (!flight.isLeader()) {
+                Map<String, Object> repeated = flight.await(clientId).orElse(null);
+                if (repeated != null) {
+                    return Response.ok(repeated).build();
+                }
             }
-            if (Instant.now().isAfter(record.getExpiresAt())) {
-                return error(Response.Status.BAD_REQUEST, "invalid_grant", "refresh token has expired");
-            }
-            String audience = record.getResource();
-            if (audience == null || audience.isBlank()) {
-                audience = defaultResource.orElse(null);
-            }
-            if (audience == null || audience.isBlank()) {
-                return error(Response.Status.BAD_REQUEST, "invalid_request", "resource is required");
-            }
-            String email = null;
+            Map<String, Object> body = null;
             try {
-                email = userStore.findEmail(record.getUserId()).orElse(null);
-            } catch (IllegalStateException ex) {
-                LOG.warnf("Unable to load user email for %s: %s", record.getUserId(), ex.getMessage());
-            }
-            if ((email == null || email.isBlank()) && record.getUserId() != null
-                    && record.getUserId().contains("@")) {
-                email = record.getUserId();
+                Redemption<RefreshTokenRecord> rotation = refreshTokenStoreService.rotate(
+                        refreshToken,
+                        found -> validateRefreshToken(found, clientId),
+                        found -> refreshTokenService.newRecord(
+                                found.getClientId(),
+                                found.getUserId(),
+                                found.getScope(),
+                                resolveAudience(found.getResource()),
+                                userClaimsService.cached(found.getUserId(), found.getUserClaims())));
+                RefreshTokenRecord record = rotation.getRecord();
+                if (record != null && clientId.equals(record.getClientId())) {
+                    clientStore.updateLastUsedAt(clientId, Instant.now());
+                }
+                if (!rotation.isRedeemed()) {
+                    return error(Response.Status.BAD_REQUEST, rotation.getError().code(),
+                            rotation.getError().description());
+                }
+                String audience = resolveAudience(record.getResource());
+                String email = emailFor(record.getUserId(),
+                        userClaimsService.current(record.getUserId(), rotation.getIssued().getUserClaims()));
+                String accessToken = jwtService.issueAccessToken(
+                        record.getUserId(),
+                        audience,
+                        record.getScope(),
+                        record.getClientId(),
+                        email);
+                body = new LinkedHashMap<>();
+                body.put("access_token", accessToken);
+                body.put("token_type", "Bearer");
+                body.put("expires_in", jwtService.getAccessTokenTtlSeconds());
+                body.put("refresh_token", rotation.getIssued().getToken());
+                if (record.getScope() != null && !record.getScope().isBlank()) {
+                    body.put("scope", record.getScope());
+                }
+                return Response.ok(body).build();
+            } finally {
+                flight.finish(clientId, body);
             }
-            String accessToken = jwtService.issueAccessToken(
-                    record.getUserId(),
-                    audience,
-                    record.getScope(),
-                    record.getClientId(),
-                    email);
-            String newRefreshToken = refreshTokenService.issueToken(
-                    record.getClientId(),
-                    record.getUserId(),
-                    record.getScope(),
-                    audience);
-            refreshTokenStoreService.markUsed(refreshToken, newRefreshToken);
-            Map<String, Object> body = new LinkedHashMap<>();
-            body.put("access_token", accessToken);
-            body.put("token_type", "Bearer");
-            body.put("expires_in", jwtService.getAccessTokenTtlSeconds());
-            body.put("refresh_token", newRefreshToken);
-            if (record.getScope() != null && !record.getScope().isBlank()) {
-                body.put("scope", record.getScope());
-            }
-            return Response.ok(body).build();
         }
         return error(Response.Status.BAD_REQUEST, "unsupported_grant_type", "unsupported grant_type");
     }
@@ -388,6 +365,71 @@ public class OAuthStubResource {
         return Response.seeOther(redirect.build()).build();
     }
 
+    // Runs inside the redemption, against the record as read by the store, before the code is consumed.
+    private GrantError validateCode(AuthorizationCodeRecord record, String clientId, String redirectUri,
+            String codeVerifier) {
+        if (!clientId.equals(record.getClientId())) {
+            return new GrantError("invalid_grant", "client_id does not match");
+        }
+        if (redirectUri == null || !redirectUri.equals(record.getRedirectUri())) {
+            return new GrantError("invalid_grant", "redirect_uri does not match");
+        }
+        if (record.getUsedAt() != null) {
+            return new GrantError("invalid_grant", "code was already used");
+        }
+        if (Instant.now().isAfter(record.getExpiresAt())) {
+            return new GrantError("invalid_grant", "code has expired");
+        }
+        if (codeVerifier == null || codeVerifier.isBlank()) {
+            return new GrantError("invalid_request", "code_verifier is required");
+        }
+        if (!"S256".equals(record.getCodeChallengeMethod())) {
+            return new GrantError("invalid_grant", "unsupported code_challenge_method");
+        }
+        if (!verifyPkce(codeVerifier, record.getCodeChallenge())) {
+            return new GrantError("invalid_grant", "code_verifier is invalid");
+        }
+        if (resolveAudience(record.getResource()) == null) {
+            return new GrantError("invalid_request", "resource is required");
+        }
+        return null;
+    }
+
+    private GrantError validateRefreshToken(RefreshTokenRecord record, String clientId) {
+        if (!clientId.equals(record.getClientId())) {
+            return new GrantError("invalid_grant", "client_id does not match");
+        }
+        if (record.getUsedAt() != null) {
+            return new GrantError("invalid_grant", "refresh token was already used");
+        }
+        if (Instant.now().isAfter(record.getExpiresAt())) {
+            return new GrantError("invalid_grant", "refresh token has expired");
+        }
+        if (resolveAudience(record.getResource()) == null) {
+            return new GrantError("invalid_request", "resource is required");
+        }
+        return null;
+    }
+
+    private String emailFor(String userId, UserClaims claims) {
+        String email = claims == null ? null : claims.getEmail();
+        if ((email == null || email.isBlank()) && userId != null && userId.contains("@")) {
+            email = userId;
+        }
+        return email;
+    }
+
+    private String resolveAudience(String resource) {
+        String audience = resource;
+        if (audience == null || audience.isBlank()) {
+            audience = defaultResource.orElse(null);
+        }
+        if (audience == null || audience.isBlank()) {
+            return null;
+        }
+        return audience;
+    }
+
     private boolean verifyPkce(String codeVerifier, String expectedChallenge) {
         try {
             MessageDigest digest = MessageDigest.getInstance("SHA-256");
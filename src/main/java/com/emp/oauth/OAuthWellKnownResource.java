@@ -5,14 +5,21 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.inject.Inject;
 import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HeaderParam;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 @Path("/.well-known")
 @Produces(MediaType.APPLICATION_JSON)
 public class OAuthWellKnownResource {
@@ -35,9 +42,39 @@ public class OAuthWellKnownResource {
     @ConfigProperty(name = "emp.oauth.scopes-supported")
     Optional<String> scopesSupported;
 
+    @ConfigProperty(name = "emp.oauth.metadata.max-age-seconds", defaultValue = "3600")
+    int maxAgeSeconds;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    private CachedJsonDocument authorizationServerMetadata;
+    private CachedJsonDocument openIdConfiguration;
+
+    @PostConstruct
+    void init() {
+        try {
+            authorizationServerMetadata = new CachedJsonDocument(
+                    objectMapper.writeValueAsBytes(buildAuthorizationServerMetadata()));
+            openIdConfiguration = new CachedJsonDocument(objectMapper.writeValueAsBytes(buildOpenIdConfiguration()));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unable to serialise OAuth metadata", e);
+        }
+    }
+
     @GET
     @Path("/oauth-authorization-server")
-    public Response oauthAuthorizationServerMetadata() {
+    public Response oauthAuthorizationServerMetadata(@HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch) {
+        return authorizationServerMetadata.toResponse(ifNoneMatch, maxAgeSeconds);
+    }
+
+    @GET
+    @Path("/openid-configuration")
+    public Response openIdConfiguration(@HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch) {
+        return openIdConfiguration.toResponse(ifNoneMatch, maxAgeSeconds);
+    }
+
+    private Map<String, Object> buildAuthorizationServerMetadata() {
         String base = issuer.endsWith("/") ? issuer.substring(0, issuer.length() - 1) : issuer;
         Map<String, Object> body = new LinkedHashMap<>();
         body.put("issuer", issuer);
@@ -50,12 +87,10 @@ public class OAuthWellKnownResource {
         body.put("token_endpoint_auth_methods_supported", new String[] { "none" });
         body.put("code_challenge_methods_supported", new String[] { "S256" });
         scopesSupported.map(this::splitScopes).ifPresent(scopes -> body.put("scopes_supported", scopes));
-        return Response.ok(body).build();
+        return body;
     }
 
-    @GET
-    @Path("/openid-configuration")
-    public Response openIdConfiguration() {
+    private Map<String, Object> buildOpenIdConfiguration() {
         String base = issuer.endsWith("/") ? issuer.substring(0, issuer.length() - 1) : issuer;
         Map<String, Object> body = new LinkedHashMap<>();
         body.put("issuer", issuer);
@@ -72,7 +107,7 @@ public class OAuthWellKnownResource {
         body.put("claims_supported", new String[] { "sub", "email", "email_verified" });
         body.put("code_challenge_methods_supported", new String[] { "S256" });
         scopesSupported.map(this::splitScopes).ifPresent(scopes -> body.put("scopes_supported", scopes));
-        return Response.ok(body).build();
+        return body;
     }
 
     private List<String> splitScopes(String scopes) {
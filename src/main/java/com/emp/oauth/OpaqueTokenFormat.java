@@ -0,0 +1,216 @@
+package com.emp.oauth;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Optional;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+// Refresh tokens and authorization codes are a kind prefix ("rt." or "ac.") followed by 48 bytes in 64 base64url
+// characters: [version][issued-at epoch seconds, 4 bytes][27 random bytes][16-byte truncated HMAC-SHA256 of the
+// rest]. The token endpoint checks shape, MAC and age before any store access, so garbage, forged and
+// long-expired values cost a hash instead of a read. The old all-random values never contain '.', so a prefixed
+// value that fails its MAC is always a forgery; old values are only looked up while they can still be alive.
+@ApplicationScoped
+public class OpaqueTokenFormat {
+
+    private static final Logger LOG = Logger.getLogger(OpaqueTokenFormat.class);
+    private static final byte VERSION = 1;
+    public static final int RANDOM_BYTES = 27;
+    private static final int SIGNED_BYTES = 1 + Integer.BYTES + RANDOM_BYTES;
+    private static final int MAC_BYTES = 16;
+    private static final int TOKEN_BYTES = SIGNED_BYTES + MAC_BYTES;
+    private static final int ENCODED_LENGTH = Base64Url.encodedLength(TOKEN_BYTES);
+    private static final int PREFIX_LENGTH = 3;
+    public static final int TOKEN_LENGTH = PREFIX_LENGTH + ENCODED_LENGTH;
+    // Leeway for clocks that differ between the issuing and the checking instance.
+    private static final long CLOCK_SKEW_SECONDS = 60;
+
+    public enum Kind {
+        REFRESH_TOKEN("refresh_token", "rt.", 64),
+        AUTHORIZATION_CODE("authorization_code", "ac.", 43);
+
+        private final String tag;
+        private final String prefix;
+        private final byte[] prefixBytes;
+        private final int legacyLength;
+
+        Kind(String tag, String prefix, int legacyLength) {
+            this.tag = tag;
+            this.prefix = prefix;
+            this.prefixBytes = prefix.getBytes(StandardCharsets.US_ASCII);
+            this.legacyLength = legacyLength;
+        }
+
+        public String prefix() {
+            return prefix;
+        }
+    }
+
+    @ConfigProperty(name = "emp.oauth.tokens.accept-legacy-refresh-tokens", defaultValue = "true")
+    boolean acceptLegacyRefreshTokens;
+
+    @ConfigProperty(name = "emp.oauth.tokens.accept-legacy-codes", defaultValue = "false")
+    boolean acceptLegacyCodes;
+
+    // When the prefixed format went live. Old values are looked up until one lifetime past it, then refused.
+    @ConfigProperty(name = "emp.oauth.tokens.legacy-issued-before")
+    Optional<String> legacyIssuedBefore;
+
+    @ConfigProperty(name = "emp.oauth.refresh-token-ttl-seconds", defaultValue = "2592000")
+    long refreshTokenTtlSeconds;
+
+    @ConfigProperty(name = "emp.oauth.auth-code-ttl-seconds", defaultValue = "300")
+    long authCodeTtlSeconds;
+
+    @ConfigProperty(name = "emp.oauth.firestore.enabled", defaultValue = "false")
+    boolean firestoreEnabled;
+
+    @ConfigProperty(name = "emp.oauth.embedded.enabled", defaultValue = "false")
+    boolean embeddedEnabled;
+
+    @Inject
+    SealingKeyService sealingKeyService;
+
+    @Inject
+    MeterRegistry meterRegistry;
+
+    private byte[] macKey;
+    private boolean macEnforced;
+    private long legacyCutoff;
+    private ThreadLocal<Mac> macs;
+    private final ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[TOKEN_BYTES + TOKEN_LENGTH]);
+
+    @PostConstruct
+    void init() {
+        macKey = sealingKeyService.fixedKey("opaque-token");
+        macs = ThreadLocal.withInitial(this::newMac);
+        // A generated secret changes on restart; with a persistent store that would turn every stored token
+        // into a forgery, so the MAC is only trusted where it outlives the tokens.
+        macEnforced = sealingKeyService.isSecretConfigured() || (!firestoreEnabled && !embeddedEnabled);
+        if (!macEnforced) {
+            LOG.warn("Token MACs are not checked before store lookups until emp.oauth.sealing.secret is set");
+        }
+        if (legacyIssuedBefore.isPresent() && !legacyIssuedBefore.get().isBlank()) {
+            legacyCutoff = Instant.parse(legacyIssuedBefore.get().trim()).getEpochSecond();
+        } else {
+            legacyCutoff = Instant.now().getEpochSecond();
+            if (acceptLegacyRefreshTokens || acceptLegacyCodes) {
+                LOG.warn("emp.oauth.tokens.legacy-issued-before is not set; old-format tokens are accepted for one "
+                        + "lifetime after this instance started");
+            }
+        }
+    }
+
+    public String format(Kind kind, byte[] random) {
+        // One per-thread buffer holds the raw token followed by its encoding; only the final String is allocated.
+        byte[] buffer = buffers.get();
+        ByteBuffer.wrap(buffer)
+                .put(VERSION)
+                .putInt((int) Instant.now().getEpochSecond())
+                .put(random, 0, RANDOM_BYTES);
+        System.arraycopy(mac(kind, buffer), 0, buffer, SIGNED_BYTES, MAC_BYTES);
+        System.arraycopy(kind.prefixBytes, 0, buffer, TOKEN_BYTES, PREFIX_LENGTH);
+        Base64Url.encode(buffer, 0, TOKEN_BYTES, buffer, TOKEN_BYTES + PREFIX_LENGTH);
+        return new String(buffer, TOKEN_BYTES, TOKEN_LENGTH, StandardCharsets.ISO_8859_1);
+    }
+
+    // False, and counted, when the value cannot be one we issued or is past its lifetime; the caller answers
+    // invalid_grant without looking it up.
+    public boolean admits(Kind kind, String value) {
+        String reason = check(kind, value);
+        if (reason == null) {
+            return true;
+        }
+        rejected(kind, reason);
+        return false;
+    }
+
+    public void rejected(Kind kind, String reason) {
+        meterRegistry.counter("emp.oauth.tokens.rejected", "kind", kind.tag, "reason", reason).increment();
+    }
+
+    private String check(Kind kind, String value) {
+        if (!value.startsWith(kind.prefix)) {
+            if (value.length() != kind.legacyLength) {
+                return "malformed";
+            }
+            if (!acceptsLegacy(kind)) {
+                return "legacy";
+            }
+            return isBase64Url(value) ? null : "malformed";
+        }
+        if (value.length() != TOKEN_LENGTH) {
+            return "malformed";
+        }
+        byte[] token;
+        try {
+            token = Base64.getUrlDecoder().decode(value.substring(PREFIX_LENGTH));
+        } catch (IllegalArgumentException e) {
+            return "malformed";
+        }
+        if (!macEnforced) {
+            return null;
+        }
+        if (token[0] != VERSION
+                || !MessageDigest.isEqual(mac(kind, token), Arrays.copyOfRange(token, SIGNED_BYTES, TOKEN_BYTES))) {
+            return "forged";
+        }
+        long issuedAt = Integer.toUnsignedLong(ByteBuffer.wrap(token, 1, Integer.BYTES).getInt());
+        if (issuedAt + ttl(kind) + CLOCK_SKEW_SECONDS < Instant.now().getEpochSecond()) {
+            return "expired";
+        }
+        return null;
+    }
+
+    private boolean acceptsLegacy(Kind kind) {
+        boolean enabled = kind == Kind.REFRESH_TOKEN ? acceptLegacyRefreshTokens : acceptLegacyCodes;
+        return enabled && Instant.now().getEpochSecond() <= legacyCutoff + ttl(kind) + CLOCK_SKEW_SECONDS;
+    }
+
+    private long ttl(Kind kind) {
+        return kind == Kind.REFRESH_TOKEN ? refreshTokenTtlSeconds : authCodeTtlSeconds;
+    }
+
+    private static boolean isBase64Url(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (!(c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || c == '-' || c == '_')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte[] mac(Kind kind, byte[] token) {
+        Mac mac = macs.get();
+        mac.update(kind.tag.getBytes(StandardCharsets.US_ASCII));
+        mac.update(token, 0, SIGNED_BYTES);
+        return Arrays.copyOf(mac.doFinal(), MAC_BYTES);
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(macKey, "HmacSHA256"));
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.emp.oauth;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+@ApplicationScoped
+public class OutboundHttpClient {
+
+    private static final Logger LOG = Logger.getLogger(OutboundHttpClient.class);
+
+    @ConfigProperty(name = "emp.oauth.http.connect-timeout-ms", defaultValue = "2000")
+    long connectTimeoutMs;
+
+    @ConfigProperty(name = "emp.oauth.http.request-timeout-ms", defaultValue = "5000")
+    long requestTimeoutMs;
+
+    @ConfigProperty(name = "emp.oauth.http.max-retries", defaultValue = "2")
+    int maxRetries;
+
+    @ConfigProperty(name = "emp.oauth.http.retry-backoff-ms", defaultValue = "100")
+    long retryBackoffMs;
+
+    @Inject
+    MeterRegistry meterRegistry;
+
+    private HttpClient client;
+
+    @PostConstruct
+    void init() {
+        client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build();
+    }
+
+    @PreDestroy
+    void close() {
+        client.close();
+    }
+
+    public HttpRequest.Builder newRequest(URI uri) {
+        return HttpRequest.newBuilder(uri).timeout(Duration.ofMillis(requestTimeoutMs));
+    }
+
+    public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler)
+            throws IOException, InterruptedException {
+        try {
+            return sendAsync(request, handler).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    // Retries with exponential backoff and full jitter: GET and HEAD on 5xx answers and I/O failures (resets,
+    // timeouts); other methods, such as the token exchange POST, only when the connection never opened, since
+    // the server may already have acted on a request whose answer was lost.
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> handler) {
+        return attempt(request, handler, 0, System.nanoTime());
+    }
+
+    private <T> CompletableFuture<HttpResponse<T>> attempt(HttpRequest request, HttpResponse.BodyHandler<T> handler,
+            int attempt, long startNanos) {
+        String host = request.uri().getHost();
+        return client.sendAsync(request, handler)
+                .handle((response, error) -> {
+                    Throwable cause = unwrap(error);
+                    if (attempt < maxRetries && isRetryable(request, response, cause)) {
+                        long delay = backoffMillis(attempt);
+                        meterRegistry.counter("emp.oauth.http.client.retries", "host", host).increment();
+                        LOG.debugf("Retrying %s %s in %d ms (attempt %d): %s", request.method(), request.uri(), delay,
+                                attempt + 1, cause != null ? cause.toString() : response.statusCode());
+                        return CompletableFuture.runAsync(() -> {
+                        }, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS))
+                                .thenCompose(ignored -> attempt(request, handler, attempt + 1, startNanos));
+                    }
+                    record(host, response, cause, startNanos);
+                    return cause == null
+                            ? CompletableFuture.completedFuture(response)
+                            : CompletableFuture.<HttpResponse<T>>failedFuture(cause);
+                })
+                .thenCompose(Function.identity());
+    }
+
+    private boolean isRetryable(HttpRequest request, HttpResponse<?> response, Throwable cause) {
+        if (!isIdempotent(request.method())) {
+            return cause != null && isNotSent(cause);
+        }
+        if (cause != null) {
+            return cause instanceof IOException;
+        }
+        return response.statusCode() >= 500;
+    }
+
+    private static boolean isIdempotent(String method) {
+        return "GET".equals(method) || "HEAD".equals(method);
+    }
+
+    private static boolean isNotSent(Throwable cause) {
+        for (Throwable current = cause; current != null; current = current.getCause()) {
+            if (current instanceof ConnectException || current instanceof HttpConnectTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long backoffMillis(int attempt) {
+        long ceiling = retryBackoffMs << Math.min(attempt, 10);
+        return ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1);
+    }
+
+    private void record(String host, HttpResponse<?> response, Throwable cause, long startNanos) {
+        String outcome = cause != null ? "error" : (response.statusCode() / 100) + "xx";
+        meterRegistry.timer("emp.oauth.http.client.requests", "host", host, "outcome", outcome)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        Throwable current = error;
+        while (current instanceof CompletionException && current.getCause() != null) {
+            current = current.getCause();
+        }
+        return current;
+    }
+}
@@ -0,0 +1,40 @@
+package com.emp.oauth;
+
+public class Redemption<T> {
+
+    private final T record;
+    private final RefreshTokenRecord issued;
+    private final GrantError error;
+
+    private Redemption(T record, RefreshTokenRecord issued, GrantError error) {
+        this.record = record;
+        this.issued = issued;
+        this.error = error;
+    }
+
+    public static <T> Redemption<T> redeemed(T record, RefreshTokenRecord issued) {
+        return new Redemption<>(record, issued, null);
+    }
+
+    public static <T> Redemption<T> rejected(T record, GrantError error) {
+        return new Redemption<>(record, null, error);
+    }
+
+    public boolean isRedeemed() {
+        return error == null;
+    }
+
+    // The stored record as read during redemption; null when the token does not exist.
+    public T getRecord() {
+        return record;
+    }
+
+    // The refresh token written in the same commit that consumed the record.
+    public RefreshTokenRecord getIssued() {
+        return issued;
+    }
+
+    public GrantError getError() {
+        return error;
+    }
+}
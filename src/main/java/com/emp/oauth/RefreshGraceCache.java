@@ -0,0 +1,130 @@
+package com.emp.oauth;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+
+// Clients often send the same refresh grant twice (retries, parallel tabs). The first request for a token
+// publishes a pending result keyed by a hash of the token before it rotates; duplicates wait on it and, for a
+// few seconds after the rotation, get the same response instead of "already used" and a full login. Past the
+// window, reuse is a replay again. Entries live in this instance only.
+@ApplicationScoped
+public class RefreshGraceCache {
+
+    @ConfigProperty(name = "emp.oauth.refresh-token.grace-seconds", defaultValue = "10")
+    long graceSeconds;
+
+    @ConfigProperty(name = "emp.oauth.refresh-token.grace-cache-size", defaultValue = "10000")
+    long cacheSize;
+
+    @ConfigProperty(name = "emp.oauth.refresh-token.grace-wait-ms", defaultValue = "5000")
+    long waitMillis;
+
+    @Inject
+    MeterRegistry meterRegistry;
+
+    private Cache<String, CompletableFuture<Issued>> issued;
+
+    @PostConstruct
+    void init() {
+        issued = GuavaCacheMetrics.monitor(meterRegistry, CacheBuilder.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(Duration.ofSeconds(Math.max(1, graceSeconds)))
+                .recordStats()
+                .<String, CompletableFuture<Issued>>build(), "emp.oauth.refresh.grace");
+    }
+
+    // The caller that gets the leading flight must finish() it whatever happens; the others await() it.
+    public Flight begin(String spentToken) {
+        if (graceSeconds <= 0) {
+            return new Flight(null, null, true);
+        }
+        String key = hash(spentToken);
+        CompletableFuture<Issued> created = new CompletableFuture<>();
+        CompletableFuture<Issued> running = issued.asMap().putIfAbsent(key, created);
+        return running == null ? new Flight(key, created, true) : new Flight(key, running, false);
+    }
+
+    public final class Flight {
+
+        private final String key;
+        private final CompletableFuture<Issued> result;
+        private final boolean leader;
+
+        private Flight(String key, CompletableFuture<Issued> result, boolean leader) {
+            this.key = key;
+            this.result = result;
+            this.leader = leader;
+        }
+
+        public boolean isLeader() {
+            return leader;
+        }
+
+        // The response the leading request issued to the same client; empty if it failed, was for another
+        // client or took too long, in which case the caller handles the grant itself.
+        public Optional<Map<String, Object>> await(String clientId) {
+            try {
+                Issued entry = result.get(waitMillis, TimeUnit.MILLISECONDS);
+                if (entry == null || !entry.clientId().equals(clientId)) {
+                    return Optional.empty();
+                }
+                return Optional.of(entry.body());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return Optional.empty();
+            } catch (ExecutionException | TimeoutException e) {
+                return Optional.empty();
+            }
+        }
+
+        // `body` is the issued response, or null when the grant failed; a failure is not kept, so a retry after
+        // it is handled afresh.
+        public void finish(String clientId, Map<String, Object> body) {
+            if (!leader || key == null) {
+                return;
+            }
+            if (body == null) {
+                issued.asMap().remove(key, result);
+                result.complete(null);
+                return;
+            }
+            result.complete(new Issued(clientId, Collections.unmodifiableMap(body)));
+            // Restarts the window from the rotation rather than from when it began.
+            issued.put(key, result);
+        }
+    }
+
+    private static String hash(String token) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.US_ASCII));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private record Issued(String clientId, Map<String, Object> body) {
+    }
+}
@@ -10,17 +10,24 @@ public class RefreshTokenRecord {
     private final String scope;
     private final String resource;
     private final Instant expiresAt;
+    private final UserClaims userClaims;
     private Instant usedAt;
     private String rotatedTo;
 
     public RefreshTokenRecord(String token, String clientId, String userId, String scope, String resource,
             Instant expiresAt) {
+        this(token, clientId, userId, scope, resource, expiresAt, null);
+    }
+
+    public RefreshTokenRecord(String token, String clientId, String userId, String scope, String resource,
+            Instant expiresAt, UserClaims userClaims) {
         this.token = token;
         this.clientId = clientId;
         this.userId = userId;
         this.scope = scope;
         this.resource = resource;
         this.expiresAt = expiresAt;
+        this.userClaims = userClaims;
     }
 
     public String getToken() {
@@ -47,6 +54,10 @@ public class RefreshTokenRecord {
         return expiresAt;
     }
 
+    public UserClaims getUserClaims() {
+        return userClaims;
+    }
+
     public Instant getUsedAt() {
         return usedAt;
     }
@@ -1,8 +1,6 @@
 package com.emp.oauth;
 
-import java.security.SecureRandom;
 import java.time.Instant;
-import java.util.Base64;
 
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
@@ -18,22 +16,29 @@ public class RefreshTokenService {
     @Inject
     RefreshTokenStoreService refreshTokenStoreService;
 
-    public String issueToken(String clientId, String userId, String scope, String resource) {
-        String token = generateToken();
-        RefreshTokenRecord record = new RefreshTokenRecord(
-                token,
+    @Inject
+    SecureTokenGenerator tokenGenerator;
+
+    public String issueToken(String clientId, String userId, String scope, String resource, UserClaims userClaims) {
+        RefreshTokenRecord record = newRecord(clientId, userId, scope, resource, userClaims);
+        refreshTokenStoreService.save(record);
+        return record.getToken();
+    }
+
+    // Builds a record without persisting it, for callers that write it as part of a larger commit.
+    public RefreshTokenRecord newRecord(String clientId, String userId, String scope, String resource,
+            UserClaims userClaims) {
+        return new RefreshTokenRecord(
+                generateToken(),
                 clientId,
                 userId,
                 scope,
                 resource,
-                Instant.now().plusSeconds(refreshTokenTtlSeconds));
-        refreshTokenStoreService.save(record);
-        return token;
+                Instant.now().plusSeconds(refreshTokenTtlSeconds),
+                userClaims);
     }
 
     private String generateToken() {
-        byte[] bytes = new byte[48];
-        new SecureRandom().nextBytes(bytes);
-        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        return tokenGenerator.next(OpaqueTokenFormat.Kind.REFRESH_TOKEN);
     }
 }
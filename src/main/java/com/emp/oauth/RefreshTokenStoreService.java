@@ -1,6 +1,7 @@
 package com.emp.oauth;
 
 import java.util.Optional;
+import java.util.function.Function;
 
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
@@ -13,17 +14,30 @@ public class RefreshTokenStoreService {
     @ConfigProperty(name = "emp.oauth.firestore.enabled", defaultValue = "false")
     boolean firestoreEnabled;
 
+    @ConfigProperty(name = "emp.oauth.embedded.enabled", defaultValue = "false")
+    boolean embeddedEnabled;
+
     @Inject
     InMemoryRefreshTokenStore inMemoryRefreshTokenStore;
 
     @Inject
     FirestoreRefreshTokenStore firestoreRefreshTokenStore;
 
+    @Inject
+    EmbeddedRefreshTokenStore embeddedRefreshTokenStore;
+
+    @Inject
+    OpaqueTokenFormat tokenFormat;
+
     public void save(RefreshTokenRecord record) {
         if (firestoreEnabled) {
             firestoreRefreshTokenStore.save(record);
             return;
         }
+        if (embeddedEnabled) {
+            embeddedRefreshTokenStore.save(record);
+            return;
+        }
         inMemoryRefreshTokenStore.save(record);
     }
 
@@ -31,21 +45,33 @@ public class RefreshTokenStoreService {
         if (firestoreEnabled) {
             return firestoreRefreshTokenStore.find(token);
         }
+        if (embeddedEnabled) {
+            return embeddedRefreshTokenStore.find(token);
+        }
         return inMemoryRefreshTokenStore.find(token);
     }
 
-    public void markUsed(String token, String rotatedTo) {
+    public Redemption<RefreshTokenRecord> rotate(String token, Function<RefreshTokenRecord, GrantError> validator,
+            Function<RefreshTokenRecord, RefreshTokenRecord> successorFactory) {
+        if (!tokenFormat.admits(OpaqueTokenFormat.Kind.REFRESH_TOKEN, token)) {
+            return Redemption.rejected(null, new GrantError("invalid_grant", "refresh token is invalid"));
+        }
         if (firestoreEnabled) {
-            firestoreRefreshTokenStore.markUsed(token, rotatedTo);
-            return;
+            return firestoreRefreshTokenStore.rotate(token, validator, successorFactory);
+        }
+        if (embeddedEnabled) {
+            return embeddedRefreshTokenStore.rotate(token, validator, successorFactory);
         }
-        inMemoryRefreshTokenStore.markUsed(token, rotatedTo);
+        return inMemoryRefreshTokenStore.rotate(token, validator, successorFactory);
     }
 
-    public int cleanup(java.time.Instant now) {
+    public int cleanup(java.time.Instant now, CleanupBudget budget) {
         if (firestoreEnabled) {
-            return firestoreRefreshTokenStore.cleanup(now);
+            return firestoreRefreshTokenStore.cleanup(now, budget);
+        }
+        if (embeddedEnabled) {
+            return embeddedRefreshTokenStore.cleanup(now, budget);
         }
-        return inMemoryRefreshTokenStore.cleanup(now);
+        return inMemoryRefreshTokenStore.cleanup(now, budget);
     }
 }
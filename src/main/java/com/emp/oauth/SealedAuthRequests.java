@@ -0,0 +1,57 @@
+package com.emp.oauth;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Optional;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+// Stateless auth requests: the pending request, expiry included, is sealed into the `state` value that travels
+// through the Google login and the consent page, so none of those steps touches the store.
+@ApplicationScoped
+public class SealedAuthRequests {
+
+    private static final String PURPOSE = "auth_request";
+
+    @Inject
+    SealingKeyService sealingKeyService;
+
+    public String seal(AuthRequestRecord record) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(record.getId());
+            EmbeddedStoreLog.writeString(out, record.getClientId());
+            EmbeddedStoreLog.writeString(out, record.getRedirectUri());
+            EmbeddedStoreLog.writeString(out, record.getScope());
+            EmbeddedStoreLog.writeString(out, record.getResource());
+            EmbeddedStoreLog.writeString(out, record.getCodeChallenge());
+            EmbeddedStoreLog.writeString(out, record.getCodeChallengeMethod());
+            EmbeddedStoreLog.writeString(out, record.getOriginalState());
+            EmbeddedStoreLog.writeString(out, record.getUserId());
+            EmbeddedStoreLog.writeInstant(out, record.getExpiresAt());
+            EmbeddedStoreLog.writeClaims(out, record.getUserClaims());
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to encode auth request", e);
+        }
+        return sealingKeyService.seal(PURPOSE, bytes.toByteArray());
+    }
+
+    public Optional<AuthRequestRecord> open(String state) {
+        return sealingKeyService.open(PURPOSE, state).map(plaintext -> {
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(plaintext))) {
+                return new AuthRequestRecord(in.readUTF(), EmbeddedStoreLog.readString(in),
+                        EmbeddedStoreLog.readString(in), EmbeddedStoreLog.readString(in),
+                        EmbeddedStoreLog.readString(in), EmbeddedStoreLog.readString(in),
+                        EmbeddedStoreLog.readString(in), EmbeddedStoreLog.readString(in),
+                        EmbeddedStoreLog.readString(in), EmbeddedStoreLog.readInstant(in),
+                        EmbeddedStoreLog.readClaims(in));
+            } catch (IOException e) {
+                throw new IllegalStateException("Corrupt sealed auth request", e);
+            }
+        });
+    }
+}
@@ -0,0 +1,68 @@
+package com.emp.oauth;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Optional;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+// Stateless authorization codes: the whole record is sealed into the code itself, so issuing one writes
+// nothing and redeeming one reads nothing. Each record keeps a random code id, which is all the replay set
+// has to remember once the code is redeemed.
+@ApplicationScoped
+public class SealedAuthorizationCodes {
+
+    private static final String PURPOSE = "authorization_code";
+
+    @Inject
+    SealingKeyService sealingKeyService;
+
+    // Expects the record as built for storage, with the random code id in place of the code.
+    public AuthorizationCodeRecord seal(AuthorizationCodeRecord record) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(record.getCode());
+            EmbeddedStoreLog.writeString(out, record.getClientId());
+            EmbeddedStoreLog.writeString(out, record.getUserId());
+            EmbeddedStoreLog.writeString(out, record.getRedirectUri());
+            EmbeddedStoreLog.writeString(out, record.getScope());
+            EmbeddedStoreLog.writeString(out, record.getResource());
+            EmbeddedStoreLog.writeString(out, record.getCodeChallenge());
+            EmbeddedStoreLog.writeString(out, record.getCodeChallengeMethod());
+            EmbeddedStoreLog.writeInstant(out, record.getExpiresAt());
+            EmbeddedStoreLog.writeClaims(out, record.getUserClaims());
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to encode auth code", e);
+        }
+        return new AuthorizationCodeRecord(
+                sealingKeyService.seal(PURPOSE, bytes.toByteArray()),
+                record.getClientId(),
+                record.getUserId(),
+                record.getRedirectUri(),
+                record.getScope(),
+                record.getResource(),
+                record.getCodeChallenge(),
+                record.getCodeChallengeMethod(),
+                record.getExpiresAt(),
+                record.getUserClaims());
+    }
+
+    // The opened record carries the code id in place of the code; that id is what the replay set tracks.
+    public Optional<AuthorizationCodeRecord> open(String code) {
+        return sealingKeyService.open(PURPOSE, code).map(plaintext -> {
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(plaintext))) {
+                return new AuthorizationCodeRecord(in.readUTF(), EmbeddedStoreLog.readString(in),
+                        EmbeddedStoreLog.readString(in), EmbeddedStoreLog.readString(in),
+                        EmbeddedStoreLog.readString(in), EmbeddedStoreLog.readString(in),
+                        EmbeddedStoreLog.readString(in), EmbeddedStoreLog.readString(in),
+                        EmbeddedStoreLog.readInstant(in), EmbeddedStoreLog.readClaims(in));
+            } catch (IOException e) {
+                throw new IllegalStateException("Corrupt sealed auth code", e);
+            }
+        });
+    }
+}
@@ -0,0 +1,178 @@
+package com.emp.oauth;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import io.quarkus.runtime.StartupEvent;
+
+// Seals short-lived server state into opaque strings the client carries for us. Each rotation period gets its
+// own AES-256-GCM key derived from the configured secret, and a sealed value opens under the key of its own
+// period or the next one, so rotation needs no coordination between instances and old values die with it.
+@ApplicationScoped
+public class SealingKeyService {
+
+    private static final Logger LOG = Logger.getLogger(SealingKeyService.class);
+    private static final byte VERSION = 1;
+    private static final int HEADER_BYTES = 1 + Long.BYTES;
+    private static final int NONCE_BYTES = 12;
+    private static final int TAG_BITS = 128;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    @ConfigProperty(name = "emp.oauth.sealing.secret")
+    Optional<String> configuredSecret;
+
+    @ConfigProperty(name = "emp.oauth.sealing.rotation-hours", defaultValue = "24")
+    long rotationHours;
+
+    @ConfigProperty(name = "emp.oauth.auth-codes.stateless", defaultValue = "false")
+    boolean statelessAuthCodes;
+
+    @ConfigProperty(name = "emp.oauth.auth-requests.stateless", defaultValue = "false")
+    boolean statelessAuthRequests;
+
+    @ConfigProperty(name = "emp.oauth.firestore.enabled", defaultValue = "false")
+    boolean firestoreEnabled;
+
+    @ConfigProperty(name = "emp.oauth.embedded.enabled", defaultValue = "false")
+    boolean embeddedEnabled;
+
+    private final ConcurrentMap<Long, SecretKey> keys = new ConcurrentHashMap<>();
+    private byte[] secret;
+    private boolean secretConfigured;
+
+    @PostConstruct
+    void init() {
+        if (configuredSecret.isPresent() && !configuredSecret.get().isBlank()) {
+            secret = Base64.getDecoder().decode(configuredSecret.get().trim());
+            if (secret.length < 32) {
+                throw new IllegalStateException("emp.oauth.sealing.secret must decode to at least 32 bytes");
+            }
+            secretConfigured = true;
+            return;
+        }
+        secret = new byte[32];
+        RANDOM.nextBytes(secret);
+        LOG.warn("No sealing secret configured; sealed values will not survive a restart or open on other instances");
+    }
+
+    // With a persistent store the deployment expects codes and logins in flight to survive a restart or land on
+    // another instance; sealed with a generated secret they would fail there, so refuse to start instead.
+    void onStart(@Observes StartupEvent event) {
+        boolean persistentStore = firestoreEnabled || embeddedEnabled;
+        if (!secretConfigured && persistentStore && (statelessAuthCodes || statelessAuthRequests)) {
+            throw new IllegalStateException("emp.oauth.sealing.secret is required when stateless auth codes or auth"
+                    + " requests are enabled with the Firestore or embedded store");
+        }
+    }
+
+    // `purpose` is bound into the ciphertext, so a value sealed for one use cannot be replayed as another.
+    public String seal(String purpose, byte[] plaintext) {
+        long epoch = currentEpoch();
+        byte[] nonce = new byte[NONCE_BYTES];
+        RANDOM.nextBytes(nonce);
+        ByteBuffer sealed = ByteBuffer.allocate(HEADER_BYTES + NONCE_BYTES + plaintext.length + TAG_BITS / 8);
+        sealed.put(VERSION).putLong(epoch).put(nonce);
+        try {
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, key(epoch), new GCMParameterSpec(TAG_BITS, nonce));
+            cipher.updateAAD(aad(purpose, epoch));
+            cipher.doFinal(ByteBuffer.wrap(plaintext), sealed);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to seal " + purpose, e);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(sealed.array());
+    }
+
+    // Empty when the value is malformed, was tampered with, was sealed for another purpose or its key has
+    // rotated out.
+    public Optional<byte[]> open(String purpose, String value) {
+        byte[] sealed;
+        try {
+            sealed = Base64.getUrlDecoder().decode(value);
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+        if (sealed.length < HEADER_BYTES + NONCE_BYTES + TAG_BITS / 8 || sealed[0] != VERSION) {
+            return Optional.empty();
+        }
+        long epoch = ByteBuffer.wrap(sealed, 1, Long.BYTES).getLong();
+        long current = currentEpoch();
+        if (epoch != current && epoch != current - 1) {
+            return Optional.empty();
+        }
+        try {
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, key(epoch), new GCMParameterSpec(TAG_BITS, sealed, HEADER_BYTES,
+                    NONCE_BYTES));
+            cipher.updateAAD(aad(purpose, epoch));
+            int offset = HEADER_BYTES + NONCE_BYTES;
+            return Optional.of(cipher.doFinal(sealed, offset, sealed.length - offset));
+        } catch (GeneralSecurityException e) {
+            return Optional.empty();
+        }
+    }
+
+    // False when the secret was generated at startup, so anything derived from it dies with the process.
+    public boolean isSecretConfigured() {
+        return secretConfigured;
+    }
+
+    // A key that does not rotate, for MACs on values that outlive a rotation period.
+    public byte[] fixedKey(String label) {
+        return derive("emp.oauth.fixed:" + label, new byte[0]);
+    }
+
+    private long currentEpoch() {
+        return Instant.now().getEpochSecond() / (rotationHours * 3600);
+    }
+
+    private SecretKey key(long epoch) {
+        SecretKey key = keys.get(epoch);
+        if (key != null) {
+            return key;
+        }
+        keys.keySet().removeIf(known -> known < epoch - 1);
+        return keys.computeIfAbsent(epoch, this::deriveKey);
+    }
+
+    private SecretKey deriveKey(long epoch) {
+        return new SecretKeySpec(derive("emp.oauth.sealing", ByteBuffer.allocate(Long.BYTES).putLong(epoch).array()),
+                "AES");
+    }
+
+    private byte[] derive(String label, byte[] context) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+            mac.update(label.getBytes(StandardCharsets.UTF_8));
+            return mac.doFinal(context);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to derive sealing key", e);
+        }
+    }
+
+    private static byte[] aad(String purpose, long epoch) {
+        byte[] name = purpose.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(HEADER_BYTES + name.length).put(VERSION).putLong(epoch).put(name).array();
+    }
+}
@@ -0,0 +1,105 @@
+package com.emp.oauth;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+// Source of the random part of refresh tokens and authorization codes. Every thread draws from its own DRBG,
+// so token generation never contends on a shared SecureRandom or reseeds from the OS per call. Optionally a
+// background thread keeps a ring of random blocks ready, taking even the DRBG work off request threads; a
+// request that finds its slot empty falls back to its own DRBG instead of waiting.
+@ApplicationScoped
+public class SecureTokenGenerator {
+
+    private static final int BLOCK_BYTES = OpaqueTokenFormat.RANDOM_BYTES;
+    private static final long IDLE_PARK_NANOS = 100_000_000L;
+
+    @ConfigProperty(name = "emp.oauth.tokens.prefetch-blocks", defaultValue = "0")
+    int prefetchBlocks;
+
+    @Inject
+    OpaqueTokenFormat tokenFormat;
+
+    private final ThreadLocal<SecureRandom> randoms = ThreadLocal.withInitial(SecureTokenGenerator::newDrbg);
+    private final AtomicLong takes = new AtomicLong();
+    AtomicReferenceArray<byte[]> ring;
+    private int mask;
+    Thread filler;
+    private volatile boolean closed;
+
+    @PostConstruct
+    void init() {
+        if (prefetchBlocks <= 0) {
+            return;
+        }
+        int size = Integer.highestOneBit(Math.max(2, prefetchBlocks - 1)) << 1;
+        ring = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+        filler = new Thread(this::fill, "oauth-token-prefetch");
+        filler.setDaemon(true);
+        filler.start();
+    }
+
+    @PreDestroy
+    void close() {
+        closed = true;
+        if (filler != null) {
+            LockSupport.unpark(filler);
+        }
+    }
+
+    public String next(OpaqueTokenFormat.Kind kind) {
+        return tokenFormat.format(kind, nextBlock());
+    }
+
+    private byte[] nextBlock() {
+        if (ring != null) {
+            long take = takes.getAndIncrement();
+            byte[] block = ring.getAndSet((int) (take & mask), null);
+            // Wake the filler each time half the ring has been handed out.
+            if ((take & (mask >> 1)) == 0) {
+                LockSupport.unpark(filler);
+            }
+            if (block != null) {
+                return block;
+            }
+        }
+        byte[] block = new byte[BLOCK_BYTES];
+        randoms.get().nextBytes(block);
+        return block;
+    }
+
+    private void fill() {
+        SecureRandom random = newDrbg();
+        while (!closed) {
+            boolean filled = false;
+            for (int slot = 0; slot <= mask; slot++) {
+                if (ring.get(slot) == null) {
+                    byte[] block = new byte[BLOCK_BYTES];
+                    random.nextBytes(block);
+                    filled |= ring.compareAndSet(slot, null, block);
+                }
+            }
+            if (!filled) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    private static SecureRandom newDrbg() {
+        try {
+            return SecureRandom.getInstance("DRBG");
+        } catch (NoSuchAlgorithmException e) {
+            return new SecureRandom();
+        }
+    }
+}
@@ -0,0 +1,6 @@
+package com.emp.oauth;
+
+import java.security.interfaces.ECPrivateKey;
+
+public record SigningKey(String keyId, ECPrivateKey privateKey) {
+}
@@ -0,0 +1,134 @@
+package com.emp.oauth;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+// Admission limit and rough heap accounting for one in-memory store. The limit is checked before an insert
+// without locking, so concurrent inserts can overshoot it by a few entries; it exists to stop a burst from
+// filling the heap, not to be exact. Byte figures are estimates from field sizes, meant for sizing pods and
+// alerting, not for accounting.
+public class StoreCapacity {
+
+    public enum Policy {
+        REJECT, EVICT_OLDEST;
+
+        static Policy parse(String value) {
+            return Policy.valueOf(value.trim().replace('-', '_').toUpperCase(Locale.ROOT));
+        }
+    }
+
+    // ConcurrentHashMap node plus the record's object header and reference fields, on a 64-bit JVM with
+    // compressed oops.
+    static final long ENTRY_OVERHEAD_BYTES = 48;
+    static final long INSTANT_BYTES = 24;
+
+    private final String store;
+    private final long maxEntries;
+    private final LongSupplier entries;
+    private final LongSupplier bytes;
+    private final Policy policy;
+    private final AtomicLong estimatedBytes = new AtomicLong();
+    private final Counter rejections;
+    private final Counter evictions;
+
+    public StoreCapacity(String store, long maxEntries, String policy, LongSupplier entries,
+            MeterRegistry meterRegistry) {
+        this(store, maxEntries, policy, entries, null, meterRegistry);
+    }
+
+    // For stores that can measure their own footprint; added/removed are then not needed.
+    public StoreCapacity(String store, long maxEntries, String policy, LongSupplier entries, LongSupplier bytes,
+            MeterRegistry meterRegistry) {
+        this.store = store;
+        this.maxEntries = maxEntries;
+        this.policy = Policy.parse(policy);
+        this.entries = entries;
+        this.bytes = bytes == null ? estimatedBytes::get : bytes;
+        // Gauges hold their target weakly; this object lives as long as its store does.
+        Gauge.builder("emp.oauth.memory.entries", this, capacity -> capacity.entries.getAsLong())
+                .tag("store", store)
+                .register(meterRegistry);
+        Gauge.builder("emp.oauth.memory.estimated.bytes", this, capacity -> capacity.bytes.getAsLong())
+                .tag("store", store)
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("emp.oauth.memory.max.entries", this, capacity -> capacity.maxEntries)
+                .tag("store", store)
+                .register(meterRegistry);
+        rejections = meterRegistry.counter("emp.oauth.memory.rejections", "store", store);
+        evictions = meterRegistry.counter("emp.oauth.memory.evictions", "store", store);
+    }
+
+    public boolean isFull() {
+        return maxEntries > 0 && entries.getAsLong() >= maxEntries;
+    }
+
+    // Called before an insert. Under EVICT_OLDEST the entries filed earliest in `index` are handed to `evict`
+    // (which returns whether it removed one) until there is room; otherwise, or if that fails, the insert is
+    // refused.
+    public <K> void admit(ExpiryIndex<K> index, Predicate<K> evict) {
+        if (!isFull()) {
+            return;
+        }
+        if (policy == Policy.EVICT_OLDEST) {
+            index.drainEarliest(key -> {
+                if (!isFull()) {
+                    return false;
+                }
+                if (evict.test(key)) {
+                    evictions.increment();
+                }
+                return true;
+            });
+        }
+        rejectIfFull();
+    }
+
+    // Same as above for stores that keep their own eviction order; `evictOldest` returns false when empty.
+    public void admit(BooleanSupplier evictOldest) {
+        if (!isFull()) {
+            return;
+        }
+        if (policy == Policy.EVICT_OLDEST) {
+            while (isFull() && evictOldest.getAsBoolean()) {
+                evictions.increment();
+            }
+        }
+        rejectIfFull();
+    }
+
+    private void rejectIfFull() {
+        if (isFull()) {
+            rejections.increment();
+            throw new StoreCapacityExceededException(store, maxEntries);
+        }
+    }
+
+    public void added(long bytes) {
+        estimatedBytes.addAndGet(bytes);
+    }
+
+    public void removed(long bytes) {
+        estimatedBytes.addAndGet(-bytes);
+    }
+
+    public long getEstimatedBytes() {
+        return bytes.getAsLong();
+    }
+
+    static long stringBytes(String value) {
+        // Compact strings: header, hash and coder fields, plus a byte[] header and one byte per Latin-1 char.
+        return value == null ? 0 : 40 + value.length();
+    }
+
+    static long claimsBytes(UserClaims claims) {
+        return claims == null ? 0 : 24 + stringBytes(claims.getEmail()) + INSTANT_BYTES;
+    }
+}
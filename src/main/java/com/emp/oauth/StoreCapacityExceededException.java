@@ -0,0 +1,15 @@
+package com.emp.oauth;
+
+public class StoreCapacityExceededException extends RuntimeException {
+
+    private final String store;
+
+    public StoreCapacityExceededException(String store, long maxEntries) {
+        super("The " + store + " store is full (" + maxEntries + " entries); try again later");
+        this.store = store;
+    }
+
+    public String getStore() {
+        return store;
+    }
+}
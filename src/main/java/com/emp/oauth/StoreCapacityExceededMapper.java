@@ -0,0 +1,28 @@
+package com.emp.oauth;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.ext.ExceptionMapper;
+import jakarta.ws.rs.ext.Provider;
+
+@Provider
+public class StoreCapacityExceededMapper implements ExceptionMapper<StoreCapacityExceededException> {
+
+    // Entries free up as the expiry index evicts them, so a short back-off is enough.
+    private static final int RETRY_AFTER_SECONDS = 5;
+
+    @Override
+    public Response toResponse(StoreCapacityExceededException exception) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("error", "temporarily_unavailable");
+        body.put("error_description", exception.getMessage());
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .header("Retry-After", RETRY_AFTER_SECONDS)
+                .type(MediaType.APPLICATION_JSON)
+                .entity(body)
+                .build();
+    }
+}
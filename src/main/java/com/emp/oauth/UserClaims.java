@@ -0,0 +1,33 @@
+package com.emp.oauth;
+
+import java.time.Instant;
+
+// Snapshot of the identity claims verified at login, carried with codes and refresh tokens.
+public class UserClaims {
+
+    private final String email;
+    private final Boolean emailVerified;
+    private final Instant verifiedAt;
+
+    public UserClaims(String email, Boolean emailVerified, Instant verifiedAt) {
+        this.email = email;
+        this.emailVerified = emailVerified;
+        this.verifiedAt = verifiedAt;
+    }
+
+    public static UserClaims fromIdToken(GoogleIdToken idToken) {
+        return new UserClaims(idToken.getEmail(), idToken.getEmailVerified(), Instant.now());
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public Boolean getEmailVerified() {
+        return emailVerified;
+    }
+
+    public Instant getVerifiedAt() {
+        return verifiedAt;
+    }
+}
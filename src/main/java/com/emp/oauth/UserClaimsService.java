@@ -0,0 +1,82 @@
+package com.emp.oauth;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+
+@ApplicationScoped
+public class UserClaimsService {
+
+    private static final Logger LOG = Logger.getLogger(UserClaimsService.class);
+
+    @ConfigProperty(name = "emp.oauth.user-claims.revalidate-after-seconds", defaultValue = "86400")
+    long revalidateAfterSeconds;
+
+    @ConfigProperty(name = "emp.oauth.user-claims.cache-size", defaultValue = "10000")
+    long cacheSize;
+
+    @Inject
+    FirestoreUserStore userStore;
+
+    @Inject
+    MeterRegistry meterRegistry;
+
+    // Claims this instance re-read recently, so users whose grants carry no or stale snapshots (test users,
+    // codes issued without a login) cost one read per revalidation period instead of one per grant.
+    private Cache<String, UserClaims> reread;
+
+    @PostConstruct
+    void init() {
+        reread = GuavaCacheMetrics.monitor(meterRegistry, CacheBuilder.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(Duration.ofSeconds(Math.max(1, revalidateAfterSeconds)))
+                .recordStats()
+                .<String, UserClaims>build(), "emp.oauth.user-claims");
+    }
+
+    // Never does I/O, so it is safe inside store transactions and locks: the snapshot while it is fresh,
+    // otherwise claims re-read recently, otherwise the stale snapshot for current() to refresh later.
+    public UserClaims cached(String userId, UserClaims snapshot) {
+        if (isFresh(snapshot) || userId == null || userId.isBlank()) {
+            return snapshot;
+        }
+        UserClaims recent = reread.getIfPresent(userId);
+        return recent != null ? recent : snapshot;
+    }
+
+    // Like cached(), but re-reads the user document when nothing fresh is known and stamps a new snapshot.
+    // A failed read keeps the old snapshot so the next grant retries.
+    public UserClaims current(String userId, UserClaims snapshot) {
+        UserClaims known = cached(userId, snapshot);
+        if (isFresh(known) || userId == null || userId.isBlank()) {
+            return known;
+        }
+        try {
+            UserClaims claims = userStore.findClaims(userId).orElseGet(() -> new UserClaims(
+                    known == null ? null : known.getEmail(),
+                    known == null ? null : known.getEmailVerified(),
+                    Instant.now()));
+            reread.put(userId, claims);
+            return claims;
+        } catch (IllegalStateException ex) {
+            LOG.warnf("Unable to load user claims for %s: %s", userId, ex.getMessage());
+            return known;
+        }
+    }
+
+    private boolean isFresh(UserClaims claims) {
+        return claims != null && claims.getVerifiedAt().plusSeconds(revalidateAfterSeconds).isAfter(Instant.now());
+    }
+}
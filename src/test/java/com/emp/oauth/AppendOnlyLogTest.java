@@ -0,0 +1,120 @@
+package com.emp.oauth;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AppendOnlyLogTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void recoversDurableRecordsAfterRestart() throws IOException {
+        Path path = dir.resolve("store.log");
+        try (AppendOnlyLog log = open(path)) {
+            for (int i = 0; i < 100; i++) {
+                log.durable(log.append(bytes("record-" + i))).join();
+            }
+        }
+        try (AppendOnlyLog log = open(path)) {
+            List<String> records = read(log);
+            assertEquals(100, records.size());
+            assertEquals("record-0", records.get(0));
+            assertEquals("record-99", records.get(99));
+            log.durable(log.append(bytes("after-restart"))).join();
+        }
+        try (AppendOnlyLog log = open(path)) {
+            assertEquals("after-restart", read(log).get(100));
+        }
+    }
+
+    @Test
+    void discardsTornTailAndEverythingAfterIt() throws IOException {
+        Path path = dir.resolve("store.log");
+        int tornAt;
+        try (AppendOnlyLog log = open(path)) {
+            log.durable(log.append(bytes("first"))).join();
+            tornAt = log.end();
+            log.durable(log.append(bytes("second"))).join();
+            log.durable(log.append(bytes("third"))).join();
+        }
+        // Corrupt one byte of the second record's body, as a crash mid-write would.
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] { 'X' }), tornAt + 8);
+        }
+        try (AppendOnlyLog log = open(path)) {
+            assertEquals(List.of("first"), read(log));
+            log.durable(log.append(bytes("fourth"))).join();
+        }
+        try (AppendOnlyLog log = open(path)) {
+            assertEquals(List.of("first", "fourth"), read(log));
+        }
+    }
+
+    @Test
+    void compactionKeepsRecordsAppendedDuringTheCopy() throws IOException {
+        Path path = dir.resolve("store.log");
+        try (AppendOnlyLog log = open(path)) {
+            for (int i = 0; i < 10; i++) {
+                log.append(bytes("old-" + i));
+            }
+            int coveredUpTo = log.end();
+            log.durable(log.append(bytes("late"))).join();
+            Path compacted = dir.resolve("store.log.compact");
+            AppendOnlyLog.writeFile(compacted, List.of(bytes("old-9")));
+            log.replaceWith(compacted, coveredUpTo);
+            assertEquals(List.of("old-9", "late"), read(log));
+            log.durable(log.append(bytes("after"))).join();
+        }
+        try (AppendOnlyLog log = open(path)) {
+            assertEquals(List.of("old-9", "late", "after"), read(log));
+        }
+    }
+
+    @Test
+    void growsBeyondTheInitialMapping() throws IOException {
+        Path path = dir.resolve("store.log");
+        byte[] body = new byte[1000];
+        try (AppendOnlyLog log = new AppendOnlyLog(path, 4096, Duration.ZERO)) {
+            for (int i = 0; i < 50; i++) {
+                body[0] = (byte) i;
+                log.append(body.clone());
+            }
+            log.durable(log.end()).join();
+        }
+        try (AppendOnlyLog log = new AppendOnlyLog(path, 4096, Duration.ZERO)) {
+            List<byte[]> records = new ArrayList<>();
+            log.scan(0, log.end(), (record, offset) -> records.add(record));
+            assertEquals(50, records.size());
+            body[0] = 49;
+            assertArrayEquals(body, records.get(49));
+        }
+    }
+
+    private static AppendOnlyLog open(Path path) throws IOException {
+        return new AppendOnlyLog(path, 64 * 1024, Duration.ofNanos(100_000));
+    }
+
+    private static List<String> read(AppendOnlyLog log) {
+        List<String> records = new ArrayList<>();
+        log.scan(0, log.end(), (body, offset) -> records.add(new String(body, StandardCharsets.UTF_8)));
+        return records;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
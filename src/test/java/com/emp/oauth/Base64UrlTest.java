@@ -0,0 +1,64 @@
+package com.emp.oauth;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class Base64UrlTest {
+
+    private static final Base64.Encoder REFERENCE = Base64.getUrlEncoder().withoutPadding();
+
+    @Test
+    void matchesTheJdkEncoderForEveryRemainder() {
+        Random random = new Random(7);
+        for (int length = 0; length <= 64; length++) {
+            byte[] src = new byte[length];
+            random.nextBytes(src);
+            assertEquals(REFERENCE.encodeToString(src), encode(src, 0, length), "length " + length);
+        }
+    }
+
+    @Test
+    void coversEveryAlphabetCharacter() {
+        byte[] src = new byte[48];
+        for (int i = 0; i < 64; i++) {
+            // Each 6-bit group of the 384 bits is its own index, so the encoding is the alphabet in order.
+            int bit = i * 6;
+            for (int b = 0; b < 6; b++) {
+                if ((i >> (5 - b) & 1) != 0) {
+                    src[(bit + b) / 8] |= (byte) (0x80 >>> ((bit + b) % 8));
+                }
+            }
+        }
+        assertEquals("ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_", encode(src, 0, src.length));
+    }
+
+    @Test
+    void encodesASliceAtAnOffset() {
+        byte[] src = new byte[20];
+        new Random(11).nextBytes(src);
+        for (int length = 0; length <= 4; length++) {
+            byte[] dst = new byte[40];
+            Arrays.fill(dst, (byte) '*');
+            int end = Base64Url.encode(src, 3, length, dst, 5);
+
+            String expected = REFERENCE.encodeToString(Arrays.copyOfRange(src, 3, 3 + length));
+            assertEquals(5 + expected.length(), end);
+            assertEquals(Base64Url.encodedLength(length), expected.length());
+            assertEquals("*****" + expected + "*",
+                    new String(dst, 0, end + 1, StandardCharsets.US_ASCII), "length " + length);
+        }
+    }
+
+    private static String encode(byte[] src, int offset, int length) {
+        byte[] dst = new byte[Base64Url.encodedLength(length)];
+        int end = Base64Url.encode(src, offset, length, dst, 0);
+        assertEquals(dst.length, end);
+        return new String(dst, StandardCharsets.US_ASCII);
+    }
+}
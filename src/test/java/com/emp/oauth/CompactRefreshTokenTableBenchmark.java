@@ -0,0 +1,60 @@
+package com.emp.oauth;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.Test;
+
+// Heap cost per refresh token of the compact table against the map of records it replaced, measured as used heap
+// after a full GC. Surefire's default includes skip *Benchmark classes; run it with
+// mvn test -Dtest=CompactRefreshTokenTableBenchmark
+class CompactRefreshTokenTableBenchmark {
+
+    private static final int TOKENS = 200_000;
+    private static final Instant NOW = Instant.ofEpochSecond(1_800_000_000L);
+
+    @Test
+    void heapPerToken() throws InterruptedException {
+        long baseline = usedHeap();
+        Map<String, RefreshTokenRecord> map = new ConcurrentHashMap<>();
+        fill(new Random(1), record -> map.put(record.getToken(), record));
+        long mapBytes = usedHeap() - baseline;
+        int mapSize = map.size();
+        map.clear();
+
+        baseline = usedHeap();
+        CompactRefreshTokenTable table = new CompactRefreshTokenTable();
+        fill(new Random(1), table::put);
+        long tableBytes = usedHeap() - baseline;
+
+        System.out.printf("refresh tokens: %d, map of records %d B/token, compact table %d B/token (reported %d)%n",
+                mapSize, mapBytes / mapSize, tableBytes / table.size(), table.retainedBytes() / table.size());
+        assertTrue(tableBytes * 2 < mapBytes);
+    }
+
+    private static void fill(Random random, Consumer<RefreshTokenRecord> sink) {
+        byte[] bytes = new byte[48];
+        for (int i = 0; i < TOKENS; i++) {
+            random.nextBytes(bytes);
+            String token = "rt." + Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+            String user = "user-" + i % 1000;
+            sink.accept(new RefreshTokenRecord(token, "client-" + i % 50, user, "openid email", "https://api",
+                    NOW.plusSeconds(3600 + i % 600), new UserClaims(user + "@example.com", true, NOW)));
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,206 @@
+package com.emp.oauth;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class CompactRefreshTokenTableTest {
+
+    private static final Instant NOW = Instant.ofEpochSecond(1_800_000_000L);
+
+    private final Random random = new Random(42);
+
+    @Test
+    void readsBackWhatWasPut() {
+        CompactRefreshTokenTable table = new CompactRefreshTokenTable();
+        String token = token();
+        String legacy = "legacy-shaped-token-" + random.nextInt();
+        UserClaims claims = new UserClaims("user@example.com", true, NOW.minusSeconds(5));
+        table.put(new RefreshTokenRecord(token, "client", "user", "openid email", "https://api", NOW.plusSeconds(60),
+                claims));
+        table.put(new RefreshTokenRecord(legacy, "client", "other", null, null, NOW.plusSeconds(30)));
+
+        RefreshTokenRecord record = table.get(token);
+        assertEquals("client", record.getClientId());
+        assertEquals("user", record.getUserId());
+        assertEquals("openid email", record.getScope());
+        assertEquals("https://api", record.getResource());
+        assertEquals(NOW.plusSeconds(60), record.getExpiresAt());
+        assertEquals("user@example.com", record.getUserClaims().getEmail());
+        assertEquals(Boolean.TRUE, record.getUserClaims().getEmailVerified());
+        assertEquals(NOW.minusSeconds(5), record.getUserClaims().getVerifiedAt());
+        assertNull(record.getUsedAt());
+
+        RefreshTokenRecord other = table.get(legacy);
+        assertEquals("other", other.getUserId());
+        assertNull(other.getScope());
+        assertNull(other.getUserClaims());
+
+        assertNull(table.get(token()));
+        assertNull(table.get("rt." + token.substring(4)));
+        assertEquals(2, table.size());
+    }
+
+    @Test
+    void putReplacesTheRowOfAnExistingToken() {
+        CompactRefreshTokenTable table = new CompactRefreshTokenTable();
+        String token = token();
+        table.put(new RefreshTokenRecord(token, "client", "user", "a", null, NOW.plusSeconds(60)));
+        table.put(new RefreshTokenRecord(token, "client", "user", "b", null, NOW.plusSeconds(90)));
+
+        assertEquals(1, table.size());
+        assertEquals("b", table.get(token).getScope());
+        assertEquals(NOW.plusSeconds(90), table.get(token).getExpiresAt());
+    }
+
+    @Test
+    void findsSurvivorsPastTombstonesAndReusesFreedRows() {
+        CompactRefreshTokenTable table = new CompactRefreshTokenTable();
+        List<String> tokens = fill(table, 3000, 60);
+        for (int i = 0; i < tokens.size(); i += 2) {
+            table.markUsed(table.find(tokens.get(i)), NOW);
+        }
+        assertEquals(1500, table.removeDue(NOW.plusSeconds(1), budget()));
+        assertEquals(1500, table.size());
+
+        List<String> replacements = fill(table, 1500, 60);
+        assertEquals(3000, table.size());
+        for (int i = 0; i < tokens.size(); i++) {
+            assertEquals(i % 2 == 1, table.get(tokens.get(i)) != null, "token " + i);
+        }
+        for (String token : replacements) {
+            assertNotNull(table.get(token));
+            // Freed rows are handed out again instead of new ones.
+            assertTrue(table.find(token) < 3000);
+        }
+    }
+
+    @Test
+    void growsPastItsInitialCapacity() {
+        CompactRefreshTokenTable table = new CompactRefreshTokenTable();
+        List<String> tokens = fill(table, 20_000, 60);
+
+        assertEquals(20_000, table.size());
+        for (int i = 0; i < tokens.size(); i++) {
+            assertEquals("user-" + i % 1000, table.get(tokens.get(i)).getUserId());
+        }
+    }
+
+    @Test
+    void markUsedRecordsTheUseAndFilesTheTokenForTheNextSweep() {
+        CompactRefreshTokenTable table = new CompactRefreshTokenTable();
+        String used = token();
+        String live = token();
+        table.put(new RefreshTokenRecord(used, "client", "user", null, null, NOW.plusSeconds(3600)));
+        table.put(new RefreshTokenRecord(live, "client", "user", null, null, NOW.plusSeconds(3600)));
+
+        int row = table.find(used);
+        assertFalse(table.isUsed(row));
+        table.markUsed(row, NOW);
+        assertTrue(table.isUsed(row));
+        assertEquals(NOW, table.get(used).getUsedAt());
+
+        assertEquals(0, table.removeDue(NOW, budget()));
+        assertEquals(1, table.removeDue(NOW.plusSeconds(1), budget()));
+        assertNull(table.get(used));
+        assertNotNull(table.get(live));
+    }
+
+    @Test
+    void removeDueTakesExpiredTokensOldestFirstWithinTheBudget() {
+        CompactRefreshTokenTable table = new CompactRefreshTokenTable();
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            String token = token();
+            tokens.add(token);
+            table.put(new RefreshTokenRecord(token, "client", "user", null, null, NOW.plusSeconds(i)));
+        }
+
+        assertEquals(3, table.removeDue(NOW.plusSeconds(100), new CleanupBudget(Duration.ofSeconds(10), 3)));
+        assertNull(table.get(tokens.get(2)));
+        assertNotNull(table.get(tokens.get(3)));
+        assertEquals(2, table.removeDue(NOW.plusSeconds(5), budget()));
+        assertEquals(5, table.size());
+        assertNotNull(table.get(tokens.get(5)));
+    }
+
+    @Test
+    void evictEarliestDropsTheTokenDueFirst() {
+        CompactRefreshTokenTable table = new CompactRefreshTokenTable();
+        String late = token();
+        String early = token();
+        table.put(new RefreshTokenRecord(late, "client", "user", null, null, NOW.plusSeconds(600)));
+        table.put(new RefreshTokenRecord(early, "client", "user", null, null, NOW.plusSeconds(60)));
+
+        assertTrue(table.evictEarliest());
+        assertNull(table.get(early));
+        assertNotNull(table.get(late));
+        assertTrue(table.evictEarliest());
+        assertFalse(table.evictEarliest());
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    void evictEarliestIgnoresStaleFilingsOfReusedRows() {
+        CompactRefreshTokenTable table = new CompactRefreshTokenTable();
+        String rotated = token();
+        table.put(new RefreshTokenRecord(rotated, "client", "user", null, null, NOW.plusSeconds(10)));
+        table.markUsed(table.find(rotated), NOW);
+        // Sweeping the use removes the row but leaves its filing under the expiry second behind.
+        assertEquals(1, table.removeDue(NOW.plusSeconds(1), budget()));
+
+        String reusing = token();
+        String sooner = token();
+        table.put(new RefreshTokenRecord(reusing, "client", "user", null, null, NOW.plusSeconds(1000)));
+        table.put(new RefreshTokenRecord(sooner, "client", "user", null, null, NOW.plusSeconds(500)));
+
+        assertTrue(table.evictEarliest());
+        assertNotNull(table.get(reusing));
+        assertNull(table.get(sooner));
+    }
+
+    @Test
+    void staysWellBelowTheObjectPerTokenLayout() {
+        CompactRefreshTokenTable table = new CompactRefreshTokenTable();
+        fill(table, 200_000, 3600);
+
+        // Arrays, slack, due lists and interned strings included, with a thousand users holding the tokens; one
+        // RefreshTokenRecord with its Strings and Instants is several hundred bytes before any map overhead.
+        long perToken = table.retainedBytes() / table.size();
+        assertTrue(perToken < 160, "retained " + perToken + " bytes per token");
+    }
+
+    private List<String> fill(CompactRefreshTokenTable table, int count, long ttlSeconds) {
+        List<String> tokens = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String token = token();
+            tokens.add(token);
+            String user = "user-" + i % 1000;
+            table.put(new RefreshTokenRecord(token, "client-" + i % 50, user, "openid email", "https://api",
+                    NOW.plusSeconds(ttlSeconds + i % 600), new UserClaims(user + "@example.com", true, NOW)));
+        }
+        return tokens;
+    }
+
+    private String token() {
+        byte[] bytes = new byte[48];
+        random.nextBytes(bytes);
+        return OpaqueTokenFormat.Kind.REFRESH_TOKEN.prefix()
+                + Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    private static CleanupBudget budget() {
+        return new CleanupBudget(Duration.ofSeconds(10), Long.MAX_VALUE);
+    }
+}
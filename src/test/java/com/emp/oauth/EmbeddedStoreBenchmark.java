@@ -0,0 +1,147 @@
+package com.emp.oauth;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// Refresh grants per second (store the token, look it up, rotate it) from concurrent request threads, against
+// the in-memory store alone and the embedded store that also logs each change durably, with the group commit
+// window from application.properties. Surefire's default includes skip *Benchmark classes; run it with
+// mvn test -Dtest=EmbeddedStoreBenchmark
+class EmbeddedStoreBenchmark {
+
+    private static final int THREADS = 16;
+    private static final int GRANTS_PER_THREAD = 2_000;
+    private static final Instant NOW = Instant.now();
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void refreshGrantsPerSecond() throws Exception {
+        for (int round = 0; round < 2; round++) {
+            InMemoryRefreshTokenStore inMemory = inMemoryRefreshTokens();
+            double inMemoryRate = run(round, "in-memory", inMemory::save,
+                    token -> inMemory.find(token).isPresent()
+                            && inMemory.rotate(token, found -> null, found -> successor(token)).isRedeemed());
+
+            InMemoryRefreshTokenStore index = inMemoryRefreshTokens();
+            EmbeddedStoreLog log = storeLog(dir.resolve("round-" + round + ".log"), index);
+            try {
+                EmbeddedRefreshTokenStore embedded = new EmbeddedRefreshTokenStore();
+                embedded.inMemoryRefreshTokenStore = index;
+                embedded.storeLog = log;
+                double embeddedRate = run(round, "embedded", embedded::save,
+                        token -> embedded.find(token).isPresent()
+                                && embedded.rotate(token, found -> null, found -> successor(token)).isRedeemed());
+                if (round > 0) {
+                    System.out.printf("embedded store runs at %.1f%% of the in-memory rate%n",
+                            100 * embeddedRate / inMemoryRate);
+                }
+            } finally {
+                log.onStop(null);
+            }
+        }
+    }
+
+    private static double run(int round, String name, Consumer<RefreshTokenRecord> save,
+            Predicate<String> grant) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CyclicBarrier start = new CyclicBarrier(THREADS + 1);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                String prefix = name + "-" + round + "-" + t + "-";
+                Callable<Integer> task = () -> {
+                    start.await();
+                    int granted = 0;
+                    for (int i = 0; i < GRANTS_PER_THREAD; i++) {
+                        String token = prefix + i;
+                        save.accept(record(token));
+                        if (grant.test(token)) {
+                            granted++;
+                        }
+                    }
+                    return granted;
+                };
+                futures.add(pool.submit(task));
+            }
+            start.await();
+            long started = System.nanoTime();
+            int granted = 0;
+            for (Future<Integer> future : futures) {
+                granted += future.get();
+            }
+            long elapsed = System.nanoTime() - started;
+            assertEquals(THREADS * GRANTS_PER_THREAD, granted, name);
+            double rate = granted * 1e9 / elapsed;
+            if (round > 0) {
+                System.out.printf("%-10s %,10.0f refresh grants/s with %d threads%n", name, rate, THREADS);
+            }
+            return rate;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static RefreshTokenRecord record(String token) {
+        return new RefreshTokenRecord(token, "client", "user", "openid email", "https://api", NOW.plusSeconds(3600));
+    }
+
+    private static RefreshTokenRecord successor(String token) {
+        return record(token + "-next");
+    }
+
+    private static InMemoryRefreshTokenStore inMemoryRefreshTokens() {
+        InMemoryRefreshTokenStore store = new InMemoryRefreshTokenStore();
+        store.maxEntries = 1_000_000;
+        store.overflowPolicy = "reject";
+        store.meterRegistry = new SimpleMeterRegistry();
+        store.init();
+        return store;
+    }
+
+    private static EmbeddedStoreLog storeLog(Path path, InMemoryRefreshTokenStore refreshTokens) {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        InMemoryClientStore clients = new InMemoryClientStore();
+        clients.maxEntries = 100_000;
+        clients.overflowPolicy = "reject";
+        clients.meterRegistry = meterRegistry;
+        clients.init();
+        InMemoryAuthRequestStore authRequests = new InMemoryAuthRequestStore();
+        authRequests.maxEntries = 100_000;
+        authRequests.overflowPolicy = "evict-oldest";
+        authRequests.meterRegistry = meterRegistry;
+        authRequests.init();
+        InMemoryAuthorizationCodeStore codes = new InMemoryAuthorizationCodeStore();
+        codes.refreshTokenStore = refreshTokens;
+
+        EmbeddedStoreLog log = new EmbeddedStoreLog();
+        log.embeddedEnabled = true;
+        log.logPath = path.toString();
+        log.initialSizeMb = 64;
+        log.groupCommitWindowMicros = 200;
+        log.compactionMinSizeMb = 16;
+        log.clientStore = clients;
+        log.authRequestStore = authRequests;
+        log.authorizationCodeStore = codes;
+        log.refreshTokenStore = refreshTokens;
+        log.onStart(null);
+        return log;
+    }
+}
@@ -0,0 +1,275 @@
+package com.emp.oauth;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// Writes through the embedded stores, reopens the log in a fresh set of stores and checks what replay restored.
+class EmbeddedStoreLogTest {
+
+    private static final Instant NOW = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replaysEveryFamilyField() {
+        UserClaims claims = new UserClaims("user@example.com", false, NOW.minusSeconds(30));
+        try (Stores stores = open()) {
+            stores.clients.save(new ClientRecord("client", "Client", List.of("https://a/cb", "https://b/cb"),
+                    "none", NOW.minusSeconds(60), NOW));
+            stores.authRequests.save(new AuthRequestRecord("request", "client", "https://a/cb", "openid", null,
+                    "challenge", "S256", "client-state", "user", NOW.plusSeconds(600), claims));
+            stores.codes.save(new AuthorizationCodeRecord("code", "client", "user", "https://a/cb", "openid",
+                    "https://api", "challenge", "S256", NOW.plusSeconds(300), claims));
+            stores.refreshTokens.save(new RefreshTokenRecord("token", "client", "user", null, "https://api",
+                    NOW.plusSeconds(3600)));
+        }
+        try (Stores stores = open()) {
+            ClientRecord client = stores.clients.findById("client").orElseThrow();
+            assertEquals("Client", client.getClientName());
+            assertEquals(List.of("https://a/cb", "https://b/cb"), client.getRedirectUris());
+            assertEquals("none", client.getTokenEndpointAuthMethod());
+            assertEquals(NOW.minusSeconds(60), client.getCreatedAt());
+            assertEquals(NOW, client.getLastUsedAt());
+
+            AuthRequestRecord request = stores.authRequests.find("request").orElseThrow();
+            assertEquals("client", request.getClientId());
+            assertEquals("https://a/cb", request.getRedirectUri());
+            assertEquals("openid", request.getScope());
+            assertNull(request.getResource());
+            assertEquals("challenge", request.getCodeChallenge());
+            assertEquals("S256", request.getCodeChallengeMethod());
+            assertEquals("client-state", request.getOriginalState());
+            assertEquals("user", request.getUserId());
+            assertEquals(NOW.plusSeconds(600), request.getExpiresAt());
+            assertClaims(claims, request.getUserClaims());
+
+            AuthorizationCodeRecord code = stores.codes.find("code").orElseThrow();
+            assertEquals("client", code.getClientId());
+            assertEquals("user", code.getUserId());
+            assertEquals("https://a/cb", code.getRedirectUri());
+            assertEquals("openid", code.getScope());
+            assertEquals("https://api", code.getResource());
+            assertEquals("challenge", code.getCodeChallenge());
+            assertEquals("S256", code.getCodeChallengeMethod());
+            assertEquals(NOW.plusSeconds(300), code.getExpiresAt());
+            assertClaims(claims, code.getUserClaims());
+
+            RefreshTokenRecord token = stores.refreshTokens.find("token").orElseThrow();
+            assertEquals("client", token.getClientId());
+            assertEquals("user", token.getUserId());
+            assertNull(token.getScope());
+            assertEquals("https://api", token.getResource());
+            assertEquals(NOW.plusSeconds(3600), token.getExpiresAt());
+            assertNull(token.getUserClaims());
+        }
+    }
+
+    @Test
+    void replaysDeletesAndUpdatesAfterTheirPuts() {
+        try (Stores stores = open()) {
+            stores.clients.save(new ClientRecord("client", "Client", List.of("https://a/cb"), "none",
+                    NOW.minusSeconds(60), null));
+            stores.clients.updateLastUsedAt(Map.of("client", NOW));
+            stores.authRequests.save(request("kept", null));
+            stores.authRequests.save(request("removed", null));
+            stores.authRequests.remove("removed");
+            stores.authRequests.updateUserId("kept", "user", null);
+            stores.codes.save(code("code"));
+            assertTrue(stores.codes.redeem("code", found -> null, found -> refreshToken("issued")).isRedeemed());
+            Redemption<RefreshTokenRecord> rotation = stores.refreshTokens.rotate("issued", found -> null,
+                    found -> refreshToken("rotated"));
+            assertTrue(rotation.isRedeemed());
+        }
+        try (Stores stores = open()) {
+            assertEquals(NOW, stores.clients.findById("client").orElseThrow().getLastUsedAt());
+            assertEquals("user", stores.authRequests.find("kept").orElseThrow().getUserId());
+            assertTrue(stores.authRequests.find("removed").isEmpty());
+            assertTrue(stores.codes.find("code").isEmpty());
+            assertTrue(stores.refreshTokens.find("issued").isEmpty());
+            assertTrue(stores.refreshTokens.find("rotated").isPresent());
+        }
+    }
+
+    @Test
+    void dropsRecordsPastTheirRetainUntil() {
+        try (Stores stores = open()) {
+            stores.clients.save(new ClientRecord("inactive", "Old", List.of("https://a/cb"), "none",
+                    NOW.minus(30, ChronoUnit.DAYS), NOW.minus(8, ChronoUnit.DAYS)));
+            stores.clients.save(new ClientRecord("active", "New", List.of("https://a/cb"), "none",
+                    NOW.minus(30, ChronoUnit.DAYS), NOW.minus(6, ChronoUnit.DAYS)));
+            stores.authRequests.save(new AuthRequestRecord("expired", "active", "https://a/cb", null, null, "c",
+                    "S256", null, null, NOW.minusSeconds(5)));
+            stores.codes.save(new AuthorizationCodeRecord("expired", "active", "user", "https://a/cb", null, null,
+                    "c", "S256", NOW.minusSeconds(5)));
+            stores.refreshTokens.save(new RefreshTokenRecord("expired", "active", "user", null, null,
+                    NOW.minusSeconds(5)));
+            stores.refreshTokens.save(refreshToken("live"));
+        }
+        try (Stores stores = open()) {
+            assertTrue(stores.clients.findById("inactive").isEmpty());
+            assertTrue(stores.clients.findById("active").isPresent());
+            assertTrue(stores.authRequests.find("expired").isEmpty());
+            assertTrue(stores.codes.find("expired").isEmpty());
+            assertTrue(stores.refreshTokens.find("expired").isEmpty());
+            assertTrue(stores.refreshTokens.find("live").isPresent());
+        }
+    }
+
+    @Test
+    void replaysConsumedCodeMarkersUntilTheCodeExpires() {
+        try (Stores stores = open()) {
+            assertTrue(stores.codes.consume("sealed", NOW.plusSeconds(300), refreshToken("from-sealed")));
+            assertFalse(stores.codes.consume("sealed", NOW.plusSeconds(300), refreshToken("again")));
+            assertTrue(stores.codes.consume("stale", NOW.minusSeconds(5), refreshToken("from-stale")));
+        }
+        try (Stores stores = open()) {
+            assertFalse(stores.codes.consume("sealed", NOW.plusSeconds(300), refreshToken("after-restart")));
+            assertTrue(stores.refreshTokens.find("from-sealed").isPresent());
+            assertTrue(stores.refreshTokens.find("after-restart").isEmpty());
+            // Its marker is past retention: the code itself has expired and is refused before it gets here.
+            assertTrue(stores.codes.consume("stale", NOW.plusSeconds(300), refreshToken("stale-again")));
+        }
+    }
+
+    @Test
+    void compactionKeepsLiveRecordsAndAppendsMadeMeanwhile() throws Exception {
+        try (Stores stores = open()) {
+            for (int i = 0; i < 200; i++) {
+                stores.refreshTokens.save(refreshToken("old-" + i));
+                if (i % 2 == 0) {
+                    String successor = "new-" + i;
+                    stores.refreshTokens.rotate("old-" + i, found -> null, found -> refreshToken(successor));
+                }
+            }
+            stores.refreshTokens.save(new RefreshTokenRecord("expired", "client", "user", null, null,
+                    NOW.minusSeconds(5)));
+            AtomicBoolean done = new AtomicBoolean();
+            Thread writer = new Thread(() -> {
+                for (int i = 0; i < 500; i++) {
+                    stores.refreshTokens.save(refreshToken("during-" + i));
+                }
+                done.set(true);
+            });
+            writer.start();
+            do {
+                stores.log.compact();
+            } while (!done.get());
+            writer.join();
+        }
+        // 200 puts, 100 rotations of a delete and a put each, one expired put and 500 concurrent puts were
+        // appended; the rotated-away tokens, their deletes and the expired token are gone.
+        try (AppendOnlyLog log = new AppendOnlyLog(dir.resolve("store.log"), 1024 * 1024, Duration.ZERO)) {
+            int[] records = new int[1];
+            log.scan(0, log.end(), (body, offset) -> records[0]++);
+            assertTrue(records[0] < 1001, records[0] + " records");
+        }
+        try (Stores stores = open()) {
+            for (int i = 0; i < 200; i++) {
+                assertEquals(i % 2 == 1, stores.refreshTokens.find("old-" + i).isPresent(), "old-" + i);
+                assertEquals(i % 2 == 0, stores.refreshTokens.find("new-" + i).isPresent(), "new-" + i);
+            }
+            assertTrue(stores.refreshTokens.find("expired").isEmpty());
+            for (int i = 0; i < 500; i++) {
+                assertTrue(stores.refreshTokens.find("during-" + i).isPresent(), "during-" + i);
+            }
+        }
+    }
+
+    private Stores open() {
+        return new Stores(dir.resolve("store.log"));
+    }
+
+    private static void assertClaims(UserClaims expected, UserClaims actual) {
+        assertEquals(expected.getEmail(), actual.getEmail());
+        assertEquals(expected.getEmailVerified(), actual.getEmailVerified());
+        assertEquals(expected.getVerifiedAt(), actual.getVerifiedAt());
+    }
+
+    private static AuthRequestRecord request(String id, String userId) {
+        return new AuthRequestRecord(id, "client", "https://a/cb", null, null, "c", "S256", null, userId,
+                NOW.plusSeconds(600));
+    }
+
+    private static AuthorizationCodeRecord code(String code) {
+        return new AuthorizationCodeRecord(code, "client", "user", "https://a/cb", null, null, "c", "S256",
+                NOW.plusSeconds(300));
+    }
+
+    private static RefreshTokenRecord refreshToken(String token) {
+        return new RefreshTokenRecord(token, "client", "user", null, null, NOW.plusSeconds(3600));
+    }
+
+    // The embedded stores and their in-memory indexes, wired as CDI would with the defaults from
+    // application.properties.
+    private static final class Stores implements AutoCloseable {
+
+        final EmbeddedStoreLog log = new EmbeddedStoreLog();
+        final EmbeddedClientStore clients = new EmbeddedClientStore();
+        final EmbeddedAuthRequestStore authRequests = new EmbeddedAuthRequestStore();
+        final EmbeddedAuthorizationCodeStore codes = new EmbeddedAuthorizationCodeStore();
+        final EmbeddedRefreshTokenStore refreshTokens = new EmbeddedRefreshTokenStore();
+
+        Stores(Path path) {
+            SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+            InMemoryClientStore inMemoryClients = new InMemoryClientStore();
+            inMemoryClients.maxEntries = 100_000;
+            inMemoryClients.overflowPolicy = "reject";
+            inMemoryClients.meterRegistry = meterRegistry;
+            inMemoryClients.init();
+            InMemoryAuthRequestStore inMemoryAuthRequests = new InMemoryAuthRequestStore();
+            inMemoryAuthRequests.maxEntries = 100_000;
+            inMemoryAuthRequests.overflowPolicy = "evict-oldest";
+            inMemoryAuthRequests.meterRegistry = meterRegistry;
+            inMemoryAuthRequests.init();
+            InMemoryRefreshTokenStore inMemoryRefreshTokens = new InMemoryRefreshTokenStore();
+            inMemoryRefreshTokens.maxEntries = 1_000_000;
+            inMemoryRefreshTokens.overflowPolicy = "reject";
+            inMemoryRefreshTokens.meterRegistry = meterRegistry;
+            inMemoryRefreshTokens.init();
+            InMemoryAuthorizationCodeStore inMemoryCodes = new InMemoryAuthorizationCodeStore();
+            inMemoryCodes.refreshTokenStore = inMemoryRefreshTokens;
+
+            log.embeddedEnabled = true;
+            log.logPath = path.toString();
+            log.initialSizeMb = 1;
+            log.groupCommitWindowMicros = 0;
+            log.compactionMinSizeMb = 0;
+            log.clientStore = inMemoryClients;
+            log.authRequestStore = inMemoryAuthRequests;
+            log.authorizationCodeStore = inMemoryCodes;
+            log.refreshTokenStore = inMemoryRefreshTokens;
+            log.onStart(null);
+
+            clients.clientsInactiveDays = 7;
+            clients.inMemoryClientStore = inMemoryClients;
+            clients.storeLog = log;
+            authRequests.inMemoryAuthRequestStore = inMemoryAuthRequests;
+            authRequests.storeLog = log;
+            codes.inMemoryAuthorizationCodeStore = inMemoryCodes;
+            codes.storeLog = log;
+            refreshTokens.inMemoryRefreshTokenStore = inMemoryRefreshTokens;
+            refreshTokens.storeLog = log;
+        }
+
+        @Override
+        public void close() {
+            log.onStop(null);
+        }
+    }
+}
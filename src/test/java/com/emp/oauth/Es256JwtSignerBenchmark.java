@@ -0,0 +1,136 @@
+package com.emp.oauth;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.interfaces.ECPrivateKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+// Access tokens per second and bytes allocated per token for Es256JwtSigner against the JwtService code it
+// replaced: LinkedHashMap claims serialised by ObjectMapper, a new Signature per token and a BouncyCastle ASN.1
+// parse of the DER signature. Surefire's default includes skip *Benchmark classes; run it with
+// mvn test -Dtest=Es256JwtSignerBenchmark
+class Es256JwtSignerBenchmark {
+
+    private static final int TOKENS = 20_000;
+    private static final String ISSUER = "https://auth.example.com";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Es256JwtSigner signer = new Es256JwtSigner();
+
+    @Test
+    void tokensPerSecondAndBytesPerToken() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        ECPrivateKey key = (ECPrivateKey) generator.generateKeyPair().getPrivate();
+
+        // Both paths must produce the same header and claims.
+        assertEquals(claimsSegment(previous(key, 1)), claimsSegment(current(key, 1)));
+
+        long[] before = null;
+        long[] after = null;
+        // First round warms up the JIT.
+        for (int round = 0; round < 2; round++) {
+            before = measure(i -> previous(key, i));
+            after = measure(i -> current(key, i));
+        }
+        report("ObjectMapper + BouncyCastle", before);
+        report("Es256JwtSigner", after);
+        assertTrue(after[1] < before[1], "allocates " + after[1] + " vs " + before[1] + " bytes/token");
+    }
+
+    private String current(ECPrivateKey key, int i) throws Exception {
+        long now = 1_800_000_000L + i;
+        return signer.sign("es256-1", key, signer.claims()
+                .put("iss", ISSUER)
+                .put("sub", "user-" + i)
+                .put("aud", "https://api.example.com")
+                .put("iat", now)
+                .put("exp", now + 3600)
+                .put("scope", "openid email")
+                .put("client_id", "client")
+                .put("email", "user@example.com"));
+    }
+
+    private String previous(ECPrivateKey key, int i) throws Exception {
+        long now = 1_800_000_000L + i;
+        Map<String, Object> header = new LinkedHashMap<>();
+        header.put("alg", "ES256");
+        header.put("typ", "JWT");
+        header.put("kid", "es256-1");
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("iss", ISSUER);
+        payload.put("sub", "user-" + i);
+        payload.put("aud", "https://api.example.com");
+        payload.put("iat", now);
+        payload.put("exp", now + 3600);
+        payload.put("scope", "openid email");
+        payload.put("client_id", "client");
+        payload.put("email", "user@example.com");
+
+        String signingInput = base64Url(objectMapper.writeValueAsBytes(header)) + "."
+                + base64Url(objectMapper.writeValueAsBytes(payload));
+        Signature signature = Signature.getInstance("SHA256withECDSA");
+        signature.initSign(key);
+        signature.update(signingInput.getBytes(StandardCharsets.US_ASCII));
+        ASN1Sequence sequence = (ASN1Sequence) ASN1Primitive.fromByteArray(signature.sign());
+        byte[] jose = new byte[64];
+        copyFixed(((ASN1Integer) sequence.getObjectAt(0)).getValue(), jose, 0);
+        copyFixed(((ASN1Integer) sequence.getObjectAt(1)).getValue(), jose, 32);
+        return signingInput + "." + base64Url(jose);
+    }
+
+    // {nanos, bytes} per token on this thread.
+    private static long[] measure(Issuer issuer) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().threadId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long started = System.nanoTime();
+        int length = 0;
+        for (int i = 0; i < TOKENS; i++) {
+            length += issuer.issue(i).length();
+        }
+        long elapsed = System.nanoTime() - started;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        assertTrue(length > 0);
+        return new long[] {elapsed / TOKENS, allocated / TOKENS};
+    }
+
+    private static void report(String name, long[] result) {
+        System.out.printf("%-28s %,8.0f tokens/s %,7d B/token%n", name, 1e9 / result[0], result[1]);
+    }
+
+    private static String claimsSegment(String jwt) {
+        return jwt.substring(0, jwt.lastIndexOf('.'));
+    }
+
+    private static void copyFixed(BigInteger value, byte[] out, int offset) {
+        byte[] raw = value.toByteArray();
+        int copy = Math.min(raw.length, 32);
+        System.arraycopy(raw, raw.length - copy, out, offset + 32 - copy, copy);
+    }
+
+    private static String base64Url(byte[] input) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(input);
+    }
+
+    @FunctionalInterface
+    private interface Issuer {
+        String issue(int i) throws Exception;
+    }
+}
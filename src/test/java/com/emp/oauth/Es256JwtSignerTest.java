@@ -0,0 +1,159 @@
+package com.emp.oauth;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.interfaces.ECPrivateKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+class Es256JwtSignerTest {
+
+    @Test
+    void derToJoseLeftPadsShortIntegersAndDropsSignPadding() {
+        byte[] r = filled(31, 0x11);
+        byte[] s = filled(32, 0x80);
+
+        byte[] jose = new byte[64];
+        byte[] der = der(r, s);
+        Es256JwtSigner.derToJose(der, der.length, jose);
+
+        byte[] expected = new byte[64];
+        System.arraycopy(r, 0, expected, 1, 31);
+        System.arraycopy(s, 0, expected, 32, 32);
+        assertArrayEquals(expected, jose);
+    }
+
+    @Test
+    void derToJoseHandlesTinyIntegersAndLongFormLengths() {
+        byte[] jose = new byte[64];
+        Arrays.fill(jose, (byte) 0x7f);
+        byte[] der = der(new byte[] {5}, filled(32, 0x01));
+        Es256JwtSigner.derToJose(der, der.length, jose);
+        assertEquals(5, jose[31]);
+        assertArrayEquals(new byte[31], Arrays.copyOfRange(jose, 0, 31));
+        assertArrayEquals(filled(32, 0x01), Arrays.copyOfRange(jose, 32, 64));
+
+        byte[] shortForm = der(filled(32, 0xff), filled(32, 0xfe));
+        byte[] longForm = new byte[shortForm.length + 1];
+        longForm[0] = 0x30;
+        longForm[1] = (byte) 0x81;
+        System.arraycopy(shortForm, 1, longForm, 2, shortForm.length - 1);
+        byte[] fromLong = new byte[64];
+        Es256JwtSigner.derToJose(longForm, longForm.length, fromLong);
+        byte[] fromShort = new byte[64];
+        Es256JwtSigner.derToJose(shortForm, shortForm.length, fromShort);
+        assertArrayEquals(fromShort, fromLong);
+    }
+
+    @Test
+    void derToJoseRejectsMalformedSignatures() {
+        byte[] valid = der(filled(32, 0x11), filled(32, 0x22));
+        byte[] jose = new byte[64];
+
+        byte[] notSequence = valid.clone();
+        notSequence[0] = 0x31;
+        assertThrows(IllegalStateException.class,
+                () -> Es256JwtSigner.derToJose(notSequence, notSequence.length, jose));
+        byte[] notInteger = valid.clone();
+        notInteger[2] = 0x04;
+        assertThrows(IllegalStateException.class, () -> Es256JwtSigner.derToJose(notInteger, notInteger.length, jose));
+        assertThrows(IllegalStateException.class, () -> Es256JwtSigner.derToJose(valid, valid.length - 1, jose));
+        byte[] oversized = der(filled(33, 0x11), filled(32, 0x22));
+        assertThrows(IllegalStateException.class, () -> Es256JwtSigner.derToJose(oversized, oversized.length, jose));
+    }
+
+    @Test
+    void producesJwtsThatVerifyInP1363Format() throws GeneralSecurityException {
+        KeyPair keys = keyPair();
+        Es256JwtSigner signer = new Es256JwtSigner();
+        Signature verifier = Signature.getInstance("SHA256withECDSAinP1363Format");
+
+        // Enough signatures that some r or s values are shorter than 32 bytes.
+        for (int i = 0; i < 500; i++) {
+            String jwt = signer.sign("k1", (ECPrivateKey) keys.getPrivate(),
+                    signer.claims().put("sub", "user-" + i).put("iat", i));
+            String[] parts = jwt.split("\\.");
+            assertEquals(3, parts.length);
+            assertEquals("{\"alg\":\"ES256\",\"typ\":\"JWT\",\"kid\":\"k1\"}", decode(parts[0]));
+            assertEquals("{\"sub\":\"user-" + i + "\",\"iat\":" + i + "}", decode(parts[1]));
+
+            verifier.initVerify(keys.getPublic());
+            verifier.update((parts[0] + "." + parts[1]).getBytes(StandardCharsets.US_ASCII));
+            assertTrue(verifier.verify(Base64.getUrlDecoder().decode(parts[2])), jwt);
+        }
+    }
+
+    @Test
+    void switchesKeysOnTheSameThread() throws GeneralSecurityException {
+        KeyPair first = keyPair();
+        KeyPair second = keyPair();
+        Es256JwtSigner signer = new Es256JwtSigner();
+
+        for (KeyPair keys : new KeyPair[] {first, second, first}) {
+            String jwt = signer.sign(null, (ECPrivateKey) keys.getPrivate(), signer.claims().put("sub", "user"));
+            String[] parts = jwt.split("\\.");
+            assertEquals("{\"alg\":\"ES256\",\"typ\":\"JWT\"}", decode(parts[0]));
+            Signature verifier = Signature.getInstance("SHA256withECDSAinP1363Format");
+            verifier.initVerify(keys.getPublic());
+            verifier.update((parts[0] + "." + parts[1]).getBytes(StandardCharsets.US_ASCII));
+            assertTrue(verifier.verify(Base64.getUrlDecoder().decode(parts[2])));
+        }
+    }
+
+    @Test
+    void refusesClaimsFromAnotherThread() throws Exception {
+        Es256JwtSigner signer = new Es256JwtSigner();
+        JwtClaimsWriter foreign = CompletableFuture.supplyAsync(signer::claims).get();
+        ECPrivateKey key = (ECPrivateKey) keyPair().getPrivate();
+
+        assertThrows(IllegalArgumentException.class, () -> signer.sign("k1", key, foreign.put("sub", "user")));
+    }
+
+    private static KeyPair keyPair() throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        return generator.generateKeyPair();
+    }
+
+    private static String decode(String segment) {
+        return new String(Base64.getUrlDecoder().decode(segment), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] filled(int length, int value) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) value);
+        return bytes;
+    }
+
+    // SEQUENCE { INTEGER r, INTEGER s } with a 0x00 in front of any magnitude whose top bit is set.
+    private static byte[] der(byte[] r, byte[] s) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (byte[] magnitude : new byte[][] {r, s}) {
+            boolean pad = (magnitude[0] & 0x80) != 0;
+            body.write(0x02);
+            body.write(magnitude.length + (pad ? 1 : 0));
+            if (pad) {
+                body.write(0);
+            }
+            body.writeBytes(magnitude);
+        }
+        ByteArrayOutputStream der = new ByteArrayOutputStream();
+        der.write(0x30);
+        der.write(body.size());
+        der.writeBytes(body.toByteArray());
+        return der.toByteArray();
+    }
+}
@@ -0,0 +1,110 @@
+package com.emp.oauth;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+class ExpiryIndexTest {
+
+    private static final Instant NOW = Instant.ofEpochSecond(1_800_000_000L);
+
+    @Test
+    void drainHandsOutOnlyKeysFromElapsedBuckets() {
+        ExpiryIndex<String> index = new ExpiryIndex<>();
+        index.add("early", NOW.minusSeconds(10));
+        index.add("late", NOW.plusSeconds(10));
+        index.add("sameSecond", NOW.plusMillis(500));
+
+        assertEquals(List.of("early"), drain(index, NOW.plusMillis(999)));
+        assertEquals(List.of(), drain(index, NOW.plusMillis(999)));
+        assertEquals(List.of("sameSecond"), drain(index, NOW.plusSeconds(1)));
+        assertTrue(index.hasDue(NOW.plusSeconds(11)));
+        assertFalse(index.hasDue(NOW.plusSeconds(10)));
+    }
+
+    @Test
+    void removedKeysAreNotHandedOut() {
+        ExpiryIndex<String> index = new ExpiryIndex<>();
+        index.add("kept", NOW);
+        index.add("removed", NOW);
+        index.remove("removed", NOW);
+        // Removing under the wrong instant leaves the filing alone.
+        index.remove("kept", NOW.plusSeconds(60));
+
+        assertEquals(List.of("kept"), drain(index, NOW.plusSeconds(1)));
+        assertFalse(index.hasDue(NOW.plusSeconds(1)));
+    }
+
+    @Test
+    void staleFilingsAreHandedOutForTheStoreToSkip() {
+        ExpiryIndex<String> index = new ExpiryIndex<>();
+        // A store that re-files a key without removing the old entry leaves it filed twice.
+        index.add("refiled", NOW);
+        index.add("refiled", NOW.plusSeconds(30));
+
+        List<String> handed = new ArrayList<>();
+        index.drain(NOW.plusSeconds(1), key -> handed.add(key));
+        assertEquals(List.of("refiled"), handed);
+        // The newer filing is still there for its own due time.
+        assertEquals(List.of("refiled"), drain(index, NOW.plusSeconds(31)));
+    }
+
+    @Test
+    void stopsWhenTheEvictorDeclinesAndResumesThereNextTime() {
+        ExpiryIndex<String> index = new ExpiryIndex<>();
+        for (int i = 0; i < 5; i++) {
+            index.add("k" + i, NOW.plusSeconds(i));
+        }
+        int[] budget = {2};
+        List<String> evicted = new ArrayList<>();
+        index.drain(NOW.plusSeconds(10), key -> {
+            if (budget[0] == 0) {
+                return false;
+            }
+            budget[0]--;
+            return evicted.add(key);
+        });
+
+        assertEquals(List.of("k0", "k1"), evicted);
+        assertEquals(List.of("k2", "k3", "k4"), drain(index, NOW.plusSeconds(10)));
+    }
+
+    @Test
+    void drainEarliestIgnoresTimeAndGoesOldestFirst() {
+        ExpiryIndex<String> index = new ExpiryIndex<>();
+        index.add("far", NOW.plusSeconds(3600));
+        index.add("near", NOW.plusSeconds(60));
+        index.add("past", NOW.minusSeconds(60));
+
+        List<String> evicted = new ArrayList<>();
+        index.drainEarliest(key -> evicted.size() < 2 && evicted.add(key));
+        assertEquals(List.of("past", "near"), evicted);
+        assertTrue(index.hasDue(NOW.plusSeconds(3601)));
+        assertFalse(index.hasDue(NOW.plusSeconds(3600)));
+    }
+
+    @Test
+    void coarserResolutionGroupsKeysIntoOneBucket() {
+        ExpiryIndex<String> index = new ExpiryIndex<>(Duration.ofMinutes(1));
+        Instant minute = Instant.ofEpochSecond(1_800_000_040L - 1_800_000_040L % 60);
+        index.add("a", minute.plusSeconds(5));
+        index.add("b", minute.plusSeconds(55));
+
+        assertFalse(index.hasDue(minute.plusSeconds(59)));
+        assertEquals(Set.of("a", "b"), Set.copyOf(drain(index, minute.plusSeconds(60))));
+    }
+
+    private static List<String> drain(ExpiryIndex<String> index, Instant until) {
+        List<String> keys = new ArrayList<>();
+        index.drain(until, keys::add);
+        return keys;
+    }
+}
@@ -0,0 +1,208 @@
+package com.emp.oauth;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class GoogleIdTokenVerifierTest {
+
+    private static final String CLIENT_ID = "client.apps.googleusercontent.com";
+    private static final KeyPair KEYS = rsaKeyPair();
+    private static final KeyPair OTHER_KEYS = rsaKeyPair();
+
+    private final AtomicInteger keyLookups = new AtomicInteger();
+    private GoogleIdTokenVerifier verifier;
+
+    @BeforeEach
+    void setUp() {
+        GoogleJwksCache jwks = new GoogleJwksCache() {
+            @Override
+            public CompletableFuture<Optional<RSAPublicKey>> getKeyAsync(String keyId) {
+                keyLookups.incrementAndGet();
+                return CompletableFuture.completedFuture(
+                        "k1".equals(keyId) ? Optional.of((RSAPublicKey) KEYS.getPublic()) : Optional.empty());
+            }
+        };
+        verifier = new GoogleIdTokenVerifier();
+        verifier.clientId = CLIENT_ID;
+        verifier.verifiedCacheSize = 100;
+        verifier.verifiedCacheTtlSeconds = 600;
+        verifier.objectMapper = new ObjectMapper();
+        verifier.jwksCache = jwks;
+        verifier.meterRegistry = new SimpleMeterRegistry();
+        verifier.init();
+    }
+
+    @Test
+    void acceptsAValidToken() {
+        GoogleIdToken token = verify(sign("{\"iss\":\"https://accounts.google.com\",\"aud\":\"" + CLIENT_ID
+                + "\",\"sub\":\"123\",\"email\":\"u@example.com\",\"email_verified\":true,\"iat\":" + now()
+                + ",\"exp\":" + (now() + 3600) + ",\"extra\":{\"nested\":[1,2,{\"a\":null}]}}"));
+
+        assertEquals("123", token.getSubject());
+        assertEquals("u@example.com", token.getEmail());
+        assertEquals(Boolean.TRUE, token.getEmailVerified());
+    }
+
+    @Test
+    void readsEmailVerifiedAsStringOrBoolean() {
+        assertEquals(Boolean.TRUE, verify(sign(claims("\"email_verified\":\"true\""))).getEmailVerified());
+        assertEquals(Boolean.FALSE, verify(sign(claims("\"email_verified\":\"false\""))).getEmailVerified());
+        assertEquals(Boolean.FALSE, verify(sign(claims("\"email_verified\":false"))).getEmailVerified());
+        assertNull(verify(sign(claims("\"email_verified\":null"))).getEmailVerified());
+    }
+
+    @Test
+    void rejectsAnotherAudience() {
+        assertRejected(sign(audience("\"aud\":\"someone-else\",")));
+        assertRejected(sign(audience("\"aud\":\"" + CLIENT_ID.toUpperCase() + "\",")));
+        // Arrays are refused even when they include us, as the exact match before did.
+        assertRejected(sign(audience("\"aud\":[\"" + CLIENT_ID + "\",\"other\"],")));
+        assertRejected(sign(audience("\"aud\":[\"" + CLIENT_ID + "\"],")));
+        assertRejected(sign(audience("\"aud\":null,")));
+        assertRejected(sign(audience("")));
+    }
+
+    @Test
+    void rejectsAMissingSubjectOrForeignIssuer() {
+        assertRejected(sign(claims("").replace("\"sub\":\"123\",", "")));
+        assertRejected(sign(claims("\"sub\":{\"id\":\"123\"}").replace("\"sub\":\"123\",", "")));
+        assertRejected(sign(claims("").replace("https://accounts.google.com", "https://evil.example.com")));
+    }
+
+    @Test
+    void rejectsExpiredTokensAndTokensIssuedInTheFuture() {
+        assertRejected(sign(times(now() - 7200, now() - 301)));
+        assertRejected(sign(times(now() + 301, now() + 3600)));
+        // Within the clock skew either way.
+        verify(sign(times(now() - 7200, now() - 299)));
+        verify(sign(times(now() + 299, now() + 3600)));
+    }
+
+    @Test
+    void rejectsTamperedTokens() {
+        String token = sign(claims(""));
+        String[] parts = token.split("\\.");
+
+        String otherClaims = Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(claims("").replace("\"sub\":\"123\"", "\"sub\":\"456\"")
+                        .getBytes(StandardCharsets.UTF_8));
+        assertRejected(parts[0] + "." + otherClaims + "." + parts[2]);
+        byte[] signature = Base64.getUrlDecoder().decode(parts[2]);
+        signature[10] ^= 1;
+        assertRejected(parts[0] + "." + parts[1] + "." + Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(signature));
+        assertRejected(sign(claims(""), OTHER_KEYS.getPrivate(), "k1", "RS256"));
+        assertRejected(sign(claims(""), KEYS.getPrivate(), "unknown", "RS256"));
+        assertRejected(sign(claims(""), KEYS.getPrivate(), "k1", "none"));
+        assertRejected(token + ".extra");
+        assertRejected(parts[0] + "." + parts[1]);
+        assertRejected("!!!." + parts[1] + "." + parts[2]);
+    }
+
+    @Test
+    void reusesVerifiersAcrossTokensAndKeys() {
+        for (int i = 0; i < 20; i++) {
+            assertEquals("user-" + i, verify(sign(claims("").replace("\"123\"", "\"user-" + i + "\""))).getSubject());
+            assertRejected(sign(claims("").replace("\"123\"", "\"bad-" + i + "\""), OTHER_KEYS.getPrivate(), "k1",
+                    "RS256"));
+        }
+    }
+
+    @Test
+    void cacheHitSkipsTheKeyLookupButStillChecksExpiry() throws InterruptedException {
+        // Expires, skew included, about two seconds from now.
+        long exp = now() - 300 + 2;
+        String token = sign(times(now() - 60, exp));
+        verify(token);
+        verify(token);
+        assertEquals(1, keyLookups.get());
+
+        while (now() <= exp + 300) {
+            Thread.sleep(100);
+        }
+        assertRejected(token);
+        assertEquals(1, keyLookups.get());
+    }
+
+    private GoogleIdToken verify(String token) {
+        return verifier.verifyAsync(token).join();
+    }
+
+    private void assertRejected(String token) {
+        try {
+            verifier.verifyAsync(token).join();
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException, e.getCause().toString());
+            return;
+        }
+        throw new AssertionError("accepted " + token);
+    }
+
+    private static String claims(String extra) {
+        return "{\"iss\":\"https://accounts.google.com\",\"aud\":\"" + CLIENT_ID + "\",\"sub\":\"123\","
+                + (extra.isEmpty() ? "" : extra + ",") + "\"iat\":" + now() + ",\"exp\":" + (now() + 3600) + "}";
+    }
+
+    private static String audience(String aud) {
+        return claims("").replace("\"aud\":\"" + CLIENT_ID + "\",", aud);
+    }
+
+    private static String times(long iat, long exp) {
+        return "{\"iss\":\"accounts.google.com\",\"aud\":\"" + CLIENT_ID + "\",\"sub\":\"123\",\"iat\":" + iat
+                + ",\"exp\":" + exp + "}";
+    }
+
+    private static String sign(String claims) {
+        return sign(claims, KEYS.getPrivate(), "k1", "RS256");
+    }
+
+    private static String sign(String claims, PrivateKey key, String kid, String alg) {
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        String header = "{\"alg\":\"" + alg + "\",\"kid\":\"" + kid + "\",\"typ\":\"JWT\"}";
+        String input = encoder.encodeToString(header.getBytes(StandardCharsets.UTF_8)) + "."
+                + encoder.encodeToString(claims.getBytes(StandardCharsets.UTF_8));
+        try {
+            Signature signature = Signature.getInstance("SHA256withRSA");
+            signature.initSign(key);
+            signature.update(input.getBytes(StandardCharsets.US_ASCII));
+            return input + "." + encoder.encodeToString(signature.sign());
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long now() {
+        return Instant.now().getEpochSecond();
+    }
+
+    private static KeyPair rsaKeyPair() {
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            return generator.generateKeyPair();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
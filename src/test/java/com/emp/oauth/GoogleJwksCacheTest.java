@@ -0,0 +1,213 @@
+package com.emp.oauth;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayDeque;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLSession;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class GoogleJwksCacheTest {
+
+    private static final RSAPublicKey KEY = rsaPublicKey();
+
+    private final AtomicInteger fetches = new AtomicInteger();
+    private final Deque<CompletableFuture<HttpResponse<String>>> responses = new ArrayDeque<>();
+    private SimpleMeterRegistry meterRegistry;
+    private GoogleJwksCache cache;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        cache = new GoogleJwksCache();
+        cache.jwksUri = "https://www.googleapis.com/oauth2/v3/certs";
+        cache.refreshAheadSeconds = 300;
+        cache.unknownKidRefreshSeconds = 30;
+        cache.objectMapper = new ObjectMapper();
+        cache.meterRegistry = meterRegistry;
+        cache.httpClient = new OutboundHttpClient() {
+            @Override
+            public HttpRequest.Builder newRequest(URI uri) {
+                return HttpRequest.newBuilder(uri);
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request,
+                    HttpResponse.BodyHandler<T> handler) {
+                fetches.incrementAndGet();
+                synchronized (responses) {
+                    CompletableFuture<HttpResponse<String>> next = responses.poll();
+                    return (CompletableFuture<HttpResponse<T>>) (Object) (next != null ? next
+                            : CompletableFuture.failedFuture(new IOException("no response queued")));
+                }
+            }
+        };
+        cache.init();
+    }
+
+    @Test
+    void concurrentLookupsShareOneFetch() throws Exception {
+        CompletableFuture<HttpResponse<String>> pending = new CompletableFuture<>();
+        respond(pending);
+
+        CompletableFuture<Optional<RSAPublicKey>> first = cache.getKeyAsync("k1");
+        CompletableFuture<Optional<RSAPublicKey>> second = cache.getKeyAsync("k1");
+        assertFalse(first.isDone());
+        pending.complete(response("max-age=3600", "k1"));
+
+        assertEquals(KEY, first.get(5, TimeUnit.SECONDS).orElseThrow());
+        assertEquals(KEY, second.get(5, TimeUnit.SECONDS).orElseThrow());
+        assertEquals(1, fetches.get());
+    }
+
+    @Test
+    void zeroMaxAgeStillKeepsTheKeysForAWhile() throws Exception {
+        respond(response("public, max-age=0", "k1"));
+        assertEquals(KEY, lookup("k1").orElseThrow());
+        assertEquals(KEY, lookup("k1").orElseThrow());
+        assertEquals(1, fetches.get());
+    }
+
+    @Test
+    void ageBeyondMaxAgeStillKeepsTheKeysForAWhile() throws Exception {
+        respond(response(Map.of("Cache-Control", List.of("max-age=600"), "Age", List.of("900")), "k1"));
+        assertEquals(KEY, lookup("k1").orElseThrow());
+        assertEquals(KEY, lookup("k1").orElseThrow());
+        assertEquals(1, fetches.get());
+    }
+
+    @Test
+    void oversizedMaxAgeDoesNotFailTheFetch() throws Exception {
+        respond(response("max-age=99999999999999999999", "k1"));
+
+        assertEquals(KEY, lookup("k1").orElseThrow());
+        assertEquals(1.0, meterRegistry.counter("emp.oauth.google.jwks.refreshes", "result", "success").count());
+    }
+
+    @Test
+    void unknownKidForcesOneRefreshPerInterval() throws Exception {
+        respond(response("max-age=3600", "k1"));
+        respond(response("max-age=3600", "k1", "k2"));
+        assertEquals(KEY, lookup("k1").orElseThrow());
+
+        // Rotated key: refetched once.
+        assertEquals(KEY, lookup("k2").orElseThrow());
+        assertEquals(2, fetches.get());
+
+        // Another unknown kid inside the interval is refused without a fetch.
+        assertTrue(lookup("k3").isEmpty());
+        assertEquals(2, fetches.get());
+    }
+
+    @Test
+    void expiredKeysAreServedWhenTheRefreshFails() throws Exception {
+        cache.unknownKidRefreshSeconds = 1;
+        respond(response("max-age=0", "k1"));
+        assertEquals(KEY, lookup("k1").orElseThrow());
+
+        Thread.sleep(1100);
+        respond(CompletableFuture.failedFuture(new IOException("certs endpoint down")));
+
+        assertEquals(KEY, lookup("k1").orElseThrow());
+        assertEquals(2, fetches.get());
+        assertEquals(1.0, meterRegistry.counter("emp.oauth.google.jwks.stale").count());
+    }
+
+    private Optional<RSAPublicKey> lookup(String keyId) throws Exception {
+        return cache.getKeyAsync(keyId).get(5, TimeUnit.SECONDS);
+    }
+
+    private void respond(HttpResponse<String> response) {
+        respond(CompletableFuture.completedFuture(response));
+    }
+
+    private void respond(CompletableFuture<HttpResponse<String>> response) {
+        synchronized (responses) {
+            responses.add(response);
+        }
+    }
+
+    private static HttpResponse<String> response(String cacheControl, String... kids) {
+        return response(Map.of("Cache-Control", List.of(cacheControl)), kids);
+    }
+
+    private static HttpResponse<String> response(Map<String, List<String>> headers, String... kids) {
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        String n = encoder.encodeToString(KEY.getModulus().toByteArray());
+        String e = encoder.encodeToString(KEY.getPublicExponent().toByteArray());
+        StringBuilder body = new StringBuilder("{\"keys\":[");
+        for (int i = 0; i < kids.length; i++) {
+            body.append(i == 0 ? "" : ",").append("{\"kty\":\"RSA\",\"alg\":\"RS256\",\"kid\":\"").append(kids[i])
+                    .append("\",\"n\":\"").append(n).append("\",\"e\":\"").append(e).append("\"}");
+        }
+        return new Response(body.append("]}").toString(), HttpHeaders.of(headers, (name, value) -> true));
+    }
+
+    private static RSAPublicKey rsaPublicKey() {
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            return (RSAPublicKey) generator.generateKeyPair().getPublic();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private record Response(String body, HttpHeaders headers) implements HttpResponse<String> {
+
+        @Override
+        public int statusCode() {
+            return 200;
+        }
+
+        @Override
+        public HttpRequest request() {
+            return null;
+        }
+
+        @Override
+        public Optional<HttpResponse<String>> previousResponse() {
+            return Optional.empty();
+        }
+
+        @Override
+        public Optional<SSLSession> sslSession() {
+            return Optional.empty();
+        }
+
+        @Override
+        public URI uri() {
+            return null;
+        }
+
+        @Override
+        public HttpClient.Version version() {
+            return HttpClient.Version.HTTP_2;
+        }
+    }
+}
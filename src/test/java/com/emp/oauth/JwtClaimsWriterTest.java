@@ -0,0 +1,54 @@
+package com.emp.oauth;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+class JwtClaimsWriterTest {
+
+    @Test
+    void writesEachValueType() {
+        assertEquals("{\"sub\":\"user\",\"exp\":-5,\"email_verified\":true,\"email\":null}",
+                json(new JwtClaimsWriter().reset()
+                        .put("sub", "user")
+                        .put("exp", -5L)
+                        .put("email_verified", true)
+                        .put("email", (String) null)));
+        assertEquals("{}", json(new JwtClaimsWriter().reset()));
+    }
+
+    @Test
+    void escapesQuotesBackslashesAndControlCharacters() {
+        assertEquals("{\"a\\\"b\":\"c\\\\d\\n\\r\\t\\b\\f\\u0000\\u001f\\u0001\"}",
+                json(new JwtClaimsWriter().reset().put("a\"b", "c\\d\n\r\t\b\f\u0000\u001f\u0001")));
+        // Only what JSON requires is escaped; '/' and DEL pass through.
+        assertEquals("{\"k\":\"a/b\u007f\"}", json(new JwtClaimsWriter().reset().put("k", "a/b\u007f")));
+    }
+
+    @Test
+    void encodesNonAsciiAsUtf8() {
+        String value = "é€😀ß";
+        assertEquals("{\"k\":\"" + value + "\"}", json(new JwtClaimsWriter().reset().put("k", value)));
+    }
+
+    @Test
+    void replacesUnpairedSurrogates() {
+        assertEquals("{\"k\":\"a?b?\"}", json(new JwtClaimsWriter().reset().put("k", "a\uD83Db\uDE00")));
+    }
+
+    @Test
+    void growsForLongValuesAndIsReusableAfterReset() {
+        String email = "x".repeat(5000) + "@example.com";
+        JwtClaimsWriter writer = new JwtClaimsWriter().reset().put("email", email);
+        assertEquals("{\"email\":\"" + email + "\"}", json(writer));
+
+        assertEquals("{\"iat\":1}", json(writer.reset().put("iat", 1L)));
+    }
+
+    private static String json(JwtClaimsWriter writer) {
+        writer.close();
+        return new String(writer.buffer(), 0, writer.length(), StandardCharsets.UTF_8);
+    }
+}
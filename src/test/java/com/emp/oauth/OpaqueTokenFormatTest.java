@@ -0,0 +1,147 @@
+package com.emp.oauth;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Base64;
+import java.util.Optional;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.emp.oauth.OpaqueTokenFormat.Kind;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class OpaqueTokenFormatTest {
+
+    private static final String SECRET = Base64.getEncoder().encodeToString(new byte[32]);
+    private static final String LEGACY_REFRESH_TOKEN = "A".repeat(64);
+    private static final String LEGACY_CODE = "B".repeat(43);
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void admitsWhatItFormats() {
+        OpaqueTokenFormat format = format(Optional.of(SECRET), false);
+        for (Kind kind : Kind.values()) {
+            String token = format.format(kind, new byte[OpaqueTokenFormat.RANDOM_BYTES]);
+            assertEquals(OpaqueTokenFormat.TOKEN_LENGTH, token.length());
+            assertTrue(token.startsWith(kind.prefix()));
+            assertTrue(format.admits(kind, token));
+        }
+        assertNotEquals(format.format(Kind.REFRESH_TOKEN, random(1)), format.format(Kind.REFRESH_TOKEN, random(2)));
+    }
+
+    @Test
+    void rejectsForgedTokensEvenWhileLegacyIsAccepted() {
+        OpaqueTokenFormat format = format(Optional.of(SECRET), false);
+        String token = format.format(Kind.REFRESH_TOKEN, random(7));
+        char last = token.charAt(token.length() - 1);
+        String tampered = token.substring(0, token.length() - 1) + (last == 'A' ? 'B' : 'A');
+
+        assertFalse(format.admits(Kind.REFRESH_TOKEN, tampered));
+        assertEquals(1.0, rejected(Kind.REFRESH_TOKEN, "forged"));
+        // Same random part, different secret: the MAC does not match.
+        OpaqueTokenFormat other = format(Optional.of(Base64.getEncoder().encodeToString(random(32))), false);
+        assertFalse(format.admits(Kind.REFRESH_TOKEN, other.format(Kind.REFRESH_TOKEN, random(7))));
+        assertEquals(2.0, rejected(Kind.REFRESH_TOKEN, "forged"));
+    }
+
+    @Test
+    void rejectsTokensOfAnotherKindAndGarbage() {
+        OpaqueTokenFormat format = format(Optional.of(SECRET), false);
+        String code = format.format(Kind.AUTHORIZATION_CODE, random(3));
+
+        assertFalse(format.admits(Kind.REFRESH_TOKEN, code));
+        assertFalse(format.admits(Kind.REFRESH_TOKEN, "rt." + "!".repeat(64)));
+        assertFalse(format.admits(Kind.REFRESH_TOKEN, "rt.short"));
+        assertFalse(format.admits(Kind.REFRESH_TOKEN, ""));
+        assertEquals(4.0, rejected(Kind.REFRESH_TOKEN, "malformed"));
+        // The prefix alone does not help: the MAC covers the kind.
+        assertFalse(format.admits(Kind.REFRESH_TOKEN, "rt." + code.substring(3)));
+        assertEquals(1.0, rejected(Kind.REFRESH_TOKEN, "forged"));
+    }
+
+    @Test
+    void rejectsTokensPastTheirLifetime() {
+        OpaqueTokenFormat format = format(Optional.of(SECRET), false);
+        String code = format.format(Kind.AUTHORIZATION_CODE, random(4));
+        format.authCodeTtlSeconds = -61;
+
+        assertFalse(format.admits(Kind.AUTHORIZATION_CODE, code));
+        assertEquals(1.0, rejected(Kind.AUTHORIZATION_CODE, "expired"));
+    }
+
+    @Test
+    void acceptsLegacyRefreshTokensUntilTheirLifetimeHasPassed() {
+        OpaqueTokenFormat format = format(Optional.of(SECRET), false);
+        assertTrue(format.admits(Kind.REFRESH_TOKEN, LEGACY_REFRESH_TOKEN));
+        assertFalse(format.admits(Kind.REFRESH_TOKEN, "*".repeat(64)));
+        assertEquals(1.0, rejected(Kind.REFRESH_TOKEN, "malformed"));
+
+        OpaqueTokenFormat expired = newFormat(Optional.of(SECRET), false);
+        expired.legacyIssuedBefore = Optional.of("2020-01-01T00:00:00Z");
+        expired.init();
+        assertFalse(expired.admits(Kind.REFRESH_TOKEN, LEGACY_REFRESH_TOKEN));
+        assertEquals(1.0, rejected(Kind.REFRESH_TOKEN, "legacy"));
+    }
+
+    @Test
+    void refusesLegacyCodesByDefault() {
+        OpaqueTokenFormat format = format(Optional.of(SECRET), false);
+        assertFalse(format.admits(Kind.AUTHORIZATION_CODE, LEGACY_CODE));
+        assertEquals(1.0, rejected(Kind.AUTHORIZATION_CODE, "legacy"));
+
+        OpaqueTokenFormat accepting = newFormat(Optional.of(SECRET), false);
+        accepting.acceptLegacyCodes = true;
+        accepting.init();
+        assertTrue(accepting.admits(Kind.AUTHORIZATION_CODE, LEGACY_CODE));
+    }
+
+    @Test
+    void checksOnlyTheShapeWhenAPersistentStoreHasNoConfiguredSecret() {
+        OpaqueTokenFormat issuing = format(Optional.of(SECRET), false);
+        OpaqueTokenFormat checking = format(Optional.empty(), true);
+        String token = issuing.format(Kind.REFRESH_TOKEN, random(5));
+
+        assertTrue(checking.admits(Kind.REFRESH_TOKEN, token));
+        assertFalse(checking.admits(Kind.REFRESH_TOKEN, "rt.short"));
+    }
+
+    private OpaqueTokenFormat format(Optional<String> secret, boolean firestore) {
+        OpaqueTokenFormat format = newFormat(secret, firestore);
+        format.init();
+        return format;
+    }
+
+    private OpaqueTokenFormat newFormat(Optional<String> secret, boolean firestore) {
+        SealingKeyService sealingKeyService = new SealingKeyService();
+        sealingKeyService.configuredSecret = secret;
+        sealingKeyService.rotationHours = 24;
+        sealingKeyService.init();
+        OpaqueTokenFormat format = new OpaqueTokenFormat();
+        format.acceptLegacyRefreshTokens = true;
+        format.legacyIssuedBefore = Optional.empty();
+        format.refreshTokenTtlSeconds = 2592000;
+        format.authCodeTtlSeconds = 300;
+        format.firestoreEnabled = firestore;
+        format.sealingKeyService = sealingKeyService;
+        format.meterRegistry = meterRegistry;
+        return format;
+    }
+
+    private double rejected(Kind kind, String reason) {
+        String tag = kind == Kind.REFRESH_TOKEN ? "refresh_token" : "authorization_code";
+        return meterRegistry.counter("emp.oauth.tokens.rejected", "kind", tag, "reason", reason).count();
+    }
+
+    private static byte[] random(int seed) {
+        byte[] bytes = new byte[Math.max(OpaqueTokenFormat.RANDOM_BYTES, 32)];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,81 @@
+package com.emp.oauth;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class RefreshGraceCacheTest {
+
+    private RefreshGraceCache cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = new RefreshGraceCache();
+        cache.graceSeconds = 10;
+        cache.cacheSize = 100;
+        cache.waitMillis = 5000;
+        cache.meterRegistry = new SimpleMeterRegistry();
+        cache.init();
+    }
+
+    @Test
+    void duplicateWaitsForTheRotationInFlight() throws Exception {
+        RefreshGraceCache.Flight first = cache.begin("rt.token");
+        assertTrue(first.isLeader());
+
+        RefreshGraceCache.Flight second = cache.begin("rt.token");
+        assertFalse(second.isLeader());
+        CompletableFuture<Optional<Map<String, Object>>> waiting =
+                CompletableFuture.supplyAsync(() -> second.await("client"));
+        Thread.sleep(50);
+        assertFalse(waiting.isDone());
+
+        first.finish("client", Map.of("refresh_token", "rt.next"));
+        assertEquals("rt.next", waiting.get(5, TimeUnit.SECONDS).orElseThrow().get("refresh_token"));
+        // Later duplicates inside the window get the same response without waiting.
+        assertEquals("rt.next", cache.begin("rt.token").await("client").orElseThrow().get("refresh_token"));
+    }
+
+    @Test
+    void otherClientsGetNothing() {
+        cache.begin("rt.token").finish("client", Map.of("refresh_token", "rt.next"));
+
+        assertTrue(cache.begin("rt.token").await("other").isEmpty());
+    }
+
+    @Test
+    void failedRotationIsNotKept() {
+        RefreshGraceCache.Flight first = cache.begin("rt.token");
+        RefreshGraceCache.Flight second = cache.begin("rt.token");
+        first.finish("client", null);
+
+        assertTrue(second.await("client").isEmpty());
+        assertTrue(cache.begin("rt.token").isLeader());
+    }
+
+    @Test
+    void duplicateGivesUpAfterTheWait() {
+        cache.waitMillis = 20;
+        cache.begin("rt.token");
+
+        assertTrue(cache.begin("rt.token").await("client").isEmpty());
+    }
+
+    @Test
+    void disabledWindowMakesEveryCallerALeader() {
+        cache.graceSeconds = 0;
+        cache.begin("rt.token").finish("client", Map.of("refresh_token", "rt.next"));
+
+        assertTrue(cache.begin("rt.token").isLeader());
+    }
+}
@@ -0,0 +1,111 @@
+package com.emp.oauth;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+
+import com.emp.oauth.OpaqueTokenFormat.Kind;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// Tokens per second from concurrent request threads: one shared SecureRandom (what token generation used
+// before), per-thread DRBGs, and per-thread DRBGs behind the prefetch ring. Gains need as many cores as
+// threads. Surefire's default includes skip *Benchmark classes; run it with
+// mvn test -Dtest=SecureTokenGeneratorBenchmark
+class SecureTokenGeneratorBenchmark {
+
+    private static final int THREADS = 8;
+    private static final int TOKENS_PER_THREAD = 50_000;
+
+    @Test
+    void tokensPerSecond() throws Exception {
+        OpaqueTokenFormat format = format();
+        SecureRandom shared = new SecureRandom();
+        Supplier<String> sharedRandom = () -> {
+            byte[] block = new byte[OpaqueTokenFormat.RANDOM_BYTES];
+            shared.nextBytes(block);
+            return format.format(Kind.REFRESH_TOKEN, block);
+        };
+        SecureTokenGenerator perThread = generator(format, 0);
+        SecureTokenGenerator prefetching = generator(format, 4096);
+        try {
+            // First round warms up the JIT and the per-thread DRBGs.
+            for (int round = 0; round < 2; round++) {
+                report(round, "shared SecureRandom", sharedRandom);
+                report(round, "per-thread DRBG", () -> perThread.next(Kind.REFRESH_TOKEN));
+                report(round, "per-thread DRBG + prefetch", () -> prefetching.next(Kind.REFRESH_TOKEN));
+            }
+        } finally {
+            perThread.close();
+            prefetching.close();
+        }
+    }
+
+    private static void report(int round, String name, Supplier<String> source) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CyclicBarrier start = new CyclicBarrier(THREADS + 1);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                Callable<Integer> task = () -> {
+                    start.await();
+                    int length = 0;
+                    for (int i = 0; i < TOKENS_PER_THREAD; i++) {
+                        length += source.get().length();
+                    }
+                    return length;
+                };
+                futures.add(pool.submit(task));
+            }
+            start.await();
+            long started = System.nanoTime();
+            long characters = 0;
+            for (Future<Integer> future : futures) {
+                characters += future.get();
+            }
+            long elapsed = System.nanoTime() - started;
+            assertEquals((long) THREADS * TOKENS_PER_THREAD * OpaqueTokenFormat.TOKEN_LENGTH, characters);
+            if (round > 0) {
+                System.out.printf("%-28s %,12.0f tokens/s with %d threads%n", name,
+                        THREADS * TOKENS_PER_THREAD * 1e9 / elapsed, THREADS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static OpaqueTokenFormat format() {
+        SealingKeyService sealingKeyService = new SealingKeyService();
+        sealingKeyService.configuredSecret = Optional.of(Base64.getEncoder().encodeToString(new byte[32]));
+        sealingKeyService.rotationHours = 24;
+        sealingKeyService.init();
+        OpaqueTokenFormat format = new OpaqueTokenFormat();
+        format.legacyIssuedBefore = Optional.empty();
+        format.refreshTokenTtlSeconds = 2592000;
+        format.authCodeTtlSeconds = 300;
+        format.sealingKeyService = sealingKeyService;
+        format.meterRegistry = new SimpleMeterRegistry();
+        format.init();
+        return format;
+    }
+
+    private static SecureTokenGenerator generator(OpaqueTokenFormat format, int prefetchBlocks) {
+        SecureTokenGenerator generator = new SecureTokenGenerator();
+        generator.prefetchBlocks = prefetchBlocks;
+        generator.tokenFormat = format;
+        generator.init();
+        return generator;
+    }
+}
@@ -0,0 +1,149 @@
+package com.emp.oauth;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.emp.oauth.OpaqueTokenFormat.Kind;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class SecureTokenGeneratorTest {
+
+    private final List<SecureTokenGenerator> generators = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        generators.forEach(SecureTokenGenerator::close);
+    }
+
+    @Test
+    void withoutPrefetchEveryTokenIsAdmittedAndUnique() {
+        SecureTokenGenerator generator = generator(0);
+        assertNull(generator.filler);
+
+        Set<String> seen = new HashSet<>();
+        for (int i = 0; i < 10_000; i++) {
+            String token = generator.next(i % 2 == 0 ? Kind.REFRESH_TOKEN : Kind.AUTHORIZATION_CODE);
+            assertTrue(generator.tokenFormat.admits(i % 2 == 0 ? Kind.REFRESH_TOKEN : Kind.AUTHORIZATION_CODE, token));
+            assertTrue(seen.add(token), token);
+        }
+        // Nothing to stop.
+        generator.close();
+    }
+
+    @Test
+    void takesPrefetchedBlocksThenFallsBackOnceTheRingIsEmpty() throws InterruptedException {
+        SecureTokenGenerator generator = generator(16);
+        assertEquals(16, generator.ring.length());
+        awaitFull(generator);
+        // With the filler stopped, the first lap empties the ring and the second finds every slot empty.
+        generator.close();
+        generator.filler.join(5000);
+
+        Set<String> seen = new HashSet<>();
+        for (int i = 0; i < 16; i++) {
+            assertTrue(seen.add(generator.next(Kind.REFRESH_TOKEN)));
+        }
+        for (int slot = 0; slot < 16; slot++) {
+            assertNull(generator.ring.get(slot), "slot " + slot);
+        }
+        for (int i = 0; i < 32; i++) {
+            String token = generator.next(Kind.REFRESH_TOKEN);
+            assertTrue(generator.tokenFormat.admits(Kind.REFRESH_TOKEN, token));
+            assertTrue(seen.add(token));
+        }
+    }
+
+    @Test
+    void fillerRefillsTakenSlots() throws InterruptedException {
+        SecureTokenGenerator generator = generator(8);
+        awaitFull(generator);
+        for (int i = 0; i < 8; i++) {
+            generator.next(Kind.AUTHORIZATION_CODE);
+        }
+        // Every taken slot gets a fresh block.
+        awaitFull(generator);
+    }
+
+    @Test
+    void closeStopsTheFiller() throws InterruptedException {
+        SecureTokenGenerator generator = generator(64);
+        assertTrue(generator.filler.isAlive());
+        assertTrue(generator.filler.isDaemon());
+
+        generator.close();
+        generator.filler.join(5000);
+        assertFalse(generator.filler.isAlive());
+    }
+
+    @Test
+    void concurrentTakesNeverRepeatABlock() throws Exception {
+        SecureTokenGenerator generator = generator(32);
+        Set<String> seen = ConcurrentHashMap.newKeySet();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(pool.submit(() -> {
+                    for (int i = 0; i < 5000; i++) {
+                        String token = generator.next(Kind.REFRESH_TOKEN);
+                        assertTrue(seen.add(token), token);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(40_000, seen.size());
+    }
+
+    private SecureTokenGenerator generator(int prefetchBlocks) {
+        SealingKeyService sealingKeyService = new SealingKeyService();
+        sealingKeyService.configuredSecret = Optional.of(Base64.getEncoder().encodeToString(new byte[32]));
+        sealingKeyService.rotationHours = 24;
+        sealingKeyService.init();
+        OpaqueTokenFormat format = new OpaqueTokenFormat();
+        format.legacyIssuedBefore = Optional.empty();
+        format.refreshTokenTtlSeconds = 2592000;
+        format.authCodeTtlSeconds = 300;
+        format.sealingKeyService = sealingKeyService;
+        format.meterRegistry = new SimpleMeterRegistry();
+        format.init();
+
+        SecureTokenGenerator generator = new SecureTokenGenerator();
+        generator.prefetchBlocks = prefetchBlocks;
+        generator.tokenFormat = format;
+        generator.init();
+        generators.add(generator);
+        return generator;
+    }
+
+    private static void awaitFull(SecureTokenGenerator generator) throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        for (int slot = 0; slot < generator.ring.length(); slot++) {
+            while (generator.ring.get(slot) == null) {
+                assertTrue(System.nanoTime() < deadline, "slot " + slot + " never filled");
+                Thread.sleep(1);
+            }
+        }
+    }
+}